@@ -0,0 +1,186 @@
+/**
+ * CipherPolicy
+ * Named TLS protocol and cipher suite policies
+ *
+ * Version v1.0
+ *
+ * Copyright (c) Rob Richter
+ */
+
+package org.northcastle.security;
+
+import java.lang.management.ManagementFactory;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLParameters;
+
+import com.sun.management.HotSpotDiagnosticMXBean;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * The TLS protocol versions and cipher suites of a named policy, reduced to
+ * what the running JDK supports. Only AEAD suites with forward secrecy are
+ * used.
+ * <ul>
+ * <li>modern: TLSv1.3 only, the client picks the suite</li>
+ * <li>intermediate: TLSv1.2 and TLSv1.3 with ECDHE suites, the client picks
+ * the suite</li>
+ * <li>performance: TLSv1.2 and TLSv1.3, the server picks the suite, AES-GCM
+ * first when the processor has AES instructions and ChaCha20 first when it
+ * does not</li>
+ * </ul>
+ */
+@Slf4j
+public class CipherPolicy {
+
+	private static final List<String> TLS13_AES = List.of("TLS_AES_128_GCM_SHA256", "TLS_AES_256_GCM_SHA384");
+	private static final List<String> TLS13_CHACHA = List.of("TLS_CHACHA20_POLY1305_SHA256");
+	private static final List<String> TLS12_AES = List.of("TLS_ECDHE_ECDSA_WITH_AES_128_GCM_SHA256",
+			"TLS_ECDHE_RSA_WITH_AES_128_GCM_SHA256", "TLS_ECDHE_ECDSA_WITH_AES_256_GCM_SHA384",
+			"TLS_ECDHE_RSA_WITH_AES_256_GCM_SHA384");
+	private static final List<String> TLS12_CHACHA = List.of("TLS_ECDHE_ECDSA_WITH_CHACHA20_POLY1305_SHA256",
+			"TLS_ECDHE_RSA_WITH_CHACHA20_POLY1305_SHA256");
+
+	private final String name;
+	private final List<String> protocols;
+	private final List<String> cipherSuites;
+	private final boolean honorCipherOrder;
+
+	/**
+	 * Build a policy and check it against the JDK. Protocols and suites the JDK
+	 * does not support are dropped.
+	 *
+	 * @param name        modern, intermediate or performance
+	 * @param aesHardware true if AES instructions are available, which decides
+	 *                    the suite order of the performance policy
+	 * @return policy
+	 * @throws NoSuchAlgorithmException if the JDK has no TLS implementation
+	 * @throws IllegalArgumentException if the name is unknown, or the JDK
+	 *                                  supports none of the policy's protocols
+	 *                                  or suites
+	 */
+	public static CipherPolicy forName(String name, boolean aesHardware) throws NoSuchAlgorithmException {
+		List<String> protocols = new ArrayList<>();
+		List<String> cipherSuites = new ArrayList<>();
+		boolean honorCipherOrder = false;
+
+		switch (name.trim().toLowerCase()) {
+		case "modern":
+			protocols.add("TLSv1.3");
+			cipherSuites.addAll(TLS13_AES);
+			cipherSuites.addAll(TLS13_CHACHA);
+			break;
+		case "intermediate":
+			protocols.add("TLSv1.2");
+			protocols.add("TLSv1.3");
+			cipherSuites.addAll(TLS13_AES);
+			cipherSuites.addAll(TLS13_CHACHA);
+			cipherSuites.addAll(TLS12_AES);
+			cipherSuites.addAll(TLS12_CHACHA);
+			break;
+		case "performance":
+			protocols.add("TLSv1.2");
+			protocols.add("TLSv1.3");
+			// ChaCha20 is faster than AES in software, AES-GCM is faster with AES instructions
+			if (aesHardware) {
+				cipherSuites.addAll(TLS13_AES);
+				cipherSuites.addAll(TLS13_CHACHA);
+				cipherSuites.addAll(TLS12_AES);
+				cipherSuites.addAll(TLS12_CHACHA);
+			} else {
+				cipherSuites.addAll(TLS13_CHACHA);
+				cipherSuites.addAll(TLS13_AES);
+				cipherSuites.addAll(TLS12_CHACHA);
+				cipherSuites.addAll(TLS12_AES);
+			}
+			honorCipherOrder = true;
+			break;
+		default:
+			throw new IllegalArgumentException("Unknown cipher policy " + name);
+		}
+
+		SSLParameters supported = SSLContext.getDefault().getSupportedSSLParameters();
+		return new CipherPolicy(name.trim().toLowerCase(), supportedOnly(protocols, supported.getProtocols(), "protocol"),
+				supportedOnly(cipherSuites, supported.getCipherSuites(), "cipher suite"), honorCipherOrder);
+	}
+
+	private CipherPolicy(String name, List<String> protocols, List<String> cipherSuites, boolean honorCipherOrder) {
+		this.name = name;
+		this.protocols = Collections.unmodifiableList(protocols);
+		this.cipherSuites = Collections.unmodifiableList(cipherSuites);
+		this.honorCipherOrder = honorCipherOrder;
+	}
+
+	/**
+	 * Keep the wanted values the JDK supports, in the wanted order
+	 */
+	private static List<String> supportedOnly(List<String> wanted, String[] supported, String kind) {
+		Set<String> available = Set.of(supported);
+		List<String> kept = new ArrayList<>();
+		for (String value : wanted) {
+			if (available.contains(value)) {
+				kept.add(value);
+			} else {
+				log.warn("The JDK does not support the " + kind + " " + value + ", it is left out");
+			}
+		}
+		if (kept.isEmpty()) {
+			throw new IllegalArgumentException("The JDK supports no " + kind + " of the policy");
+		}
+		return kept;
+	}
+
+	/**
+	 * Check whether the processor has AES instructions. The JVM only enables its
+	 * AES intrinsics when it does. JVMs without that option are assumed to have
+	 * them on x86-64 and AArch64.
+	 *
+	 * @return true if AES is accelerated
+	 */
+	public static boolean hasAESHardware() {
+		try {
+			HotSpotDiagnosticMXBean hotSpot = ManagementFactory.getPlatformMXBean(HotSpotDiagnosticMXBean.class);
+			if (hotSpot != null) {
+				return Boolean.parseBoolean(hotSpot.getVMOption("UseAESIntrinsics").getValue());
+			}
+		} catch (IllegalArgumentException e) {
+			// not a HotSpot option on this JVM
+		}
+		String arch = System.getProperty("os.arch", "");
+		return arch.equals("amd64") || arch.equals("x86_64") || arch.equals("aarch64");
+	}
+
+	/**
+	 * @return name of the policy
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * @return protocol versions, oldest first
+	 */
+	public List<String> getProtocols() {
+		return protocols;
+	}
+
+	/**
+	 * @return cipher suites in preference order
+	 */
+	public List<String> getCipherSuites() {
+		return cipherSuites;
+	}
+
+	/**
+	 * @return true if the server's suite order wins over the client's
+	 */
+	public boolean isHonorCipherOrder() {
+		return honorCipherOrder;
+	}
+}
@@ -0,0 +1,427 @@
+/**
+ * HandshakeBenchmark
+ * In-memory TLS handshake benchmark for key store entries
+ *
+ * Version v1.0
+ *
+ * Copyright (c) Rob Richter
+ */
+
+package org.northcastle.security;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.security.GeneralSecurityException;
+import java.security.Key;
+import java.security.KeyStore;
+import java.security.KeyStoreException;
+import java.security.Principal;
+import java.security.PrivateKey;
+import java.security.cert.Certificate;
+import java.security.cert.X509Certificate;
+import java.security.interfaces.ECKey;
+import java.security.interfaces.RSAKey;
+import java.util.Arrays;
+import java.util.Collections;
+
+import javax.net.ssl.KeyManager;
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLEngineResult.HandshakeStatus;
+import javax.net.ssl.SSLException;
+import javax.net.ssl.TrustManagerFactory;
+import javax.net.ssl.X509ExtendedKeyManager;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Measures the cost of TLS handshakes with the key and certificate chain of a
+ * key store entry. A JSSE client and server SSLEngine hand their records to
+ * each other through memory, so there is no network or socket cost in the
+ * numbers, only the TLS work. Handshakes run one after the other on the calling
+ * thread.
+ *
+ * Full handshakes give each client engine a new peer port, so no cached session
+ * matches. Resumed handshakes reuse one peer, so after the first handshake the
+ * client offers the session it was given. A handshake counts as resumed when
+ * the server did not have to pick a key for it.
+ */
+@Slf4j
+public class HandshakeBenchmark {
+
+	// a handshake that takes more rounds than this is stuck
+	private static final int MAX_ROUNDS = 64;
+
+	private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+
+	/**
+	 * Timing and allocation of a benchmark run
+	 */
+	public static final class Result {
+		private final String key;
+		private final boolean resumed;
+		private final String protocol;
+		private final int handshakes;
+		private final int resumedHandshakes;
+		private final long elapsedNanos;
+		private final long[] sortedNanos;
+		private final long allocatedBytes;
+
+		private Result(String key, boolean resumed, String protocol, int resumedHandshakes, long elapsedNanos,
+				long[] sortedNanos, long allocatedBytes) {
+			this.key = key;
+			this.resumed = resumed;
+			this.protocol = protocol;
+			this.handshakes = sortedNanos.length;
+			this.resumedHandshakes = resumedHandshakes;
+			this.elapsedNanos = elapsedNanos;
+			this.sortedNanos = sortedNanos;
+			this.allocatedBytes = allocatedBytes;
+		}
+
+		/**
+		 * @return key algorithm and size, such as RSA-4096 or EC-256
+		 */
+		public String getKey() {
+			return key;
+		}
+
+		/**
+		 * @return number of handshakes measured
+		 */
+		public int getHandshakes() {
+			return handshakes;
+		}
+
+		/**
+		 * @return number of measured handshakes that resumed a session instead of
+		 *         authenticating with the key again
+		 */
+		public int getResumedHandshakes() {
+			return resumedHandshakes;
+		}
+
+		/**
+		 * @return handshakes completed per second
+		 */
+		public double getHandshakesPerSecond() {
+			return handshakes * 1e9 / elapsedNanos;
+		}
+
+		/**
+		 * @param percentile between 0 and 100
+		 * @return handshake latency at the percentile, in microseconds
+		 */
+		public double getLatencyMicros(double percentile) {
+			int index = (int) Math.ceil(percentile / 100 * handshakes) - 1;
+			return sortedNanos[Math.max(0, Math.min(index, handshakes - 1))] / 1e3;
+		}
+
+		/**
+		 * @return bytes allocated per handshake by the benchmark thread, or -1 if
+		 *         the JVM does not measure it
+		 */
+		public long getBytesPerHandshake() {
+			return allocatedBytes < 0 ? -1 : allocatedBytes / handshakes;
+		}
+
+		/**
+		 * @return megabytes allocated per second by the benchmark thread, or -1 if
+		 *         the JVM does not measure it
+		 */
+		public double getAllocationMBPerSecond() {
+			return allocatedBytes < 0 ? -1 : allocatedBytes * 1e9 / elapsedNanos / (1024 * 1024);
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%s %s %s: %d handshakes, %d resumed, %.1f/s, p50 %.0fus, p90 %.0fus, p99 %.0fus, max %.0fus, "
+					+ "%d bytes/handshake, %.1f MB/s allocated", key, protocol, resumed ? "resumed" : "full", handshakes,
+					resumedHandshakes, getHandshakesPerSecond(), getLatencyMicros(50), getLatencyMicros(90), getLatencyMicros(99),
+					getLatencyMicros(100), getBytesPerHandshake(), getAllocationMBPerSecond());
+		}
+	}
+
+	/**
+	 * Benchmark handshakes with one key entry. The client trusts the last
+	 * certificate of the entry's chain, which is the certificate itself when it
+	 * is self-signed, or the certificate authority.
+	 *
+	 * @param keyStore   key store holding the entry
+	 * @param alias      alias of the key entry
+	 * @param password   password of the entry
+	 * @param protocol   protocol to use, such as TLSv1.2, or null for the JDK's
+	 *                   default choice
+	 * @param resume     true to resume the session, false for full handshakes
+	 * @param warmup     handshakes run before measuring, to let the JIT compile
+	 * @param handshakes handshakes measured
+	 * @return measurements
+	 * @throws GeneralSecurityException if the entry cannot be used for TLS
+	 * @throws IOException              if a handshake fails
+	 */
+	public static Result run(KeyStore keyStore, String alias, char[] password, String protocol, boolean resume,
+			int warmup, int handshakes) throws GeneralSecurityException, IOException {
+		Key key = keyStore.getKey(alias, password);
+		Certificate[] chain = keyStore.getCertificateChain(alias);
+		if (!(key instanceof PrivateKey) || chain == null || chain.length == 0) {
+			throw new KeyStoreException("No private key entry " + alias);
+		}
+
+		// the server only holds this entry, the client only trusts its root
+		KeyStore serverStore = Keys.createKeyStore("PKCS12");
+		serverStore.setKeyEntry(alias, key, password, chain);
+		KeyManagerFactory keyManagers = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+		keyManagers.init(serverStore, password);
+		if (!(keyManagers.getKeyManagers()[0] instanceof X509ExtendedKeyManager)) {
+			throw new KeyStoreException("No X.509 key manager for " + alias);
+		}
+		CountingKeyManager serverKeys = new CountingKeyManager((X509ExtendedKeyManager) keyManagers.getKeyManagers()[0]);
+		SSLContext serverContext = SSLContext.getInstance("TLS");
+		serverContext.init(new KeyManager[] { serverKeys }, null, null);
+
+		KeyStore trustStore = Keys.createKeyStore("PKCS12");
+		trustStore.setCertificateEntry("trusted", chain[chain.length - 1]);
+		TrustManagerFactory trustManagers = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+		trustManagers.init(trustStore);
+		SSLContext clientContext = SSLContext.getInstance("TLS");
+		clientContext.init(null, trustManagers.getTrustManagers(), null);
+
+		String[] protocols = (protocol == null ? null : new String[] { protocol });
+		String negotiated = null;
+		for (int i = 0; i < warmup; i++) {
+			negotiated = handshake(clientContext, serverContext, protocols, resume ? 0 : 1 + i);
+		}
+
+		ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		long[] nanos = new long[handshakes];
+		long allocatedBefore = allocatedBytes(threads);
+		int resumed = 0;
+		long start = System.nanoTime();
+		for (int i = 0; i < handshakes; i++) {
+			int selections = serverKeys.selections;
+			long begin = System.nanoTime();
+			negotiated = handshake(clientContext, serverContext, protocols, resume ? 0 : 1 + warmup + i);
+			nanos[i] = System.nanoTime() - begin;
+			if (serverKeys.selections == selections) {
+				resumed++;
+			}
+		}
+		long elapsed = System.nanoTime() - start;
+		long allocatedAfter = allocatedBytes(threads);
+
+		Arrays.sort(nanos);
+		return new Result(describe(key), resume, negotiated, resumed, elapsed, nanos,
+				allocatedBefore < 0 ? -1 : allocatedAfter - allocatedBefore);
+	}
+
+	/**
+	 * Server key manager that counts how often it is asked to pick a key. A full
+	 * handshake asks at least once, a resumed handshake reuses the session and
+	 * does not ask.
+	 */
+	private static final class CountingKeyManager extends X509ExtendedKeyManager {
+		private final X509ExtendedKeyManager delegate;
+		private int selections;
+
+		private CountingKeyManager(X509ExtendedKeyManager delegate) {
+			this.delegate = delegate;
+		}
+
+		@Override
+		public String chooseEngineServerAlias(String keyType, Principal[] issuers, SSLEngine engine) {
+			selections++;
+			return delegate.chooseEngineServerAlias(keyType, issuers, engine);
+		}
+
+		@Override
+		public String chooseServerAlias(String keyType, Principal[] issuers, Socket socket) {
+			selections++;
+			return delegate.chooseServerAlias(keyType, issuers, socket);
+		}
+
+		@Override
+		public String[] getServerAliases(String keyType, Principal[] issuers) {
+			return delegate.getServerAliases(keyType, issuers);
+		}
+
+		@Override
+		public String[] getClientAliases(String keyType, Principal[] issuers) {
+			return delegate.getClientAliases(keyType, issuers);
+		}
+
+		@Override
+		public String chooseClientAlias(String[] keyType, Principal[] issuers, Socket socket) {
+			return delegate.chooseClientAlias(keyType, issuers, socket);
+		}
+
+		@Override
+		public X509Certificate[] getCertificateChain(String alias) {
+			return delegate.getCertificateChain(alias);
+		}
+
+		@Override
+		public PrivateKey getPrivateKey(String alias) {
+			return delegate.getPrivateKey(alias);
+		}
+	}
+
+	/**
+	 * Run one handshake between a new client and a new server engine
+	 *
+	 * @return negotiated protocol
+	 */
+	private static String handshake(SSLContext clientContext, SSLContext serverContext, String[] protocols,
+			int peerPort) throws SSLException {
+		SSLEngine client = clientContext.createSSLEngine("benchmark", peerPort);
+		client.setUseClientMode(true);
+		SSLEngine server = serverContext.createSSLEngine();
+		server.setUseClientMode(false);
+		if (protocols != null) {
+			client.setEnabledProtocols(protocols);
+			server.setEnabledProtocols(protocols);
+		}
+
+		// a flight can hold several records, such as the server's certificate chain
+		int packetSize = client.getSession().getPacketBufferSize();
+		ByteBuffer clientToServer = ByteBuffer.allocate(packetSize * 4);
+		ByteBuffer serverToClient = ByteBuffer.allocate(packetSize * 4);
+		ByteBuffer application = ByteBuffer.allocate(client.getSession().getApplicationBufferSize());
+
+		client.beginHandshake();
+		server.beginHandshake();
+		for (int round = 0; round < MAX_ROUNDS; round++) {
+			boolean progress = transfer(client, server, clientToServer, application);
+			progress |= transfer(server, client, serverToClient, application);
+			// TLSv1.3 servers send the session ticket after the handshake, so keep going
+			// until nothing moves
+			if (!progress && isDone(client) && isDone(server)) {
+				return client.getSession().getProtocol();
+			}
+		}
+		throw new SSLException("Handshake did not complete in " + MAX_ROUNDS + " rounds");
+	}
+
+	/**
+	 * Let one engine write everything it has to send, then let the other engine
+	 * read as much as it will. An engine that has to answer first leaves the
+	 * rest in the buffer for the next round.
+	 *
+	 * @return true if any bytes were sent or read
+	 */
+	private static boolean transfer(SSLEngine from, SSLEngine to, ByteBuffer network, ByteBuffer application)
+			throws SSLException {
+		boolean progress = false;
+		while (from.getHandshakeStatus() == HandshakeStatus.NEED_WRAP) {
+			SSLEngineResult result = from.wrap(EMPTY, network);
+			runTasks(from);
+			if (result.getStatus() != SSLEngineResult.Status.OK) {
+				throw new SSLException("Wrap failed: " + result.getStatus());
+			}
+			progress |= result.bytesProduced() > 0;
+		}
+
+		network.flip();
+		while (network.hasRemaining()) {
+			application.clear();
+			SSLEngineResult result = to.unwrap(network, application);
+			runTasks(to);
+			if (result.getStatus() != SSLEngineResult.Status.OK) {
+				throw new SSLException("Unwrap failed: " + result.getStatus());
+			}
+			if (result.bytesConsumed() == 0) {
+				break;
+			}
+			progress = true;
+		}
+		network.compact();
+		return progress;
+	}
+
+	private static void runTasks(SSLEngine engine) {
+		Runnable task;
+		while ((task = engine.getDelegatedTask()) != null) {
+			task.run();
+		}
+	}
+
+	private static boolean isDone(SSLEngine engine) {
+		HandshakeStatus status = engine.getHandshakeStatus();
+		return status == HandshakeStatus.NOT_HANDSHAKING || status == HandshakeStatus.FINISHED;
+	}
+
+	/**
+	 * @return bytes allocated so far by the calling thread, or -1 if the JVM
+	 *         does not measure it
+	 */
+	private static long allocatedBytes(ThreadMXBean threads) {
+		if (threads instanceof com.sun.management.ThreadMXBean) {
+			com.sun.management.ThreadMXBean hotSpot = (com.sun.management.ThreadMXBean) threads;
+			if (hotSpot.isThreadAllocatedMemorySupported() && hotSpot.isThreadAllocatedMemoryEnabled()) {
+				return hotSpot.getCurrentThreadAllocatedBytes();
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * @return key algorithm and size
+	 */
+	private static String describe(Key key) {
+		if (key instanceof RSAKey) {
+			return "RSA-" + ((RSAKey) key).getModulus().bitLength();
+		} else if (key instanceof ECKey) {
+			return "EC-" + ((ECKey) key).getParams().getCurve().getField().getFieldSize();
+		}
+		return key.getAlgorithm();
+	}
+
+	/**
+	 * Benchmark every key entry of a PKCS12 key store, with full and with
+	 * resumed handshakes.
+	 *
+	 * Arguments: key store file, password, and optionally the number of
+	 * handshakes measured (default 200) and a protocol such as TLSv1.2
+	 *
+	 * @param args command line arguments
+	 */
+	public static void main(String[] args) {
+		if (args.length < 2) {
+			log.error("Usage: HandshakeBenchmark keystore password [handshakes] [protocol]");
+			System.exit(2);
+		}
+		int handshakes = (args.length > 2 ? Integer.parseInt(args[2]) : 200);
+		String protocol = (args.length > 3 ? args[3] : null);
+		try {
+			char[] password = args[1].toCharArray();
+			KeyStore keyStore = KeyStore.getInstance("PKCS12");
+			try (InputStream input = Files.newInputStream(Paths.get(args[0]))) {
+				keyStore.load(input, password);
+			}
+			for (String alias : Collections.list(keyStore.aliases())) {
+				if (keyStore.isKeyEntry(alias)) {
+					for (boolean resume : new boolean[] { false, true }) {
+						log.info(alias + ": " + run(keyStore, alias, password, protocol, resume, handshakes / 4 + 1,
+								handshakes));
+					}
+				}
+			}
+		} catch (IOException | GeneralSecurityException e) {
+			log.error("Benchmark failed", e);
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * This class does not need to be instantiated
+	 */
+	private HandshakeBenchmark() {
+	}
+}
@@ -0,0 +1,319 @@
+/**
+ * KeyPairPool
+ * Pool of RSA key pairs generated ahead of time
+ *
+ * Version v1.0
+ *
+ * Copyright (c) Rob Richter
+ */
+
+package org.northcastle.security;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.KeyPair;
+import java.security.SecureRandom;
+import java.security.interfaces.RSAPublicKey;
+import java.security.spec.PKCS8EncodedKeySpec;
+import java.security.spec.X509EncodedKeySpec;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.PBEKeySpec;
+import javax.crypto.spec.SecretKeySpec;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Bounded pool of RSA key pairs that are generated on background threads, so
+ * that taking one does not wait for the generator. Each pair is handed out
+ * once. When the pool is empty a pair is generated on the calling thread.
+ *
+ * The pool can be kept in a local store between runs. The store is encrypted
+ * with AES-GCM under a key derived from a password. Pairs read from the store
+ * are removed from it straight away, and whatever is left is written back when
+ * the pool is closed, so no pair is ever handed out twice.
+ */
+@Slf4j
+public class KeyPairPool implements Closeable {
+
+	/**
+	 * When the pool starts generating new pairs
+	 */
+	public enum Refill {
+		/** after every pair taken, to keep the pool full */
+		EAGER,
+		/** only once the pool is down to the low-water mark, then back up to full */
+		LOW_WATER
+	}
+
+	private static final int STORE_VERSION = 1;
+	private static final int SALT_LENGTH = 16;
+	private static final int IV_LENGTH = 12;
+	private static final int KEY_ITERATIONS = 210000;
+
+	private final int keySize;
+	private final int capacity;
+	private final int lowWaterMark;
+	private final Refill refill;
+	private final Path storeFile;
+	private final char[] storePassword;
+
+	private final BlockingQueue<KeyPair> pairs;
+	private final AtomicInteger scheduled = new AtomicInteger();
+	private final ExecutorService generators;
+
+	/**
+	 * Create a pool that is not persisted, and start filling it
+	 *
+	 * @param keySize      RSA key size in bits
+	 * @param capacity     most pairs kept in the pool
+	 * @param lowWaterMark number of pairs left that starts a refill
+	 * @param refill       refill policy
+	 * @param threads      number of generator threads, 0 or less to use one per
+	 *                     available processor
+	 */
+	public KeyPairPool(int keySize, int capacity, int lowWaterMark, Refill refill, int threads) {
+		this.keySize = keySize;
+		this.capacity = capacity;
+		this.lowWaterMark = Math.min(lowWaterMark, capacity - 1);
+		this.refill = refill;
+		this.storeFile = null;
+		this.storePassword = null;
+		this.pairs = new LinkedBlockingQueue<>(capacity);
+		this.generators = newGenerators(threads);
+		fill();
+	}
+
+	/**
+	 * Create a pool kept in an encrypted store, load any pairs left in it and
+	 * start filling the rest
+	 *
+	 * @param keySize       RSA key size in bits
+	 * @param capacity      most pairs kept in the pool
+	 * @param lowWaterMark  number of pairs left that starts a refill
+	 * @param refill        refill policy
+	 * @param threads       number of generator threads, 0 or less to use one per
+	 *                      available processor
+	 * @param storeFile     location of the store
+	 * @param storePassword password the store is encrypted with
+	 * @throws IOException
+	 * @throws GeneralSecurityException if the store cannot be decrypted
+	 */
+	public KeyPairPool(int keySize, int capacity, int lowWaterMark, Refill refill, int threads, Path storeFile,
+			char[] storePassword) throws IOException, GeneralSecurityException {
+		this.keySize = keySize;
+		this.capacity = capacity;
+		this.lowWaterMark = Math.min(lowWaterMark, capacity - 1);
+		this.refill = refill;
+		this.storeFile = storeFile;
+		this.storePassword = storePassword.clone();
+		this.pairs = new LinkedBlockingQueue<>(capacity);
+
+		if (Files.exists(storeFile)) {
+			for (KeyPair pair : load()) {
+				pairs.offer(pair);
+			}
+			// loaded pairs belong to this pool now, they must not be found again
+			Files.delete(storeFile);
+			log.info("Loaded " + pairs.size() + " key pairs from " + storeFile);
+		}
+
+		this.generators = newGenerators(threads);
+		fill();
+	}
+
+	/**
+	 * Take a key pair that has not been handed out before
+	 *
+	 * @return key pair
+	 * @throws GeneralSecurityException
+	 */
+	public KeyPair take() throws GeneralSecurityException {
+		KeyPair pair = pairs.poll();
+		if (refill == Refill.EAGER || pairs.size() <= lowWaterMark) {
+			fill();
+		}
+		if (pair == null) {
+			log.info("Key pair pool is empty, generating on the calling thread");
+			pair = Keys.generateKeyPair(keySize);
+		}
+		return pair;
+	}
+
+	/**
+	 * @return number of pairs ready to be taken
+	 */
+	public int available() {
+		return pairs.size();
+	}
+
+	/**
+	 * Stop generating. Queued generations are dropped and the ones running are
+	 * interrupted rather than waited for, then the pairs already in the pool are
+	 * written to the store if there is one.
+	 *
+	 * @throws IOException
+	 */
+	@Override
+	public void close() throws IOException {
+		generators.shutdownNow();
+
+		if (storeFile != null) {
+			List<KeyPair> remaining = new ArrayList<>();
+			pairs.drainTo(remaining);
+			try {
+				save(remaining);
+			} catch (GeneralSecurityException e) {
+				throw new IOException("Cannot encrypt key pair store " + storeFile, e);
+			}
+			log.info("Saved " + remaining.size() + " key pairs to " + storeFile);
+		}
+	}
+
+	/**
+	 * Schedule enough generations to bring the pool back up to capacity
+	 */
+	private synchronized void fill() {
+		if (generators.isShutdown()) {
+			return;
+		}
+		int missing = capacity - pairs.size() - scheduled.get();
+		for (int i = 0; i < missing; i++) {
+			scheduled.incrementAndGet();
+			generators.execute(this::generate);
+		}
+	}
+
+	/**
+	 * Generate one pair into the pool
+	 */
+	private void generate() {
+		try {
+			pairs.offer(Keys.generateKeyPair(keySize));
+		} catch (GeneralSecurityException e) {
+			log.warn("Key pair generation failed", e);
+		} finally {
+			scheduled.decrementAndGet();
+		}
+	}
+
+	/**
+	 * Generator threads are daemons, so an unclosed pool never keeps the JVM
+	 * running
+	 */
+	private static ExecutorService newGenerators(int threads) {
+		if (threads <= 0) {
+			threads = Runtime.getRuntime().availableProcessors();
+		}
+		return Executors.newFixedThreadPool(threads, runnable -> {
+			Thread thread = new Thread(runnable, "keypair-generator");
+			thread.setDaemon(true);
+			thread.setPriority(Thread.MIN_PRIORITY);
+			return thread;
+		});
+	}
+
+	/**
+	 * Read and decrypt the store. Pairs of a different key size are dropped.
+	 */
+	private List<KeyPair> load() throws IOException, GeneralSecurityException {
+		byte[] plain;
+		try (DataInputStream input = new DataInputStream(Files.newInputStream(storeFile))) {
+			if (input.readInt() != STORE_VERSION) {
+				throw new IOException("Unsupported key pair store " + storeFile);
+			}
+			byte[] salt = input.readNBytes(SALT_LENGTH);
+			byte[] iv = input.readNBytes(IV_LENGTH);
+			byte[] sealed = input.readAllBytes();
+			Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+			cipher.init(Cipher.DECRYPT_MODE, storeKey(salt), new GCMParameterSpec(128, iv));
+			plain = cipher.doFinal(sealed);
+		}
+
+		KeyFactory factory = KeyFactory.getInstance("RSA");
+		List<KeyPair> loaded = new ArrayList<>();
+		try (DataInputStream input = new DataInputStream(new ByteArrayInputStream(plain))) {
+			int count = input.readInt();
+			for (int i = 0; i < count; i++) {
+				byte[] publicKey = input.readNBytes(input.readInt());
+				byte[] privateKey = input.readNBytes(input.readInt());
+				KeyPair pair = new KeyPair(factory.generatePublic(new X509EncodedKeySpec(publicKey)),
+						factory.generatePrivate(new PKCS8EncodedKeySpec(privateKey)));
+				if (((RSAPublicKey) pair.getPublic()).getModulus().bitLength() == keySize) {
+					loaded.add(pair);
+				}
+			}
+		}
+		return loaded;
+	}
+
+	/**
+	 * Encrypt and write the store, replacing it in one step
+	 */
+	private void save(List<KeyPair> remaining) throws IOException, GeneralSecurityException {
+		ByteArrayOutputStream plain = new ByteArrayOutputStream();
+		try (DataOutputStream output = new DataOutputStream(plain)) {
+			output.writeInt(remaining.size());
+			for (KeyPair pair : remaining) {
+				byte[] publicKey = pair.getPublic().getEncoded();
+				byte[] privateKey = pair.getPrivate().getEncoded();
+				output.writeInt(publicKey.length);
+				output.write(publicKey);
+				output.writeInt(privateKey.length);
+				output.write(privateKey);
+			}
+		}
+
+		SecureRandom random = new SecureRandom();
+		byte[] salt = new byte[SALT_LENGTH];
+		byte[] iv = new byte[IV_LENGTH];
+		random.nextBytes(salt);
+		random.nextBytes(iv);
+		Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+		cipher.init(Cipher.ENCRYPT_MODE, storeKey(salt), new GCMParameterSpec(128, iv));
+		byte[] sealed = cipher.doFinal(plain.toByteArray());
+
+		if (storeFile.getParent() != null) {
+			Files.createDirectories(storeFile.getParent());
+		}
+		Path partFile = storeFile.resolveSibling(storeFile.getFileName() + ".part");
+		try (DataOutputStream output = new DataOutputStream(Files.newOutputStream(partFile))) {
+			output.writeInt(STORE_VERSION);
+			output.write(salt);
+			output.write(iv);
+			output.write(sealed);
+		}
+		Files.move(partFile, storeFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * Derive the store encryption key from the password
+	 */
+	private SecretKeySpec storeKey(byte[] salt) throws GeneralSecurityException {
+		PBEKeySpec spec = new PBEKeySpec(storePassword, salt, KEY_ITERATIONS, 256);
+		try {
+			byte[] key = SecretKeyFactory.getInstance("PBKDF2WithHmacSHA256").generateSecret(spec).getEncoded();
+			return new SecretKeySpec(key, "AES");
+		} finally {
+			spec.clearPassword();
+		}
+	}
+}
@@ -0,0 +1,186 @@
+/**
+ * KeyStoreInspector
+ * Reads the state of a key store file
+ *
+ * Version v1.0
+ *
+ * Copyright (c) Rob Richter
+ */
+
+package org.northcastle.security;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.cert.Certificate;
+import java.security.cert.X509Certificate;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Opens a key store with its password and reads when its certificates expire
+ * and which kind of key each of them holds.
+ * Results are cached by file, modification time and size, so checking the same
+ * unchanged key store again does not load it again.
+ */
+public class KeyStoreInspector {
+
+	/**
+	 * What was found in a key store
+	 */
+	public static final class Result {
+		private final boolean readable;
+		private final Instant notAfter;
+		private final Map<String, String> keyAlgorithms;
+
+		private Result(boolean readable, Instant notAfter, Map<String, String> keyAlgorithms) {
+			this.readable = readable;
+			this.notAfter = notAfter;
+			this.keyAlgorithms = Collections.unmodifiableMap(keyAlgorithms);
+		}
+
+		/**
+		 * @return true if the key store opened with the password and holds at least
+		 *         one key with a certificate
+		 */
+		public boolean isReadable() {
+			return readable;
+		}
+
+		/**
+		 * @return expiry of the certificate that expires first, null if not
+		 *         readable
+		 */
+		public Instant getNotAfter() {
+			return notAfter;
+		}
+
+		/**
+		 * @return public key algorithm of each key entry with a certificate, such
+		 *         as RSA or EC, by alias
+		 */
+		public Map<String, String> getKeyAlgorithms() {
+			return keyAlgorithms;
+		}
+
+		/**
+		 * Check whether the key store can be used for longer than a renewal window
+		 *
+		 * @param renewalWindow how long before expiry a certificate is renewed
+		 * @return true if readable and not expiring within the window
+		 */
+		public boolean isUsable(Duration renewalWindow) {
+			return readable && notAfter.isAfter(Instant.now().plus(renewalWindow));
+		}
+	}
+
+	/**
+	 * A result, with the file state and password it was computed from
+	 */
+	private static final class CacheEntry {
+		private final long modified;
+		private final long size;
+		private final byte[] passwordDigest;
+		private final Result result;
+
+		private CacheEntry(long modified, long size, byte[] passwordDigest, Result result) {
+			this.modified = modified;
+			this.size = size;
+			this.passwordDigest = passwordDigest;
+			this.result = result;
+		}
+	}
+
+	// the last result for each key store
+	private static final Map<Path, CacheEntry> CACHE = new ConcurrentHashMap<>();
+
+	/**
+	 * Inspect a key store. A missing file, a wrong password or a key store with
+	 * no keys all give a result that is not readable.
+	 *
+	 * @param keyStoreFile key store to inspect
+	 * @param storeType    key store type, such as PKCS12
+	 * @param password     password for the key store
+	 * @return inspection result
+	 * @throws IOException if the file cannot be read
+	 */
+	public static Result inspect(Path keyStoreFile, String storeType, String password) throws IOException {
+		if (!Files.isRegularFile(keyStoreFile) || password == null) {
+			return new Result(false, null, Map.of());
+		}
+
+		Path key = keyStoreFile.toAbsolutePath().normalize();
+		long modified = Files.getLastModifiedTime(keyStoreFile).toMillis();
+		long size = Files.size(keyStoreFile);
+		byte[] passwordDigest = digest(storeType + "\0" + password);
+
+		CacheEntry cached = CACHE.get(key);
+		if (cached != null && cached.modified == modified && cached.size == size
+				&& MessageDigest.isEqual(cached.passwordDigest, passwordDigest)) {
+			return cached.result;
+		}
+
+		Result result = load(keyStoreFile, storeType, password);
+		CACHE.put(key, new CacheEntry(modified, size, passwordDigest, result));
+		return result;
+	}
+
+	/**
+	 * Load the key store, find the earliest expiry of its key certificates and
+	 * the algorithm of each key
+	 */
+	private static Result load(Path keyStoreFile, String storeType, String password) throws IOException {
+		try {
+			KeyStore keyStore = KeyStore.getInstance(storeType);
+			try (InputStream input = Files.newInputStream(keyStoreFile)) {
+				keyStore.load(input, password.toCharArray());
+			}
+
+			Instant notAfter = null;
+			Map<String, String> keyAlgorithms = new LinkedHashMap<>();
+			for (String alias : Collections.list(keyStore.aliases())) {
+				Certificate certificate = keyStore.isKeyEntry(alias) ? keyStore.getCertificate(alias) : null;
+				if (certificate instanceof X509Certificate) {
+					Instant expires = ((X509Certificate) certificate).getNotAfter().toInstant();
+					keyAlgorithms.put(alias, certificate.getPublicKey().getAlgorithm());
+					if (notAfter == null || expires.isBefore(notAfter)) {
+						notAfter = expires;
+					}
+				}
+			}
+			return new Result(notAfter != null, notAfter, keyAlgorithms);
+		} catch (GeneralSecurityException e) {
+			return new Result(false, null, Map.of());
+		} catch (IOException e) {
+			// a wrong password or a damaged file both surface as an IOException from load
+			if (Files.isReadable(keyStoreFile)) {
+				return new Result(false, null, Map.of());
+			}
+			throw e;
+		}
+	}
+
+	private static byte[] digest(String value) {
+		try {
+			return MessageDigest.getInstance("SHA-256").digest(value.getBytes(StandardCharsets.UTF_8));
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * This class does not need to be instantiated
+	 */
+	private KeyStoreInspector() {
+	}
+}
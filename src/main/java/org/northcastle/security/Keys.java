@@ -11,15 +11,23 @@ package org.northcastle.security;
 
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.GeneralSecurityException;
+import java.security.InvalidAlgorithmParameterException;
+import java.security.Key;
 import java.security.KeyPair;
 import java.security.KeyPairGenerator;
 import java.security.KeyStore;
 import java.security.KeyStoreException;
 import java.security.NoSuchAlgorithmException;
+import java.security.PrivateKey;
 import java.security.cert.Certificate;
 import java.security.cert.CertificateException;
+import java.security.spec.ECGenParameterSpec;
+import java.util.Base64;
 
 /**
  * Convenience class for handling keys and key stores
@@ -41,12 +49,43 @@ public class Keys {
 	 */
 	public static KeyStore createKeyStore(String storeType, KeyPair pair, String password, Certificate[] chain)
 			throws NoSuchAlgorithmException, CertificateException, IOException, KeyStoreException {
+		KeyStore keyStore = createKeyStore(storeType);
+		addKeyEntry(keyStore, "main", pair, password, chain);
+		return keyStore;
+	}
+
+	/**
+	 * Create a new, empty keystore
+	 *
+	 * @param storeType key store type, which must be a valid provider
+	 * @return empty key store
+	 * @throws NoSuchAlgorithmException
+	 * @throws CertificateException
+	 * @throws IOException
+	 * @throws KeyStoreException
+	 */
+	public static KeyStore createKeyStore(String storeType)
+			throws NoSuchAlgorithmException, CertificateException, IOException, KeyStoreException {
 		KeyStore keyStore = KeyStore.getInstance(storeType);
 		keyStore.load(null, null); // empty key store
-		keyStore.setKeyEntry("main", pair.getPrivate(), password.toCharArray(), chain);
 		return keyStore;
 	}
 
+	/**
+	 * Add a key pair and its certificate chain to a key store under an alias
+	 *
+	 * @param keyStore key store to update
+	 * @param alias    alias of the entry, replaced if it exists
+	 * @param pair     key pair to store into the key store
+	 * @param password password for the entry
+	 * @param chain    the certificate chain that will include the key pair
+	 * @throws KeyStoreException
+	 */
+	public static void addKeyEntry(KeyStore keyStore, String alias, KeyPair pair, String password, Certificate[] chain)
+			throws KeyStoreException {
+		keyStore.setKeyEntry(alias, pair.getPrivate(), password.toCharArray(), chain);
+	}
+
 	/**
 	 * Write key store file as a new file. This will delete any existing key store
 	 * of the same name.
@@ -76,6 +115,60 @@ public class Keys {
 
 	}
 
+	/**
+	 * Write a key entry of a key store as PEM files, the form OpenSSL reads. The
+	 * certificate file holds the entry's own certificate, the key file its
+	 * private key as unencrypted PKCS#8, and the chain file the rest of the
+	 * certificate chain. The key file is only readable by its owner where the
+	 * file system supports POSIX permissions.
+	 *
+	 * @param keyStore        key store holding the entry
+	 * @param alias           alias of the entry
+	 * @param password        password of the entry
+	 * @param certificateFile file for the certificate
+	 * @param keyFile         file for the private key
+	 * @param chainFile       file for the chain, deleted if the chain only holds
+	 *                        the certificate
+	 * @throws GeneralSecurityException if the entry cannot be read
+	 * @throws IOException
+	 */
+	public static void createPEMFiles(KeyStore keyStore, String alias, String password, Path certificateFile,
+			Path keyFile, Path chainFile) throws GeneralSecurityException, IOException {
+		Key key = keyStore.getKey(alias, password.toCharArray());
+		Certificate[] chain = keyStore.getCertificateChain(alias);
+		if (!(key instanceof PrivateKey) || chain == null || chain.length == 0) {
+			throw new KeyStoreException("No private key entry " + alias);
+		}
+
+		Files.createDirectories(certificateFile.toAbsolutePath().getParent());
+		Files.writeString(certificateFile, toPEM("CERTIFICATE", chain[0].getEncoded()), StandardCharsets.US_ASCII);
+
+		Files.deleteIfExists(keyFile);
+		if (keyFile.getFileSystem().supportedFileAttributeViews().contains("posix")) {
+			Files.createFile(keyFile, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+		}
+		Files.writeString(keyFile, toPEM("PRIVATE KEY", key.getEncoded()), StandardCharsets.US_ASCII);
+
+		if (chain.length > 1) {
+			StringBuilder chainPEM = new StringBuilder();
+			for (int i = 1; i < chain.length; i++) {
+				chainPEM.append(toPEM("CERTIFICATE", chain[i].getEncoded()));
+			}
+			Files.writeString(chainFile, chainPEM, StandardCharsets.US_ASCII);
+		} else {
+			Files.deleteIfExists(chainFile);
+		}
+	}
+
+	/**
+	 * Encode DER data as a PEM block
+	 */
+	private static String toPEM(String type, byte[] encoded) {
+		return "-----BEGIN " + type + "-----\n"
+				+ Base64.getMimeEncoder(64, "\n".getBytes(StandardCharsets.US_ASCII)).encodeToString(encoded)
+				+ "\n-----END " + type + "-----\n";
+	}
+
 	/**
 	 * Generate an RSA key pair with the specified key size
 	 *
@@ -89,6 +182,44 @@ public class Keys {
 		return keyPair.generateKeyPair();
 	}
 
+	/**
+	 * Generate an elliptic curve key pair on one of the NIST curves that TLS
+	 * clients commonly accept
+	 *
+	 * @param curve P-256 or P-384, or their SEC names secp256r1 and secp384r1
+	 * @return generated KeyPair
+	 * @throws GeneralSecurityException if the curve is not supported
+	 */
+	public static KeyPair generateECKeyPair(String curve) throws GeneralSecurityException {
+		String name;
+		switch (curve.trim().toUpperCase()) {
+		case "P-256":
+		case "SECP256R1":
+			name = "secp256r1";
+			break;
+		case "P-384":
+		case "SECP384R1":
+			name = "secp384r1";
+			break;
+		default:
+			throw new InvalidAlgorithmParameterException("Unsupported elliptic curve " + curve);
+		}
+		KeyPairGenerator keyPair = KeyPairGenerator.getInstance("EC");
+		keyPair.initialize(new ECGenParameterSpec(name));
+		return keyPair.generateKeyPair();
+	}
+
+	/**
+	 * Generate an Ed25519 key pair. This needs a JDK that provides EdDSA, which
+	 * is Java 15 or later.
+	 *
+	 * @return generated KeyPair
+	 * @throws NoSuchAlgorithmException if the JDK does not provide Ed25519
+	 */
+	public static KeyPair generateEd25519KeyPair() throws NoSuchAlgorithmException {
+		return KeyPairGenerator.getInstance("Ed25519").generateKeyPair();
+	}
+
 	/**
 	 * This class does not need to be instantiated
 	 */
@@ -0,0 +1,217 @@
+/**
+ * CertificateAuthority
+ * Local certificate authority for issuing server certificates
+ *
+ * Version v1.0
+ *
+ * Copyright (c) Rob Richter
+ */
+
+package org.northcastle.security.certificate;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.security.Key;
+import java.security.KeyPair;
+import java.security.KeyStore;
+import java.security.PrivateKey;
+import java.security.cert.Certificate;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.northcastle.security.Keys;
+
+/**
+ * A certificate authority kept in a local key store. It is created once, then
+ * signs the leaf certificates of any number of servers, so clients only need
+ * to trust the authority. Issuing a leaf only costs a key pair for the leaf
+ * and one signature, and many leaves can be issued in parallel.
+ */
+public class CertificateAuthority {
+
+	/**
+	 * Key store alias of the authority key and certificate
+	 */
+	public static final String ALIAS = "ca";
+
+	/**
+	 * Source of key pairs for leaf certificates
+	 */
+	@FunctionalInterface
+	public interface KeySource {
+		/**
+		 * @return a new key pair
+		 * @throws GeneralSecurityException
+		 */
+		KeyPair next() throws GeneralSecurityException;
+	}
+
+	/**
+	 * A key pair and its certificate chain, leaf first
+	 */
+	public static final class Leaf {
+		private final KeyPair keyPair;
+		private final Certificate[] chain;
+
+		private Leaf(KeyPair keyPair, Certificate[] chain) {
+			this.keyPair = keyPair;
+			this.chain = chain;
+		}
+
+		/**
+		 * @return key pair of the leaf
+		 */
+		public KeyPair getKeyPair() {
+			return keyPair;
+		}
+
+		/**
+		 * @return leaf certificate followed by the authority certificate
+		 */
+		public Certificate[] getChain() {
+			return chain.clone();
+		}
+	}
+
+	private final X509Certificate certificate;
+	private final PrivateKey privateKey;
+
+	/**
+	 * Create a new certificate authority
+	 *
+	 * @param subject   subject of the authority certificate
+	 * @param keyPair   key pair of the authority
+	 * @param validDays number of days the authority certificate is valid
+	 * @return new authority
+	 * @throws GeneralSecurityException
+	 * @throws IOException
+	 */
+	public static CertificateAuthority create(String subject, KeyPair keyPair, int validDays)
+			throws GeneralSecurityException, IOException {
+		return new CertificateAuthority(X509.generateCACertificate(subject, keyPair, validDays), keyPair.getPrivate());
+	}
+
+	/**
+	 * Load a certificate authority saved with {@link #save(Path, String)}
+	 *
+	 * @param keyStoreFile PKCS12 key store holding the authority
+	 * @param password     password of the key store
+	 * @return loaded authority
+	 * @throws GeneralSecurityException
+	 * @throws IOException
+	 */
+	public static CertificateAuthority load(Path keyStoreFile, String password)
+			throws GeneralSecurityException, IOException {
+		KeyStore keyStore = KeyStore.getInstance("PKCS12");
+		try (InputStream input = Files.newInputStream(keyStoreFile)) {
+			keyStore.load(input, password.toCharArray());
+		}
+		Key key = keyStore.getKey(ALIAS, password.toCharArray());
+		if (!(key instanceof PrivateKey)) {
+			throw new GeneralSecurityException("No certificate authority key in " + keyStoreFile);
+		}
+		return new CertificateAuthority((X509Certificate) keyStore.getCertificate(ALIAS), (PrivateKey) key);
+	}
+
+	private CertificateAuthority(X509Certificate certificate, PrivateKey privateKey) {
+		this.certificate = certificate;
+		this.privateKey = privateKey;
+	}
+
+	/**
+	 * Save the authority key and certificate to a PKCS12 key store
+	 *
+	 * @param keyStoreFile key store to write, replaced if it exists
+	 * @param password     password for the key store
+	 * @throws GeneralSecurityException
+	 * @throws IOException
+	 */
+	public void save(Path keyStoreFile, String password) throws GeneralSecurityException, IOException {
+		KeyStore keyStore = Keys.createKeyStore("PKCS12");
+		keyStore.setKeyEntry(ALIAS, privateKey, password.toCharArray(), new Certificate[] { certificate });
+		Keys.createKeyStoreFile(keyStore, keyStoreFile, password);
+	}
+
+	/**
+	 * @return the authority certificate, which clients should trust
+	 */
+	public X509Certificate getCertificate() {
+		return certificate;
+	}
+
+	/**
+	 * Issue a leaf certificate for a key pair
+	 *
+	 * @param subject         subject of the leaf certificate
+	 * @param subjectAltNames host names and IP addresses of the server
+	 * @param keyPair         key pair of the server
+	 * @param validDays       number of days the leaf is valid
+	 * @return key pair and certificate chain
+	 * @throws GeneralSecurityException
+	 * @throws IOException
+	 */
+	public Leaf issue(String subject, List<String> subjectAltNames, KeyPair keyPair, int validDays)
+			throws GeneralSecurityException, IOException {
+		X509Certificate leaf = X509.generateSignedCertificate(subject, keyPair.getPublic(), subjectAltNames,
+				certificate, privateKey, validDays);
+		return new Leaf(keyPair, new Certificate[] { leaf, certificate });
+	}
+
+	/**
+	 * Issue one leaf certificate per host name, generating the key pairs and
+	 * signing on a pool of worker threads. Each leaf has the subject cn=host and
+	 * the host as its only subject alternative name.
+	 *
+	 * @param hostNames host names or IP addresses to issue for
+	 * @param keys      source of the leaf key pairs, called from the workers
+	 * @param validDays number of days the leaves are valid
+	 * @param threads   number of worker threads, 0 or less to use one per
+	 *                  available processor
+	 * @return leaves in the same order as the host names
+	 * @throws GeneralSecurityException
+	 * @throws IOException
+	 */
+	public List<Leaf> issueAll(List<String> hostNames, KeySource keys, int validDays, int threads)
+			throws GeneralSecurityException, IOException {
+		if (threads <= 0) {
+			threads = Runtime.getRuntime().availableProcessors();
+		}
+
+		ExecutorService executor = Executors.newFixedThreadPool(Math.min(threads, Math.max(hostNames.size(), 1)));
+		try {
+			List<Future<Leaf>> results = new ArrayList<>();
+			for (String hostName : hostNames) {
+				results.add(executor.submit(() -> issue("cn=" + hostName, List.of(hostName), keys.next(), validDays)));
+			}
+
+			List<Leaf> leaves = new ArrayList<>();
+			for (Future<Leaf> result : results) {
+				try {
+					leaves.add(result.get());
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new IOException("Certificate issuance interrupted", e);
+				} catch (ExecutionException e) {
+					if (e.getCause() instanceof GeneralSecurityException) {
+						throw (GeneralSecurityException) e.getCause();
+					}
+					if (e.getCause() instanceof IOException) {
+						throw (IOException) e.getCause();
+					}
+					throw new IOException("Certificate issuance failed", e.getCause());
+				}
+			}
+			return leaves;
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+}
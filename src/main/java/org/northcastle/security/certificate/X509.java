@@ -14,16 +14,35 @@ import java.math.BigInteger;
 import java.security.GeneralSecurityException;
 import java.security.KeyPair;
 import java.security.PrivateKey;
+import java.security.PublicKey;
 import java.security.SecureRandom;
 import java.security.cert.X509Certificate;
+import java.security.interfaces.ECPrivateKey;
+import java.security.interfaces.EdECKey;
 import java.util.Calendar;
+import java.util.List;
+import java.util.Vector;
 
+import sun.security.util.KnownOIDs;
+import sun.security.util.ObjectIdentifier;
 import sun.security.x509.AlgorithmId;
+import sun.security.x509.AuthorityKeyIdentifierExtension;
+import sun.security.x509.BasicConstraintsExtension;
 import sun.security.x509.CertificateAlgorithmId;
+import sun.security.x509.CertificateExtensions;
 import sun.security.x509.CertificateSerialNumber;
 import sun.security.x509.CertificateValidity;
 import sun.security.x509.CertificateVersion;
 import sun.security.x509.CertificateX509Key;
+import sun.security.x509.DNSName;
+import sun.security.x509.ExtendedKeyUsageExtension;
+import sun.security.x509.GeneralName;
+import sun.security.x509.GeneralNames;
+import sun.security.x509.IPAddressName;
+import sun.security.x509.KeyIdentifier;
+import sun.security.x509.KeyUsageExtension;
+import sun.security.x509.SubjectAlternativeNameExtension;
+import sun.security.x509.SubjectKeyIdentifierExtension;
 import sun.security.x509.X500Name;
 import sun.security.x509.X509CertImpl;
 import sun.security.x509.X509CertInfo;
@@ -36,11 +55,12 @@ public class X509 {
 	private static final long MILLISECONDSPERDAY = 24L * 60L * 60L * 1000L;
 
 	/**
-	 * Generate an X.509 self signed certificate using SHA256withRSA
+	 * Generate an X.509 self signed certificate, signed with the algorithm that
+	 * matches the key pair
 	 *
 	 * @param subject   certificate subject and issuer information, formatted per
 	 *                  X.509 requirements.
-	 * @param keyPair   RSA key pair
+	 * @param keyPair   RSA, EC or Ed25519 key pair
 	 * @param validDays number of days that the certificate will be valid, starting
 	 *                  today
 	 * @return X.509 certificate
@@ -55,6 +75,124 @@ public class X509 {
 		}
 
 		PrivateKey privateKey = keyPair.getPrivate();
+		String signatureAlgorithm = getSignatureAlgorithm(privateKey);
+		X509CertInfo certificateInfo = newCertificateInfo(subject, new X500Name(subject), keyPair.getPublic(),
+				signatureAlgorithm, validDays);
+
+		// return the certificate, signed with the private key
+		return X509CertImpl.newSigned(certificateInfo, privateKey, signatureAlgorithm);
+	}
+
+	/**
+	 * Generate a self signed certificate authority certificate, which can sign
+	 * the leaf certificates of many servers so clients only trust it once
+	 *
+	 * @param subject   certificate subject and issuer information, formatted per
+	 *                  X.509 requirements.
+	 * @param keyPair   RSA, EC or Ed25519 key pair of the authority
+	 * @param validDays number of days that the certificate will be valid, starting
+	 *                  today
+	 * @return X.509 certificate
+	 * @throws GeneralSecurityException
+	 * @throws IOException
+	 */
+	public static X509Certificate generateCACertificate(String subject, KeyPair keyPair, int validDays)
+			throws GeneralSecurityException, IOException {
+
+		if (keyPair == null) {
+			throw new GeneralSecurityException("KeyPair cannot be null");
+		}
+
+		PrivateKey privateKey = keyPair.getPrivate();
+		String signatureAlgorithm = getSignatureAlgorithm(privateKey);
+		X509CertInfo certificateInfo = newCertificateInfo(subject, new X500Name(subject), keyPair.getPublic(),
+				signatureAlgorithm, validDays);
+
+		// may sign leaf certificates, but not further authorities
+		CertificateExtensions extensions = new CertificateExtensions();
+		extensions.setExtension(BasicConstraintsExtension.NAME, new BasicConstraintsExtension(true, true, 0));
+		KeyUsageExtension keyUsage = new KeyUsageExtension();
+		keyUsage.set(KeyUsageExtension.KEY_CERTSIGN, true);
+		keyUsage.set(KeyUsageExtension.CRL_SIGN, true);
+		extensions.setExtension(KeyUsageExtension.NAME, keyUsage);
+		extensions.setExtension(SubjectKeyIdentifierExtension.NAME,
+				new SubjectKeyIdentifierExtension(new KeyIdentifier(keyPair.getPublic()).getIdentifier()));
+		certificateInfo.setExtensions(extensions);
+
+		return X509CertImpl.newSigned(certificateInfo, privateKey, signatureAlgorithm);
+	}
+
+	/**
+	 * Generate a server certificate signed by a certificate authority. The
+	 * subject alternative names are what TLS clients check the host name
+	 * against. Names that parse as IP addresses are added as IP addresses, all
+	 * others as DNS names.
+	 *
+	 * @param subject          certificate subject, formatted per X.509
+	 *                         requirements.
+	 * @param publicKey        public key of the server
+	 * @param subjectAltNames  host names and IP addresses of the server
+	 * @param issuer           certificate of the authority
+	 * @param issuerKey        private key of the authority
+	 * @param validDays        number of days that the certificate will be valid,
+	 *                         starting today
+	 * @return X.509 certificate
+	 * @throws GeneralSecurityException
+	 * @throws IOException
+	 */
+	public static X509Certificate generateSignedCertificate(String subject, PublicKey publicKey,
+			List<String> subjectAltNames, X509Certificate issuer, PrivateKey issuerKey, int validDays)
+			throws GeneralSecurityException, IOException {
+
+		String signatureAlgorithm = getSignatureAlgorithm(issuerKey);
+		X509CertInfo certificateInfo = newCertificateInfo(subject,
+				new X500Name(issuer.getSubjectX500Principal().getEncoded()), publicKey, signatureAlgorithm, validDays);
+
+		CertificateExtensions extensions = new CertificateExtensions();
+		extensions.setExtension(BasicConstraintsExtension.NAME, new BasicConstraintsExtension(false, -1));
+		KeyUsageExtension keyUsage = new KeyUsageExtension();
+		keyUsage.set(KeyUsageExtension.DIGITAL_SIGNATURE, true);
+		if (publicKey.getAlgorithm().equals("RSA")) {
+			// RSA key exchange in TLS 1.2 encrypts with the server key
+			keyUsage.set(KeyUsageExtension.KEY_ENCIPHERMENT, true);
+		}
+		extensions.setExtension(KeyUsageExtension.NAME, keyUsage);
+		Vector<ObjectIdentifier> keyPurposes = new Vector<>();
+		keyPurposes.add(ObjectIdentifier.of(KnownOIDs.serverAuth));
+		extensions.setExtension(ExtendedKeyUsageExtension.NAME, new ExtendedKeyUsageExtension(keyPurposes));
+
+		if (subjectAltNames != null && !subjectAltNames.isEmpty()) {
+			GeneralNames names = new GeneralNames();
+			for (String name : subjectAltNames) {
+				names.add(new GeneralName(isIPAddress(name) ? new IPAddressName(name) : new DNSName(name)));
+			}
+			extensions.setExtension(SubjectAlternativeNameExtension.NAME, new SubjectAlternativeNameExtension(names));
+		}
+
+		extensions.setExtension(SubjectKeyIdentifierExtension.NAME,
+				new SubjectKeyIdentifierExtension(new KeyIdentifier(publicKey).getIdentifier()));
+		extensions.setExtension(AuthorityKeyIdentifierExtension.NAME,
+				new AuthorityKeyIdentifierExtension(new KeyIdentifier(issuer.getPublicKey()), null, null));
+		certificateInfo.setExtensions(extensions);
+
+		return X509CertImpl.newSigned(certificateInfo, issuerKey, signatureAlgorithm);
+	}
+
+	/**
+	 * Fill in the parts every certificate has
+	 *
+	 * @param subject            certificate subject
+	 * @param issuer             certificate issuer
+	 * @param publicKey          public key being certified
+	 * @param signatureAlgorithm algorithm the certificate is signed with
+	 * @param validDays          number of days that the certificate will be
+	 *                           valid, starting today
+	 * @return certificate information, ready for extensions and signing
+	 * @throws GeneralSecurityException
+	 * @throws IOException
+	 */
+	private static X509CertInfo newCertificateInfo(String subject, X500Name issuer, PublicKey publicKey,
+			String signatureAlgorithm, int validDays) throws GeneralSecurityException, IOException {
 		X509CertInfo certificateInfo = new X509CertInfo();
 
 		// Calculate expiration date based on number of days
@@ -63,20 +201,54 @@ public class X509 {
 		expires.setTimeInMillis(today.getTimeInMillis() + validDays * MILLISECONDSPERDAY);
 
 		// Load up the certificate information specific to the request
-		certificateInfo.setIssuer(new X500Name(subject));
-		certificateInfo.setKey(new CertificateX509Key(keyPair.getPublic()));
+		certificateInfo.setIssuer(issuer);
+		certificateInfo.setKey(new CertificateX509Key(publicKey));
 		certificateInfo.setSubject(new X500Name(subject));
 		certificateInfo.setValidity(new CertificateValidity(today.getTime(), expires.getTime()));
 
 		// predetermined settings
-		certificateInfo.setAlgorithmId(new CertificateAlgorithmId(new AlgorithmId(AlgorithmId.SHA256withRSA_oid)));
+		certificateInfo.setAlgorithmId(new CertificateAlgorithmId(AlgorithmId.get(signatureAlgorithm)));
 		certificateInfo.setVersion(new CertificateVersion(CertificateVersion.V3));
 
 		// certificate serial number is random
 		certificateInfo.setSerialNumber(new CertificateSerialNumber(new BigInteger(64, new SecureRandom())));
 
-		// return the certificate, signed with the private key
-		return X509CertImpl.newSigned(certificateInfo, privateKey, "SHA256withRSA");
+		return certificateInfo;
+	}
+
+	/**
+	 * Check whether a subject alternative name is an IPv4 or IPv6 address
+	 */
+	private static boolean isIPAddress(String name) {
+		return name.matches("[0-9.]+") || name.contains(":");
+	}
+
+	/**
+	 * Pick the signature algorithm for a private key. RSA keys use SHA256withRSA,
+	 * EC keys use the SHA-2 digest that matches the curve size, and EdDSA keys
+	 * sign with the algorithm named after their curve.
+	 *
+	 * @param privateKey key the certificate is signed with
+	 * @return JCA signature algorithm name
+	 * @throws GeneralSecurityException if the key algorithm is not supported
+	 */
+	public static String getSignatureAlgorithm(PrivateKey privateKey) throws GeneralSecurityException {
+		switch (privateKey.getAlgorithm()) {
+		case "RSA":
+			return "SHA256withRSA";
+		case "EC":
+			int fieldSize = ((ECPrivateKey) privateKey).getParams().getCurve().getField().getFieldSize();
+			if (fieldSize <= 256) {
+				return "SHA256withECDSA";
+			}
+			return fieldSize <= 384 ? "SHA384withECDSA" : "SHA512withECDSA";
+		case "Ed25519":
+		case "EdDSA":
+			// the JDK names the signature algorithm after the curve, Ed25519 or Ed448
+			return ((EdECKey) privateKey).getParams().getName();
+		default:
+			throw new GeneralSecurityException("Unsupported key algorithm " + privateKey.getAlgorithm());
+		}
 	}
 
 	/**
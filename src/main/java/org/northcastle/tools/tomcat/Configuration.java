@@ -28,20 +28,67 @@ public class Configuration {
 	protected static final String CONFIGURATOR_TARGET_DIRECTORY = "configurator.target.directory";
 
 	protected static final String CONFIGURATOR_TOMCAT_IMAGE_DIRECTORY = "configurator.tomcat.image.directory";
+	protected static final String CONFIGURATOR_TOMCAT_HOME_DIRECTORY = "configurator.tomcat.home.directory";
+	protected static final String CONFIGURATOR_TOMCAT_IMAGE_CACHE_DIRECTORY = "configurator.tomcat.image.cache.directory";
 
 	protected static final String CONFIGURATOR_TOMCAT_IMAGE_ZIP_FILE = "configurator.tomcat.image.zip.file";
+	protected static final String CONFIGURATOR_TOMCAT_IMAGE_ZIP_SHA512 = "configurator.tomcat.image.zip.sha512";
 	protected static final String CONFIGURATOR_TOMCAT_IMAGE_ZIP_STRIPDIRECTORIES = "configurator.tomcat.image.zip.stripdirectories";
+	protected static final String CONFIGURATOR_TOMCAT_IMAGE_ZIP_THREADS = "configurator.tomcat.image.zip.threads";
+	protected static final String CONFIGURATOR_TOMCAT_IMAGE_PROGRESS = "configurator.tomcat.image.progress";
+	protected static final String CONFIGURATOR_TOMCAT_IMAGE_INCLUDE = "configurator.tomcat.image.include";
+	protected static final String CONFIGURATOR_TOMCAT_IMAGE_EXCLUDE = "configurator.tomcat.image.exclude";
+	protected static final String CONFIGURATOR_TOMCAT_IMAGE_ZIP_INCREMENTAL = "configurator.tomcat.image.zip.incremental";
+	protected static final String CONFIGURATOR_TOMCAT_IMAGE_ZIP_INCREMENTAL_DELETE = "configurator.tomcat.image.zip.incremental.delete";
+	protected static final String CONFIGURATOR_TOMCAT_IMAGE_ZIP_JOURNAL = "configurator.tomcat.image.zip.journal";
+	protected static final String CONFIGURATOR_TOMCAT_VERIFY = "configurator.tomcat.verify";
 	protected static final String CONFIGURATOR_TOMCAT_FILE_SERVERXML = "configurator.tomcat.file.serverxml";
+	protected static final String CONFIGURATOR_TOMCAT_FILE_SERVERXML_STREAMING = "configurator.tomcat.file.serverxml.streaming";
 
 	protected static final String CONFIGURATOR_TOMCAT_FILE_CATALINAPROPERTIES = "configurator.tomcat.file.catalinaproperties";
 	protected static final String CONFIGURATOR_TOMCAT_CONNECTOR_PORT = "configurator.tomcat.connector.port";
 	protected static final String CONFIGURATOR_TOMCAT_CONNECTOR_PORT_SSL = "configurator.tomcat.connector.port.ssl";
+	protected static final String CONFIGURATOR_TOMCAT_CONNECTOR_SSL_IMPLEMENTATION = "configurator.tomcat.connector.ssl.implementation";
+	protected static final String CONFIGURATOR_TOMCAT_CONNECTOR_SSL_SESSION_PROFILE = "configurator.tomcat.connector.ssl.session.profile";
+	protected static final String CONFIGURATOR_TOMCAT_CONNECTOR_SSL_SESSION_CACHESIZE = "configurator.tomcat.connector.ssl.session.cachesize";
+	protected static final String CONFIGURATOR_TOMCAT_CONNECTOR_SSL_SESSION_TIMEOUT = "configurator.tomcat.connector.ssl.session.timeout";
+	protected static final String CONFIGURATOR_TOMCAT_CONNECTOR_SSL_SESSION_TICKETS = "configurator.tomcat.connector.ssl.session.tickets";
+	protected static final String CONFIGURATOR_TOMCAT_CONNECTOR_SSL_PROTOCOLS = "configurator.tomcat.connector.ssl.protocols";
+	protected static final String CONFIGURATOR_TOMCAT_CONNECTOR_SSL_POLICY = "configurator.tomcat.connector.ssl.policy";
+	protected static final String CONFIGURATOR_TOMCAT_CONNECTOR_SSL_POLICY_AES = "configurator.tomcat.connector.ssl.policy.aes";
+	protected static final String CONFIGURATOR_TOMCAT_CONNECTOR_TUNING = "configurator.tomcat.connector.tuning";
+	protected static final String CONFIGURATOR_TOMCAT_CONNECTOR_TUNING_CORES = "configurator.tomcat.connector.tuning.cores";
+	protected static final String CONFIGURATOR_TOMCAT_CONNECTOR_TUNING_MEMORY = "configurator.tomcat.connector.tuning.memory";
+	protected static final String CONFIGURATOR_TOMCAT_CONNECTOR_EXECUTOR = "configurator.tomcat.connector.executor";
+	protected static final String CONFIGURATOR_TOMCAT_CONNECTOR_EXECUTOR_NAME = "configurator.tomcat.connector.executor.name";
+	protected static final String CONFIGURATOR_TOMCAT_JAVA_VERSION = "configurator.tomcat.java.version";
+	protected static final String CONFIGURATOR_TOMCAT_CONNECTOR_HTTP2 = "configurator.tomcat.connector.http2";
+	protected static final String CONFIGURATOR_TOMCAT_CONNECTOR_DELIVERY = "configurator.tomcat.connector.delivery";
+	protected static final String CONFIGURATOR_TOMCAT_CONNECTOR_DELIVERY_MIMETYPES = "configurator.tomcat.connector.delivery.mimetypes";
+	protected static final String CONFIGURATOR_TOMCAT_CONNECTOR_DELIVERY_MINSIZE = "configurator.tomcat.connector.delivery.minsize";
+	protected static final String CONFIGURATOR_TOMCAT_CONNECTOR_DELIVERY_SENDFILE = "configurator.tomcat.connector.delivery.sendfile";
 	protected static final String CONFIGURATOR_CERTIFICATE_SSL_KEYSTORE = "configurator.certificate.ssl.keystore";
 	protected static final String CONFIGURATOR_CERTIFICATE_SSL_SOURCE_KEYSTORE = "configurator.certificate.ssl.source.keystore";
 	protected static final String CONFIGURATOR_CERTIFICATE_SSL_PASSWORD = "configurator.certificate.ssl.password";
 	protected static final String CONFIGURATOR_CERTIFICATE_SSL_PROTOCOL = "configurator.certificate.ssl.protocol";
 	protected static final String CONFIGURATOR_CERTIFICATE_SSL_ALGORITHM = "configurator.certificate.ssl.algorithm";
+	protected static final String CONFIGURATOR_CERTIFICATE_SSL_CURVE = "configurator.certificate.ssl.curve";
+	protected static final String CONFIGURATOR_CERTIFICATE_SSL_DUAL = "configurator.certificate.ssl.dual";
+	protected static final String CONFIGURATOR_CERTIFICATE_SSL_SAN = "configurator.certificate.ssl.san";
+	protected static final String CONFIGURATOR_CERTIFICATE_SSL_RENEWAL_DAYS = "configurator.certificate.ssl.renewal.days";
+	protected static final String CONFIGURATOR_CERTIFICATE_SSL_HOSTS = "configurator.certificate.ssl.hosts";
+	protected static final String CONFIGURATOR_CERTIFICATE_SSL_HOSTS_THREADS = "configurator.certificate.ssl.hosts.threads";
+	protected static final String CONFIGURATOR_CERTIFICATE_SSL_PEM = "configurator.certificate.ssl.pem";
+	protected static final String CONFIGURATOR_CERTIFICATE_SSL_CA_KEYSTORE = "configurator.certificate.ssl.ca.keystore";
+	protected static final String CONFIGURATOR_CERTIFICATE_SSL_CA_PASSWORD = "configurator.certificate.ssl.ca.password";
+	protected static final String CONFIGURATOR_CERTIFICATE_SSL_CA_OWNER = "configurator.certificate.ssl.ca.owner";
 	protected static final String CONFIGURATOR_CERTIFICATE_SSL_OWNER = "configurator.certificate.ssl.owner";
+	protected static final String CONFIGURATOR_CERTIFICATE_SSL_KEYPOOL_SIZE = "configurator.certificate.ssl.keypool.size";
+	protected static final String CONFIGURATOR_CERTIFICATE_SSL_KEYPOOL_LOWWATER = "configurator.certificate.ssl.keypool.lowwater";
+	protected static final String CONFIGURATOR_CERTIFICATE_SSL_KEYPOOL_REFILL = "configurator.certificate.ssl.keypool.refill";
+	protected static final String CONFIGURATOR_CERTIFICATE_SSL_KEYPOOL_THREADS = "configurator.certificate.ssl.keypool.threads";
+	protected static final String CONFIGURATOR_CERTIFICATE_SSL_KEYPOOL_STORE = "configurator.certificate.ssl.keypool.store";
+	protected static final String CONFIGURATOR_CERTIFICATE_SSL_KEYPOOL_PASSWORD = "configurator.certificate.ssl.keypool.password";
 
 	protected static Configuration getInstance() throws IOException {
 		if (configuration == null) {
@@ -0,0 +1,124 @@
+/**
+ * ConnectorTuning
+ *
+ * Version v1.0
+ *
+ * Copyright (c) Rob Richter
+ */
+package org.northcastle.tools.tomcat;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Works out the Connector attributes for a named tuning profile from the
+ * number of cores and the memory of the server Tomcat runs on.
+ * <ul>
+ * <li>latency: many threads, so requests do not queue, and long keep-alive, so
+ * clients reuse connections instead of paying for new TLS handshakes</li>
+ * <li>throughput: fewer threads per core, to limit context switching, and many
+ * queued and open connections</li>
+ * <li>small-host: few threads and connections, for small virtual machines and
+ * containers</li>
+ * </ul>
+ * Thread and connection counts are capped by memory, allowing 8 MB per thread
+ * and 128 KB per open connection.
+ */
+public class ConnectorTuning {
+
+	/**
+	 * Attributes the profiles set. Each can also be configured on its own.
+	 */
+	public static final String[] ATTRIBUTES = { "maxThreads", "minSpareThreads", "acceptCount", "maxConnections",
+			"keepAliveTimeout", "maxKeepAliveRequests", "connectionTimeout", "processorCache", "maxParameterCount" };
+
+	/**
+	 * Work out the attributes of a profile
+	 *
+	 * @param profile  latency, throughput or small-host
+	 * @param cores    number of processor cores
+	 * @param memoryMB memory in megabytes
+	 * @return attribute values keyed by attribute name
+	 */
+	public static Map<String, String> getAttributes(String profile, int cores, long memoryMB) {
+		int threadLimit = (int) Math.max(10, memoryMB / 8);
+		int connectionLimit = (int) Math.max(100, Math.min(memoryMB * 8, 65536));
+
+		int maxThreads;
+		int acceptCount;
+		int maxConnections;
+		int keepAliveTimeout;
+		int maxKeepAliveRequests;
+		switch (profile.trim().toLowerCase()) {
+		case "latency":
+			maxThreads = clamp(cores * 50, 50, 800);
+			acceptCount = cores * 32;
+			maxConnections = 8192;
+			keepAliveTimeout = 60000;
+			maxKeepAliveRequests = -1;
+			break;
+		case "throughput":
+			maxThreads = clamp(cores * 25, 25, 400);
+			acceptCount = clamp(cores * 128, 256, 4096);
+			maxConnections = 16384;
+			keepAliveTimeout = 15000;
+			maxKeepAliveRequests = 1000;
+			break;
+		case "small-host":
+			maxThreads = clamp(cores * 10, 10, 50);
+			acceptCount = 50;
+			maxConnections = clamp(cores * 256, 256, 1024);
+			keepAliveTimeout = 5000;
+			maxKeepAliveRequests = 100;
+			break;
+		default:
+			throw new RuntimeException("Unknown connector tuning profile " + profile);
+		}
+		maxThreads = Math.min(maxThreads, threadLimit);
+		maxConnections = Math.min(maxConnections, connectionLimit);
+
+		Map<String, String> attributes = new LinkedHashMap<>();
+		attributes.put("maxThreads", String.valueOf(maxThreads));
+		attributes.put("minSpareThreads", String.valueOf(Math.max(4, maxThreads / 10)));
+		attributes.put("acceptCount", String.valueOf(acceptCount));
+		attributes.put("maxConnections", String.valueOf(maxConnections));
+		attributes.put("keepAliveTimeout", String.valueOf(keepAliveTimeout));
+		attributes.put("maxKeepAliveRequests", String.valueOf(maxKeepAliveRequests));
+		attributes.put("connectionTimeout", "20000");
+		// one cached processor per thread, since that is how many can be busy
+		attributes.put("processorCache", String.valueOf(maxThreads));
+		attributes.put("maxParameterCount", "1000");
+		return attributes;
+	}
+
+	/**
+	 * @return processor cores of this machine
+	 */
+	public static int getCores() {
+		return Runtime.getRuntime().availableProcessors();
+	}
+
+	/**
+	 * @return physical memory of this machine, or of its container, in
+	 *         megabytes. Falls back to the JVM's maximum heap.
+	 */
+	public static long getMemoryMB() {
+		OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+		if (os instanceof com.sun.management.OperatingSystemMXBean) {
+			return ((com.sun.management.OperatingSystemMXBean) os).getTotalMemorySize() / (1024 * 1024);
+		}
+		return Runtime.getRuntime().maxMemory() / (1024 * 1024);
+	}
+
+	private static int clamp(int value, int min, int max) {
+		return Math.max(min, Math.min(value, max));
+	}
+
+	/**
+	 * This class is never instantiated
+	 */
+	private ConnectorTuning() {
+	}
+}
@@ -72,9 +72,10 @@ public class Process extends Configurator {
 		// configuration
 		// information, but we can still make a certificate, then do that.
 		certificate.installCertificate();
+		certificate.installHostCertificates();
 
 		// update server.xml
-		ServerConfig serverxml = new ServerConfig();
+		ServerConfig serverxml = new ServerConfig(tomcat);
 		serverxml.configureSSLConnection();
 
 		// update catalina.properties
@@ -8,6 +8,7 @@
 package org.northcastle.tools.tomcat;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
@@ -15,10 +16,26 @@ import java.security.GeneralSecurityException;
 import java.security.KeyPair;
 import java.security.KeyStore;
 import java.security.cert.Certificate;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.lang3.RandomStringUtils;
+import org.northcastle.security.KeyPairPool;
+import org.northcastle.security.KeyStoreInspector;
 import org.northcastle.security.Keys;
+import org.northcastle.security.certificate.CertificateAuthority;
 import org.northcastle.security.certificate.X509;
 
 import lombok.extern.slf4j.Slf4j;
@@ -29,6 +46,28 @@ import lombok.extern.slf4j.Slf4j;
 @Slf4j
 public class SSLCertificate extends Configurator {
 
+	// RSA key size for generated certificates
+	private static final int KEY_SIZE = 4096;
+
+	// RSA key size for leaf certificates signed by a certificate authority
+	private static final int LEAF_KEY_SIZE = 2048;
+
+	// validity of a newly created certificate authority
+	private static final int CA_VALID_DAYS = 3650;
+
+	// key store aliases of the two entries in a dual certificate key store
+	protected static final String KEY_ALIAS_RSA = "rsa";
+	protected static final String KEY_ALIAS_EC = "ec";
+
+	// endings of the PEM files written next to a key store
+	protected static final String PEM_CERTIFICATE = ".crt";
+	protected static final String PEM_KEY = ".key";
+	protected static final String PEM_CHAIN = "-chain.crt";
+
+	// shared by every certificate generated in this process, created on first use
+	private static KeyPairPool keyPool;
+	private static boolean closeOnExit = false;
+
 	Path targetFile;
 
 	/**
@@ -63,6 +102,108 @@ public class SSLCertificate extends Configurator {
 		return ok;
 	}
 
+	/**
+	 * Open the key store with the configured password and check its certificates.
+	 * It is usable when the password works, it holds the keys the configuration
+	 * asks for and no certificate in it expires within the renewal window, 30 days
+	 * unless configured. The result is cached until the key store file changes.
+	 *
+	 * @return true if the installed key store can be kept
+	 * @throws IOException
+	 */
+	public boolean isCertificateUsable() throws IOException {
+		KeyStoreInspector.Result result = KeyStoreInspector.inspect(targetFile, "PKCS12",
+				config.getProperty(Configuration.CONFIGURATOR_CERTIFICATE_SSL_PASSWORD));
+		if (!result.isReadable()) {
+			log.info("Key store " + targetFile + " cannot be opened with the configured password");
+			return false;
+		}
+
+		if (!hasConfiguredKeys(result)) {
+			log.info("Key store " + targetFile + " holds " + result.getKeyAlgorithms()
+					+ ", not the keys configured, it will be replaced");
+			return false;
+		}
+
+		int renewalDays = getRenewalDays();
+		if (!result.isUsable(Duration.ofDays(renewalDays))) {
+			log.info("Certificate expires " + result.getNotAfter() + ", within " + renewalDays
+					+ " days, it will be renewed");
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Check that a key store holds the keys the configuration asks for. Dual
+	 * certificates need an RSA key under the rsa alias and an EC key under the ec
+	 * alias, since Tomcat is configured with those aliases. A single certificate
+	 * needs every key to be of the configured algorithm.
+	 *
+	 * @param result inspection of the key store
+	 * @return true if the keys match the configuration
+	 */
+	private boolean hasConfiguredKeys(KeyStoreInspector.Result result) {
+		Map<String, String> keyAlgorithms = result.getKeyAlgorithms();
+		if (isDual(config)) {
+			return "RSA".equals(keyAlgorithms.get(KEY_ALIAS_RSA)) && "EC".equals(keyAlgorithms.get(KEY_ALIAS_EC));
+		}
+
+		String algorithm = (config.containsKey(Configuration.CONFIGURATOR_CERTIFICATE_SSL_ALGORITHM)
+				? config.getProperty(Configuration.CONFIGURATOR_CERTIFICATE_SSL_ALGORITHM).trim()
+				: "RSA");
+		for (String keyAlgorithm : keyAlgorithms.values()) {
+			// Ed25519 keys report the algorithm family
+			boolean matches = algorithm.equalsIgnoreCase("Ed25519")
+					? keyAlgorithm.equals("EdDSA") || keyAlgorithm.equals("Ed25519")
+					: keyAlgorithm.equalsIgnoreCase(algorithm);
+			if (!matches) {
+				return false;
+			}
+		}
+		return !keyAlgorithms.isEmpty();
+	}
+
+	/**
+	 * @return days before expiry that a certificate is renewed
+	 */
+	private int getRenewalDays() {
+		return (config.containsKey(Configuration.CONFIGURATOR_CERTIFICATE_SSL_RENEWAL_DAYS)
+				? Integer.parseInt(config.getProperty(Configuration.CONFIGURATOR_CERTIFICATE_SSL_RENEWAL_DAYS))
+				: 30);
+	}
+
+	/**
+	 * If no password is configured, use the one an earlier run stored in
+	 * catalina.properties, so the key store it generated can be opened again
+	 *
+	 * @return true if a password was recovered
+	 * @throws IOException
+	 */
+	private boolean recoverPassword() throws IOException {
+		if (config.containsKey(Configuration.CONFIGURATOR_CERTIFICATE_SSL_PASSWORD)
+				|| !config.containsKey(Configuration.CONFIGURATOR_TOMCAT_FILE_CATALINAPROPERTIES)) {
+			return false;
+		}
+		Path catalinaPath = Paths.get(config.getProperty(Configuration.CONFIGURATOR_TARGET_DIRECTORY),
+				config.getProperty(Configuration.CONFIGURATOR_TOMCAT_FILE_CATALINAPROPERTIES));
+		if (!Files.exists(catalinaPath)) {
+			return false;
+		}
+
+		Properties catalina = new Properties();
+		try (InputStream resource = Files.newInputStream(catalinaPath)) {
+			catalina.load(resource);
+		}
+		String password = catalina.getProperty(Configuration.CONFIGURATOR_CERTIFICATE_SSL_PASSWORD);
+		if (password == null || password.isEmpty()) {
+			return false;
+		}
+		config.setProperty(Configuration.CONFIGURATOR_CERTIFICATE_SSL_PASSWORD, password);
+		log.info("Using the certificate password stored in " + catalinaPath);
+		return true;
+	}
+
 	/**
 	 * Generate a new self-signed certificate. The certificate will be stored in the
 	 * key store specified by the configuration. If no password is configured, one
@@ -90,21 +231,414 @@ public class SSLCertificate extends Configurator {
 
 		}
 
-		// generate key pair
-		KeyPair keyPair = Keys.generateKeyPair(4096);
-
-		// build certificate chain, default to SHA256+RSA and valid 365 days
-		Certificate[] chain = { X509.generateSelfSignedCertificate(certificateSubject, keyPair, 365) };
-
-		// make the keystore to put it in
-		KeyStore store = Keys.createKeyStore("PKCS12", keyPair, password, chain);
+		// certificates are self-signed, unless a local certificate authority is
+		// configured to sign them
+		CertificateAuthority authority = getCertificateAuthority();
 
 		// save the keystore to the conf directory
+		KeyStore store = createCertificateStore(certificateSubject, getSubjectAltNames(certificateSubject), password,
+				authority);
 		Keys.createKeyStoreFile(store, targetFile, password);
 
 		log.info("Generated key store: " + targetFile);
 	}
 
+	/**
+	 * Make a key store with one entry for the configured algorithm, or an RSA and
+	 * an EC entry for dual certificates
+	 *
+	 * @param subject         certificate owner and subject
+	 * @param subjectAltNames names for leaf certificates signed by the authority
+	 * @param password        password for the entries
+	 * @param authority       certificate authority, or null for self-signed
+	 *                        certificates
+	 * @return new key store
+	 * @throws IOException
+	 * @throws GeneralSecurityException
+	 */
+	private KeyStore createCertificateStore(String subject, List<String> subjectAltNames, String password,
+			CertificateAuthority authority) throws GeneralSecurityException, IOException {
+		KeyStore store = Keys.createKeyStore("PKCS12");
+		if (isDual(config)) {
+			addCertificate(store, KEY_ALIAS_RSA, "RSA", subject, subjectAltNames, password, authority);
+			addCertificate(store, KEY_ALIAS_EC, "EC", subject, subjectAltNames, password, authority);
+		} else {
+			String algorithm = (config.containsKey(Configuration.CONFIGURATOR_CERTIFICATE_SSL_ALGORITHM)
+					? config.getProperty(Configuration.CONFIGURATOR_CERTIFICATE_SSL_ALGORITHM).trim()
+					: "RSA");
+			addCertificate(store, "main", algorithm, subject, subjectAltNames, password, authority);
+		}
+		return store;
+	}
+
+	/**
+	 * Install a key store for each virtual host configured in
+	 * configurator.certificate.ssl.hosts. Each host gets its own certificate, for
+	 * cn=host with the host as subject alternative name, signed by the
+	 * certificate authority if one is configured. Key stores that open with the
+	 * password and are outside the renewal window are kept. The hosts are handled
+	 * on a pool of worker threads, since generating keys dominates.
+	 * installCertificate() has to run first, so the password is known.
+	 *
+	 * @throws IOException
+	 * @throws GeneralSecurityException
+	 */
+	public void installHostCertificates() throws IOException, GeneralSecurityException {
+		Map<String, String> hosts = getHostKeyStores(config);
+		if (hosts.isEmpty()) {
+			return;
+		}
+		String password = config.getProperty(Configuration.CONFIGURATOR_CERTIFICATE_SSL_PASSWORD);
+		if (password == null) {
+			throw new RuntimeException("The certificate password is needed for the host key stores.");
+		}
+		CertificateAuthority authority = getCertificateAuthority();
+
+		int threads = (config.containsKey(Configuration.CONFIGURATOR_CERTIFICATE_SSL_HOSTS_THREADS)
+				? Integer.parseInt(config.getProperty(Configuration.CONFIGURATOR_CERTIFICATE_SSL_HOSTS_THREADS))
+				: 0);
+		if (threads <= 0) {
+			threads = Runtime.getRuntime().availableProcessors();
+		}
+
+		ExecutorService executor = Executors.newFixedThreadPool(Math.min(threads, hosts.size()));
+		try {
+			List<Future<Void>> results = new ArrayList<>();
+			for (Map.Entry<String, String> host : hosts.entrySet()) {
+				Path keyStoreFile = targetFile.resolveSibling(host.getValue());
+				results.add(executor.submit(() -> {
+					installHostCertificate(host.getKey(), keyStoreFile, password, authority);
+					return null;
+				}));
+			}
+
+			for (Future<Void> result : results) {
+				try {
+					result.get();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new IOException("Host certificate installation interrupted", e);
+				} catch (ExecutionException e) {
+					if (e.getCause() instanceof GeneralSecurityException) {
+						throw (GeneralSecurityException) e.getCause();
+					}
+					if (e.getCause() instanceof IOException) {
+						throw (IOException) e.getCause();
+					}
+					if (e.getCause() instanceof RuntimeException) {
+						throw (RuntimeException) e.getCause();
+					}
+					throw new IOException("Host certificate installation failed", e.getCause());
+				}
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * Keep or generate the key store of one virtual host
+	 */
+	private void installHostCertificate(String host, Path keyStoreFile, String password,
+			CertificateAuthority authority) throws GeneralSecurityException, IOException {
+		KeyStoreInspector.Result result = KeyStoreInspector.inspect(keyStoreFile, "PKCS12", password);
+		if (result.isUsable(Duration.ofDays(getRenewalDays())) && hasConfiguredKeys(result)) {
+			log.info("Certificate for " + host + " installed in " + keyStoreFile);
+		} else {
+			KeyStore store = createCertificateStore("cn=" + host, List.of(host), password, authority);
+			Keys.createKeyStoreFile(store, keyStoreFile, password);
+			log.info("Generated key store for " + host + ": " + keyStoreFile);
+		}
+
+		if (isPEM(config)) {
+			createPEMFiles(keyStoreFile, password);
+		}
+	}
+
+	/**
+	 * Write the key entries of a key store as PEM files next to it. A single
+	 * certificate key store gives name.crt, name.key and, if there is a chain,
+	 * name-chain.crt. A dual certificate key store gives one set per alias, such
+	 * as name-rsa.crt.
+	 *
+	 * @param keyStoreFile PKCS12 key store
+	 * @param password     password of the key store and its entries
+	 * @throws IOException
+	 * @throws GeneralSecurityException
+	 */
+	private void createPEMFiles(Path keyStoreFile, String password) throws IOException, GeneralSecurityException {
+		KeyStore store = KeyStore.getInstance("PKCS12");
+		try (InputStream input = Files.newInputStream(keyStoreFile)) {
+			store.load(input, password.toCharArray());
+		}
+
+		Map<String, String> entries = new LinkedHashMap<>();
+		if (isDual(config)) {
+			entries.put(KEY_ALIAS_RSA, KEY_ALIAS_RSA);
+			entries.put(KEY_ALIAS_EC, KEY_ALIAS_EC);
+		} else {
+			// a pre-staged key store can use any alias, its first key is the certificate
+			for (String alias : Collections.list(store.aliases())) {
+				if (store.isKeyEntry(alias)) {
+					entries.put(alias, null);
+					break;
+				}
+			}
+		}
+
+		String keyStoreName = keyStoreFile.getFileName().toString();
+		for (Map.Entry<String, String> entry : entries.entrySet()) {
+			Keys.createPEMFiles(store, entry.getKey(), password,
+					keyStoreFile.resolveSibling(getPEMFile(keyStoreName, entry.getValue(), PEM_CERTIFICATE)),
+					keyStoreFile.resolveSibling(getPEMFile(keyStoreName, entry.getValue(), PEM_KEY)),
+					keyStoreFile.resolveSibling(getPEMFile(keyStoreName, entry.getValue(), PEM_CHAIN)));
+		}
+		log.info("Wrote PEM files for " + keyStoreFile);
+	}
+
+	/**
+	 * Check whether PEM files are wanted next to the key stores
+	 *
+	 * @param config configuration to check
+	 * @return true if the connector should use PEM files
+	 */
+	protected static boolean isPEM(Configuration config) {
+		return Boolean.parseBoolean(config.getProperty(Configuration.CONFIGURATOR_CERTIFICATE_SSL_PEM));
+	}
+
+	/**
+	 * Name a PEM file after the key store it is written from, replacing the
+	 * extension of the key store
+	 *
+	 * @param keyStore key store file name, may include a directory
+	 * @param alias    alias of a dual certificate entry, or null
+	 * @param ending   PEM_CERTIFICATE, PEM_KEY or PEM_CHAIN
+	 * @return PEM file name, in the same directory as the key store
+	 */
+	protected static String getPEMFile(String keyStore, String alias, String ending) {
+		int extension = keyStore.lastIndexOf('.');
+		String base = (extension > keyStore.lastIndexOf('/') + 1 ? keyStore.substring(0, extension) : keyStore);
+		return base + (alias == null ? "" : "-" + alias) + ending;
+	}
+
+	/**
+	 * Read the virtual hosts served on the TLS connector through SNI. Each entry
+	 * of configurator.certificate.ssl.hosts is a host name, or host=keystore to
+	 * name its key store file. The key store file defaults to the host name with
+	 * a .p12 extension. Key store files are in the conf directory.
+	 *
+	 * @param config configuration to read
+	 * @return key store file names keyed by host name, in the configured order
+	 */
+	protected static Map<String, String> getHostKeyStores(Configuration config) {
+		Map<String, String> hosts = new LinkedHashMap<>();
+		if (config.containsKey(Configuration.CONFIGURATOR_CERTIFICATE_SSL_HOSTS)) {
+			for (String entry : config.getProperty(Configuration.CONFIGURATOR_CERTIFICATE_SSL_HOSTS).split(",")) {
+				if (entry.isBlank()) {
+					continue;
+				}
+				int split = entry.indexOf('=');
+				String host = (split < 0 ? entry : entry.substring(0, split)).trim();
+				String keyStore = (split < 0 ? host + ".p12" : entry.substring(split + 1).trim());
+				if (host.isEmpty() || keyStore.isEmpty()) {
+					throw new RuntimeException("Malformed host entry " + entry.trim());
+				}
+				hosts.put(host, keyStore);
+			}
+		}
+		return hosts;
+	}
+
+	/**
+	 * Check whether dual RSA and EC certificates are configured
+	 *
+	 * @param config configuration to check
+	 * @return true if both certificates are wanted
+	 */
+	protected static boolean isDual(Configuration config) {
+		return Boolean.parseBoolean(config.getProperty(Configuration.CONFIGURATOR_CERTIFICATE_SSL_DUAL));
+	}
+
+	/**
+	 * Generate a key pair and a certificate for it, valid 365 days, and add both
+	 * to the key store. Without a certificate authority the certificate is
+	 * self-signed with a full size key. With one, the leaf gets a smaller key and
+	 * is signed by the authority, and the chain includes the authority
+	 * certificate.
+	 *
+	 * @param store           key store to add to
+	 * @param alias           alias of the entry
+	 * @param algorithm       RSA, EC or Ed25519
+	 * @param subject         certificate owner and subject
+	 * @param subjectAltNames names for a leaf certificate
+	 * @param password        password for the entry
+	 * @param authority       certificate authority, or null for a self-signed
+	 *                        certificate
+	 * @throws IOException
+	 * @throws GeneralSecurityException
+	 */
+	private void addCertificate(KeyStore store, String alias, String algorithm, String subject,
+			List<String> subjectAltNames, String password, CertificateAuthority authority)
+			throws GeneralSecurityException, IOException {
+		if (authority == null) {
+			KeyPair keyPair = generateKeyPair(algorithm);
+			Certificate[] chain = { X509.generateSelfSignedCertificate(subject, keyPair, 365) };
+			Keys.addKeyEntry(store, alias, keyPair, password, chain);
+		} else {
+			KeyPair keyPair = algorithm.equalsIgnoreCase("RSA") ? Keys.generateKeyPair(LEAF_KEY_SIZE)
+					: generateKeyPair(algorithm);
+			CertificateAuthority.Leaf leaf = authority.issue(subject, subjectAltNames, keyPair, 365);
+			Keys.addKeyEntry(store, alias, leaf.getKeyPair(), password, leaf.getChain());
+		}
+	}
+
+	/**
+	 * Load the configured certificate authority, creating it the first time. A
+	 * new authority gets an EC P-384 key and is valid for ten years.
+	 *
+	 * @return certificate authority, or null if none is configured
+	 * @throws IOException
+	 * @throws GeneralSecurityException
+	 */
+	private CertificateAuthority getCertificateAuthority() throws IOException, GeneralSecurityException {
+		if (!config.containsKey(Configuration.CONFIGURATOR_CERTIFICATE_SSL_CA_KEYSTORE)) {
+			return null;
+		}
+		String caPassword = config.getProperty(Configuration.CONFIGURATOR_CERTIFICATE_SSL_CA_PASSWORD);
+		if (caPassword == null || caPassword.isEmpty()) {
+			throw new RuntimeException("A password is needed for the certificate authority key store.");
+		}
+
+		Path caFile = Paths.get(config.getProperty(Configuration.CONFIGURATOR_CERTIFICATE_SSL_CA_KEYSTORE));
+		if (Files.exists(caFile)) {
+			return CertificateAuthority.load(caFile, caPassword);
+		}
+
+		String caSubject = (config.containsKey(Configuration.CONFIGURATOR_CERTIFICATE_SSL_CA_OWNER)
+				? config.getProperty(Configuration.CONFIGURATOR_CERTIFICATE_SSL_CA_OWNER)
+				: "cn=Configurator Local CA");
+		CertificateAuthority authority = CertificateAuthority.create(caSubject, Keys.generateECKeyPair("P-384"),
+				CA_VALID_DAYS);
+		authority.save(caFile, caPassword);
+		log.info("Created certificate authority " + caSubject + " in " + caFile);
+		return authority;
+	}
+
+	/**
+	 * The subject alternative names for a leaf certificate are configured, or
+	 * default to the common name of the subject
+	 *
+	 * @param subject certificate subject
+	 * @return subject alternative names, may be empty
+	 */
+	private List<String> getSubjectAltNames(String subject) {
+		List<String> names = new ArrayList<>();
+		if (config.containsKey(Configuration.CONFIGURATOR_CERTIFICATE_SSL_SAN)) {
+			for (String name : config.getProperty(Configuration.CONFIGURATOR_CERTIFICATE_SSL_SAN).split(",")) {
+				if (!name.isBlank()) {
+					names.add(name.trim());
+				}
+			}
+		} else {
+			Matcher commonName = Pattern.compile("(?i)(?:^|,)\\s*cn\\s*=\\s*([^,]+)").matcher(subject);
+			if (commonName.find()) {
+				names.add(commonName.group(1).trim());
+			}
+		}
+		return names;
+	}
+
+	/**
+	 * Generate a key pair. RSA keys are 4096 bits and come from the key pair pool
+	 * if one is configured. EC keys use the configured curve, P-256 by default.
+	 * Ed25519 needs Java 15 or later.
+	 *
+	 * @param algorithm RSA, EC or Ed25519
+	 * @return new key pair
+	 * @throws IOException
+	 * @throws GeneralSecurityException
+	 */
+	private KeyPair generateKeyPair(String algorithm) throws IOException, GeneralSecurityException {
+		if (algorithm.equalsIgnoreCase("RSA")) {
+			KeyPairPool pool = getKeyPool();
+			return pool != null ? pool.take() : Keys.generateKeyPair(KEY_SIZE);
+		} else if (algorithm.equalsIgnoreCase("EC")) {
+			return Keys.generateECKeyPair(config.containsKey(Configuration.CONFIGURATOR_CERTIFICATE_SSL_CURVE)
+					? config.getProperty(Configuration.CONFIGURATOR_CERTIFICATE_SSL_CURVE)
+					: "P-256");
+		} else if (algorithm.equalsIgnoreCase("Ed25519")) {
+			return Keys.generateEd25519KeyPair();
+		}
+		throw new RuntimeException("Unsupported certificate algorithm " + algorithm);
+	}
+
+	/**
+	 * Get the key pair pool, creating it the first time if one is configured. The
+	 * pool is closed when the JVM exits, which saves the unused pairs if it has a
+	 * store.
+	 *
+	 * @return key pair pool, or null if no pool is configured
+	 * @throws IOException
+	 * @throws GeneralSecurityException
+	 */
+	private KeyPairPool getKeyPool() throws IOException, GeneralSecurityException {
+		synchronized (SSLCertificate.class) {
+			if (keyPool != null || !config.containsKey(Configuration.CONFIGURATOR_CERTIFICATE_SSL_KEYPOOL_SIZE)) {
+				return keyPool;
+			}
+
+			int size = Integer.parseInt(config.getProperty(Configuration.CONFIGURATOR_CERTIFICATE_SSL_KEYPOOL_SIZE));
+			if (size <= 0) {
+				throw new RuntimeException("Key pair pool size must be at least 1.");
+			}
+			// refill from half empty unless told otherwise
+			int lowWater = (config.containsKey(Configuration.CONFIGURATOR_CERTIFICATE_SSL_KEYPOOL_LOWWATER)
+					? Integer.parseInt(config.getProperty(Configuration.CONFIGURATOR_CERTIFICATE_SSL_KEYPOOL_LOWWATER))
+					: size / 2);
+			KeyPairPool.Refill refill = (config.containsKey(Configuration.CONFIGURATOR_CERTIFICATE_SSL_KEYPOOL_REFILL)
+					? KeyPairPool.Refill.valueOf(config.getProperty(Configuration.CONFIGURATOR_CERTIFICATE_SSL_KEYPOOL_REFILL)
+							.trim().toUpperCase().replace('-', '_'))
+					: KeyPairPool.Refill.LOW_WATER);
+			int threads = (config.containsKey(Configuration.CONFIGURATOR_CERTIFICATE_SSL_KEYPOOL_THREADS)
+					? Integer.parseInt(config.getProperty(Configuration.CONFIGURATOR_CERTIFICATE_SSL_KEYPOOL_THREADS))
+					: 0);
+
+			if (config.containsKey(Configuration.CONFIGURATOR_CERTIFICATE_SSL_KEYPOOL_STORE)) {
+				String storePassword = config.getProperty(Configuration.CONFIGURATOR_CERTIFICATE_SSL_KEYPOOL_PASSWORD);
+				if (storePassword == null || storePassword.isEmpty()) {
+					throw new RuntimeException("A password is needed to encrypt the key pair store.");
+				}
+				keyPool = new KeyPairPool(KEY_SIZE, size, lowWater, refill, threads,
+						Paths.get(config.getProperty(Configuration.CONFIGURATOR_CERTIFICATE_SSL_KEYPOOL_STORE)),
+						storePassword.toCharArray());
+			} else {
+				keyPool = new KeyPairPool(KEY_SIZE, size, lowWater, refill, threads);
+			}
+			if (!closeOnExit) {
+				Runtime.getRuntime().addShutdownHook(new Thread(SSLCertificate::closeKeyPool));
+				closeOnExit = true;
+			}
+			return keyPool;
+		}
+	}
+
+	/**
+	 * Close the key pair pool, if one was created. The next certificate
+	 * generated starts a new one.
+	 */
+	public static void closeKeyPool() {
+		synchronized (SSLCertificate.class) {
+			if (keyPool != null) {
+				try {
+					keyPool.close();
+				} catch (IOException e) {
+					log.warn("Key pair pool could not be saved", e);
+				}
+				keyPool = null;
+			}
+		}
+	}
+
 	/**
 	 * This returns the current installation directory for the keystore file
 	 *
@@ -123,13 +657,32 @@ public class SSLCertificate extends Configurator {
 	 * @throws GeneralSecurityException
 	 */
 	public void installCertificate() throws IOException, GeneralSecurityException {
-		// is the certificate already there?
-		if (checkCertificate()) {
+		installKeyStore();
+
+		// OpenSSL style files from the same keys and certificates
+		if (isPEM(config)) {
+			createPEMFiles(targetFile, config.getProperty(Configuration.CONFIGURATOR_CERTIFICATE_SSL_PASSWORD));
+		}
+	}
+
+	/**
+	 * Keep, copy in or generate the key store
+	 *
+	 * @throws IOException
+	 * @throws GeneralSecurityException
+	 */
+	private void installKeyStore() throws IOException, GeneralSecurityException {
+		// a password generated by an earlier run was saved in catalina.properties
+		recoverPassword();
+
+		// is the certificate already there, and good for longer than the renewal window?
+		if (checkCertificate() && isCertificateUsable()) {
 			log.info("Certificate installed, password available");
 			return;
 		}
 
-		// is there a pre-staged source certificate specified?
+		// is there a pre-staged source certificate specified? it is always used, a
+		// generated one would replace a certificate signed by a real authority
 		if (config.containsKey(Configuration.CONFIGURATOR_CERTIFICATE_SSL_SOURCE_KEYSTORE)
 				&& config.containsKey(Configuration.CONFIGURATOR_CERTIFICATE_SSL_PASSWORD)) {
 			Path sourceCertificate = Paths.get(config.getProperty(Configuration.CONFIGURATOR_CERTIFICATE_SSL_SOURCE_KEYSTORE));
@@ -140,11 +693,8 @@ public class SSLCertificate extends Configurator {
 			} else {
 				throw new RuntimeException("Source certificate was not found");
 			}
-		}
-
-		// is the certificate there?
-		if (checkCertificate()) {
-			log.info("Certificate installed, password available");
+			checkPreStagedCertificate(sourceCertificate);
+			log.info("Certificate installed: " + checkCertificate());
 			return;
 		}
 
@@ -156,6 +706,29 @@ public class SSLCertificate extends Configurator {
 
 	}
 
+	/**
+	 * Warn when a pre-staged key store cannot be used as configured or expires
+	 * within the renewal window. It is installed either way, only the operator
+	 * can replace it.
+	 *
+	 * @param sourceCertificate pre-staged key store that was installed
+	 * @throws IOException
+	 */
+	private void checkPreStagedCertificate(Path sourceCertificate) throws IOException {
+		KeyStoreInspector.Result result = KeyStoreInspector.inspect(targetFile, "PKCS12",
+				config.getProperty(Configuration.CONFIGURATOR_CERTIFICATE_SSL_PASSWORD));
+		int renewalDays = getRenewalDays();
+		if (!result.isReadable()) {
+			log.warn("Pre-staged certificate " + sourceCertificate + " cannot be opened with the configured password");
+		} else if (!hasConfiguredKeys(result)) {
+			log.warn("Pre-staged certificate " + sourceCertificate + " holds " + result.getKeyAlgorithms()
+					+ ", not the keys configured");
+		} else if (!result.isUsable(Duration.ofDays(renewalDays))) {
+			log.warn("Pre-staged certificate " + sourceCertificate + " expires " + result.getNotAfter() + ", within "
+					+ renewalDays + " days, replace it");
+		}
+	}
+
 	@Override
 	protected boolean validateConfiguration() {
 		return config.containsKey(Configuration.CONFIGURATOR_CERTIFICATE_SSL_KEYSTORE);
@@ -12,9 +12,15 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLStreamException;
 
 import org.jdom2.Document;
 import org.jdom2.Element;
@@ -22,6 +28,8 @@ import org.jdom2.JDOMException;
 import org.jdom2.input.SAXBuilder;
 import org.jdom2.output.Format;
 import org.jdom2.output.XMLOutputter;
+import org.northcastle.security.CipherPolicy;
+import org.northcastle.xml.StreamingXMLEditor;
 import org.northcastle.xml.XMLUtil;
 import org.xml.sax.SAXException;
 
@@ -42,34 +50,87 @@ public class ServerConfig extends Configurator {
 	private static final String ELEMENT_SSLHOSTCONFIG = "SSLHostConfig";
 	private static final String ELEMENT_CERTIFICATE = "Certificate";
 	private static final String ELEMENT_UPGRADEPROTOCOL = "UpgradeProtocol";
+	private static final String ELEMENT_LISTENER = "Listener";
+	private static final String ELEMENT_EXECUTOR = "Executor";
 	private static final String ATTRIBUTE_PORT = "port";
 	private static final String ATTRIBUTE_PROTOCOL = "protocol";
 	private static final String ATTRIBUTE_REDIRECTPORT = "redirectPort";
 	private static final String ATTRIBUTE_SSLENABLED = "SSLEnabled";
 	private static final String ATTRIBUTE_MAXTHREADS = "maxThreads";
 	private static final String ATTRIBUTE_CLASSNAME = "className";
+	private static final String ATTRIBUTE_MINSPARETHREADS = "minSpareThreads";
+	private static final String ATTRIBUTE_NAME = "name";
+	private static final String ATTRIBUTE_NAMEPREFIX = "namePrefix";
+	private static final String ATTRIBUTE_EXECUTOR = "executor";
+	private static final String ATTRIBUTE_COMPRESSION = "compression";
+	private static final String ATTRIBUTE_COMPRESSIONMINSIZE = "compressionMinSize";
+	private static final String ATTRIBUTE_COMPRESSIBLEMIMETYPE = "compressibleMimeType";
+	private static final String ATTRIBUTE_USESENDFILE = "useSendfile";
 
 	private static final String ATTRIBUTE_MAXPARMCOUNT = "maxParameterCount";
 	private static final String ATTRIBUTE_KEYSTORE = "certificateKeystoreFile";
 	private static final String ATTRIBUTE_KEYPASS = "certificateKeystorePassword";
 	private static final String ATTRIBUTE_KEYTYPE = "type";
+	private static final String ATTRIBUTE_KEYALIAS = "certificateKeyAlias";
+	private static final String ATTRIBUTE_HOSTNAME = "hostName";
+	private static final String ATTRIBUTE_DEFAULTHOSTCONFIG = "defaultSSLHostConfigName";
+	private static final String ATTRIBUTE_CERTIFICATEFILE = "certificateFile";
+	private static final String ATTRIBUTE_CERTIFICATEKEYFILE = "certificateKeyFile";
+	private static final String ATTRIBUTE_CERTIFICATECHAINFILE = "certificateChainFile";
+	private static final String ATTRIBUTE_SSLIMPLEMENTATION = "sslImplementationName";
+	private static final String ATTRIBUTE_SSLENGINE = "SSLEngine";
+	private static final String ATTRIBUTE_SESSIONCACHESIZE = "sessionCacheSize";
+	private static final String ATTRIBUTE_SESSIONTIMEOUT = "sessionTimeout";
+	private static final String ATTRIBUTE_DISABLESESSIONTICKETS = "disableSessionTickets";
+	private static final String ATTRIBUTE_PROTOCOLS = "protocols";
+	private static final String ATTRIBUTE_CIPHERS = "ciphers";
+	private static final String ATTRIBUTE_HONORCIPHERORDER = "honorCipherOrder";
 
+	private static final String OPENSSL_IMPLEMENTATION = "org.apache.tomcat.util.net.openssl.OpenSSLImplementation";
+	private static final String APR_LISTENER = "org.apache.catalina.core.AprLifecycleListener";
+	private static final String HTTP2_PROTOCOL = "org.apache.coyote.http2.Http2Protocol";
+	// HTTP/2 settings the profiles set, and that can be configured on their own
+	private static final String[] HTTP2_ATTRIBUTES = { "maxConcurrentStreams", "maxConcurrentStreamExecution",
+			"initialWindowSize", "keepAliveTimeout", "readTimeout", "overheadCountFactor" };
+	// MIME types worth compressing for each content delivery profile
+	private static final List<String> API_MIME_TYPES = List.of("application/json", "application/problem+json",
+			"application/xml", "text/plain", "text/csv");
+	private static final List<String> WEB_MIME_TYPES = List.of("text/html", "text/css", "text/plain", "text/xml",
+			"text/javascript", "application/javascript", "application/json", "application/xml", "image/svg+xml",
+			"application/manifest+json", "application/wasm", "font/ttf", "font/otf");
+	private static final String VIRTUAL_EXECUTOR = "org.apache.catalina.core.StandardVirtualThreadExecutor";
+	// first Tomcat and Java versions that can run the virtual thread executor
+	private static final String VIRTUAL_EXECUTOR_VERSION = "10.1.0";
+	private static final int VIRTUAL_EXECUTOR_JAVA_VERSION = 21;
+
+	private Tomcat tomcat = null;
 	private Path serverFile = null;
 	private Path backupServerFile = null;
 
 	private Document serverDocument = null;
 	private List<Element> serviceList = null;
 	private List<Element> connectorList = null;
+	private Map<String, String> hostConfigAttributes = null;
+	private Map<String, String> connectorAttributes = null;
+	private boolean openSSL = false;
+	private String executorName = null;
+	private boolean virtualExecutor = false;
+	private Map<String, String> executorAttributes = null;
+	private Map<String, String> upgradeAttributes = null;
+	private Map<String, String> deliveryAttributes = null;
 
 	/**
 	 * Constructor for handling the server configuration file
 	 *
+	 * @param tomcat Tomcat installation the server configuration belongs to
 	 * @throws SAXException
 	 * @throws ParserConfigurationException
 	 */
-	public ServerConfig() throws IOException {
+	public ServerConfig(Tomcat tomcat) throws IOException {
 		validateConfiguration();
 
+		this.tomcat = tomcat;
+
 		serverFile = Paths.get(config.getProperty(Configuration.CONFIGURATOR_TARGET_DIRECTORY),
 				config.getProperty(Configuration.CONFIGURATOR_TOMCAT_FILE_SERVERXML));
 		backupServerFile = Paths.get(config.getProperty(Configuration.CONFIGURATOR_TARGET_DIRECTORY),
@@ -92,47 +153,28 @@ public class ServerConfig extends Configurator {
 		Files.deleteIfExists(backupServerFile);
 		Files.copy(serverFile, backupServerFile);
 
+		openSSL = useOpenSSL();
+		hostConfigAttributes = getHostConfigAttributes();
+		connectorAttributes = getConnectorAttributes();
+		upgradeAttributes = getUpgradeAttributes();
+		deliveryAttributes = getDeliveryAttributes();
+		executorName = getExecutorName();
+
+		// rewrite the file as it streams past, keeping its layout and comments
+		if (Boolean.parseBoolean(config.getProperty(Configuration.CONFIGURATOR_TOMCAT_FILE_SERVERXML_STREAMING))) {
+			editFile(backupServerFile);
+			return;
+		}
+
 		readFile(backupServerFile);
+		if (executorName != null) {
+			configureExecutors(serviceList.get(0));
+		}
 
 		// iterate through connections looking for nodes we can configure SSL
 		boolean foundSSLNode = false;
 		for (Element element : connectorList) {
-			// if this is an SSL port using the port number configured
-			if (element.hasAttributes() && element.getAttribute(ATTRIBUTE_PORT) != null
-					&& element.getAttributeValue(ATTRIBUTE_PORT)
-							.equalsIgnoreCase(config.getProperty(Configuration.CONFIGURATOR_TOMCAT_CONNECTOR_PORT_SSL))) {
-				// this is an SSL connector, so get all certificates element buried in it
-				// if there are more than one, we will take the first one for our purposes
-				List<Element> certificateNodes = XMLUtil.getElementsByType(element, ELEMENT_CERTIFICATE);
-				if (certificateNodes.size() > 0) {
-					Element certificateNode = certificateNodes.get(0);
-
-					// configure the SSL
-					certificateNode.setAttribute(ATTRIBUTE_KEYTYPE,
-							config.getProperty(Configuration.CONFIGURATOR_CERTIFICATE_SSL_ALGORITHM));
-					certificateNode.setAttribute(ATTRIBUTE_KEYSTORE,
-							"conf/" + config.getProperty(Configuration.CONFIGURATOR_CERTIFICATE_SSL_KEYSTORE));
-					certificateNode.setAttribute(ATTRIBUTE_KEYPASS, "${" + Configuration.CONFIGURATOR_CERTIFICATE_SSL_PASSWORD + "}");
-				} else {
-					// we arrive here when there is no certificate, which is an error we do not
-					// handle
-					throw new RuntimeException("Malformed XML detected.  Connector does not have Certificate");
-				}
-
-				// update the connector attributes that we handle
-				element.setAttribute(ATTRIBUTE_SSLENABLED, "true");
-				element.setAttribute(ATTRIBUTE_PROTOCOL, config.getProperty(Configuration.CONFIGURATOR_CERTIFICATE_SSL_PROTOCOL));
-				// remember that we found a node
-				foundSSLNode = true;
-				// this is not an SSL port, but it is the expected non-SSL port, set redirect
-			} else if (element.hasAttributes() && element.getAttribute(ATTRIBUTE_PORT) != null
-					&& element.getAttributeValue(ATTRIBUTE_PORT)
-							.equalsIgnoreCase(config.getProperty(Configuration.CONFIGURATOR_TOMCAT_CONNECTOR_PORT))) {
-
-				// even if this is already set, go ahead and set it again
-				element.setAttribute(ATTRIBUTE_REDIRECTPORT,
-						config.getProperty(Configuration.CONFIGURATOR_TOMCAT_CONNECTOR_PORT_SSL));
-			}
+			foundSSLNode |= configureConnector(element);
 		}
 
 		// handle case where the SSL was not already configured and we need to do that
@@ -140,6 +182,9 @@ public class ServerConfig extends Configurator {
 			// the out of the box config for Tomcat has the SSL port commented out
 			serviceList.get(0).addContent(createSSLConnectorNode());
 		}
+		if (openSSL) {
+			configureAprListener(serverDocument.getRootElement());
+		}
 
 		// write the XML file, but delete old one first
 		Files.deleteIfExists(serverFile);
@@ -150,6 +195,149 @@ public class ServerConfig extends Configurator {
 		output.output(serverDocument, outputStream);
 	}
 
+	/**
+	 * Rewrite server.xml in one streaming pass. Only the Listeners, Executors and
+	 * Connectors of the Service are loaded, one at a time, and everything else is
+	 * copied as it is. The result is written next to server.xml and then moved
+	 * over it, so a failure leaves server.xml alone.
+	 *
+	 * @param source file to read
+	 * @throws IOException
+	 * @throws JDOMException if the file is not well-formed XML
+	 */
+	private void editFile(Path source) throws IOException, JDOMException {
+		Path editedFile = Paths.get(serverFile + ".edit");
+		try {
+			ServerXMLHandler handler = new ServerXMLHandler();
+			StreamingXMLEditor.edit(source, editedFile, handler);
+			if (handler.services != 1) {
+				throw new RuntimeException("This utility requires one, and only one, Service element");
+			}
+			Files.move(editedFile, serverFile, StandardCopyOption.REPLACE_EXISTING);
+		} catch (XMLStreamException e) {
+			throw new JDOMException("Cannot parse " + source + ": " + e.getMessage(), e);
+		} finally {
+			Files.deleteIfExists(editedFile);
+		}
+	}
+
+	/**
+	 * Makes the changes of the JDOM update while server.xml streams past.
+	 * Missing elements are inserted where the JDOM update adds them: the
+	 * OpenSSL listener after the other listeners, the executor before the first
+	 * Connector, and a new SSL connector at the end of the Service.
+	 */
+	private class ServerXMLHandler implements StreamingXMLEditor.Handler {
+		private int services = 0;
+		private boolean foundAprListener = false;
+		private boolean foundExecutor = false;
+		private boolean foundSSLNode = false;
+
+		@Override
+		public boolean isEditable(List<String> path) {
+			String name = path.get(path.size() - 1);
+			if (path.size() == 2) {
+				return openSSL && name.equals(ELEMENT_LISTENER);
+			}
+			return path.size() == 3 && path.get(1).equals(ELEMENT_SERVICE)
+					&& (name.equals(ELEMENT_CONNECTOR) || (executorName != null && name.equals(ELEMENT_EXECUTOR)));
+		}
+
+		@Override
+		public void edit(List<String> path, Element element) {
+			if (element.getName().equals(ELEMENT_LISTENER)) {
+				if (APR_LISTENER.equals(element.getAttributeValue(ATTRIBUTE_CLASSNAME))) {
+					element.setAttribute(ATTRIBUTE_SSLENGINE, "on");
+					foundAprListener = true;
+				}
+			} else if (element.getName().equals(ELEMENT_EXECUTOR)) {
+				if (executorName.equals(element.getAttributeValue(ATTRIBUTE_NAME))) {
+					configureExecutor(element);
+					foundExecutor = true;
+				}
+			} else {
+				foundSSLNode |= configureConnector(element);
+			}
+		}
+
+		@Override
+		public List<Element> insertBefore(List<String> path, boolean end) {
+			String name = path.get(path.size() - 1);
+			boolean inService = path.size() > 1 && path.get(1).equals(ELEMENT_SERVICE);
+			if (!end && path.size() == 2 && name.equals(ELEMENT_SERVICE) && ++services > 1) {
+				throw new RuntimeException("This utility requires one, and only one, Service element");
+			}
+
+			List<Element> added = new ArrayList<>();
+			if (openSSL && !foundAprListener
+					&& (end ? path.size() == 1 : path.size() == 2 && !name.equals(ELEMENT_LISTENER))) {
+				added.add(createAprListenerNode());
+				foundAprListener = true;
+			}
+			if (executorName != null && !foundExecutor && inService && (end ? path.size() == 2
+					: path.size() == 3 && !name.equals(ELEMENT_LISTENER) && !name.equals(ELEMENT_EXECUTOR))) {
+				added.add(createExecutorNode());
+				foundExecutor = true;
+			}
+			if (end && path.size() == 2 && inService && !foundSSLNode) {
+				added.add(createSSLConnectorNode());
+				foundSSLNode = true;
+			}
+			return added;
+		}
+	}
+
+	/**
+	 * Configure a Connector if it is the SSL or the non-SSL connector
+	 *
+	 * @param element Connector element
+	 * @return true if it is the SSL connector
+	 */
+	private boolean configureConnector(Element element) {
+		// if this is an SSL port using the port number configured
+		if (element.hasAttributes() && element.getAttribute(ATTRIBUTE_PORT) != null
+				&& element.getAttributeValue(ATTRIBUTE_PORT)
+						.equalsIgnoreCase(config.getProperty(Configuration.CONFIGURATOR_TOMCAT_CONNECTOR_PORT_SSL))) {
+			// this is an SSL connector, so get all certificates element buried in it
+			// if there are more than one, we will use the default SSLHostConfig, or the
+			// SSLHostConfig of the first one
+			List<Element> certificateNodes = XMLUtil.getElementsByType(element, ELEMENT_CERTIFICATE);
+			if (certificateNodes.size() > 0) {
+				// configure the SSL
+				Element hostConfig = getDefaultHostConfig(element);
+				configureHostConfig(hostConfig != null ? hostConfig : certificateNodes.get(0).getParentElement(),
+						getKeyStore());
+				configureHostConfigs(element);
+			} else {
+				// we arrive here when there is no certificate, which is an error we do not
+				// handle
+				throw new RuntimeException("Malformed XML detected.  Connector does not have Certificate");
+			}
+
+			// update the connector attributes that we handle
+			element.setAttribute(ATTRIBUTE_SSLENABLED, "true");
+			element.setAttribute(ATTRIBUTE_PROTOCOL, config.getProperty(Configuration.CONFIGURATOR_CERTIFICATE_SSL_PROTOCOL));
+			configureSSLImplementation(element, openSSL);
+			setAttributes(element, connectorAttributes);
+			configureExecutorReference(element);
+			configureUpgradeProtocol(element, false);
+			configureDelivery(element, true);
+			return true;
+			// this is not an SSL port, but it is the expected non-SSL port, set redirect
+		} else if (element.hasAttributes() && element.getAttribute(ATTRIBUTE_PORT) != null
+				&& element.getAttributeValue(ATTRIBUTE_PORT)
+						.equalsIgnoreCase(config.getProperty(Configuration.CONFIGURATOR_TOMCAT_CONNECTOR_PORT))) {
+
+			// even if this is already set, go ahead and set it again
+			element.setAttribute(ATTRIBUTE_REDIRECTPORT,
+					config.getProperty(Configuration.CONFIGURATOR_TOMCAT_CONNECTOR_PORT_SSL));
+			setAttributes(element, connectorAttributes);
+			configureExecutorReference(element);
+			configureDelivery(element, false);
+		}
+		return false;
+	}
+
 	/**
 	 * This is necessary, as the default config SSL node is not present in the
 	 * document. Create a new tree, set the attributes, and return it so that it can
@@ -159,36 +347,666 @@ public class ServerConfig extends Configurator {
 	 */
 	private Element createSSLConnectorNode() {
 		// these are the elements that are part of the Connector
-		Element certificate = new Element(ELEMENT_CERTIFICATE);
 		Element hostconfig = new Element(ELEMENT_SSLHOSTCONFIG);
-		Element upgrade = new Element(ELEMENT_UPGRADEPROTOCOL);
 		Element connector = new Element(ELEMENT_CONNECTOR);
 
-		// define the certificate. All of the attributes are configurable
-		certificate.setAttribute(ATTRIBUTE_KEYTYPE, config.getProperty(Configuration.CONFIGURATOR_CERTIFICATE_SSL_ALGORITHM));
-		certificate.setAttribute(ATTRIBUTE_KEYSTORE,
-				"conf/" + config.getProperty(Configuration.CONFIGURATOR_CERTIFICATE_SSL_KEYSTORE));
-		certificate.setAttribute(ATTRIBUTE_KEYPASS, "${" + Configuration.CONFIGURATOR_CERTIFICATE_SSL_PASSWORD + "}");
-
-		// hard coded until such time as it becomes configurable
-		upgrade.setAttribute(ATTRIBUTE_CLASSNAME, "org.apache.coyote.http2.Http2Protocol");
-
-		// many values hard coded until configurable
+		// the thread and parameter limits default to Tomcat's sample, unless tuned
 		connector.setAttribute(ATTRIBUTE_PORT, config.getProperty(Configuration.CONFIGURATOR_TOMCAT_CONNECTOR_PORT_SSL));
 		connector.setAttribute(ATTRIBUTE_PROTOCOL, config.getProperty(Configuration.CONFIGURATOR_CERTIFICATE_SSL_PROTOCOL));
 		connector.setAttribute(ATTRIBUTE_MAXTHREADS, "150");
 		connector.setAttribute(ATTRIBUTE_MAXPARMCOUNT, "1000");
 		connector.setAttribute(ATTRIBUTE_SSLENABLED, "true");
+		setAttributes(connector, connectorAttributes);
+		configureExecutorReference(connector);
+		configureDelivery(connector, true);
+
+		// define the certificates and sessions. All of the attributes are configurable
+		configureHostConfig(hostconfig, getKeyStore());
 
-		// chain everything together
-		hostconfig.setContent(certificate);
-		connector.setContent(upgrade);
-		connector.setContent(hostconfig);
+		// chain everything together, a new connector always offers HTTP/2
+		connector.addContent(hostconfig);
+		configureUpgradeProtocol(connector, true);
+		configureHostConfigs(connector);
+		configureSSLImplementation(connector, openSSL);
 
 		return connector;
 
 	}
 
+	/**
+	 * Decide between the JSSE and the OpenSSL implementation of TLS. jsse, the
+	 * default, leaves the connector on JSSE. openssl always configures OpenSSL.
+	 * auto configures OpenSSL only when the installed image holds the Tomcat
+	 * Native library.
+	 *
+	 * @return true if the connector should use OpenSSL
+	 * @throws IOException
+	 */
+	private boolean useOpenSSL() throws IOException {
+		String implementation = (config.containsKey(Configuration.CONFIGURATOR_TOMCAT_CONNECTOR_SSL_IMPLEMENTATION)
+				? config.getProperty(Configuration.CONFIGURATOR_TOMCAT_CONNECTOR_SSL_IMPLEMENTATION).trim()
+				: "jsse");
+		if (implementation.equalsIgnoreCase("jsse")) {
+			return false;
+		} else if (implementation.equalsIgnoreCase("openssl")) {
+			return true;
+		} else if (implementation.equalsIgnoreCase("auto")) {
+			Path library = tomcat.getNativeLibrary();
+			log.info(library != null ? "Tomcat Native found at " + library + ", using OpenSSL"
+					: "Tomcat Native not found, using JSSE");
+			return library != null;
+		}
+		throw new RuntimeException("Unsupported SSL implementation " + implementation);
+	}
+
+	/**
+	 * Point the connector at the OpenSSL implementation, or take it off it again
+	 *
+	 * @param connector Connector element
+	 * @param openSSL   true to use OpenSSL
+	 */
+	private void configureSSLImplementation(Element connector, boolean openSSL) {
+		if (openSSL) {
+			connector.setAttribute(ATTRIBUTE_SSLIMPLEMENTATION, OPENSSL_IMPLEMENTATION);
+		} else if (OPENSSL_IMPLEMENTATION.equals(connector.getAttributeValue(ATTRIBUTE_SSLIMPLEMENTATION))) {
+			connector.removeAttribute(ATTRIBUTE_SSLIMPLEMENTATION);
+		}
+	}
+
+	/**
+	 * The OpenSSL implementation loads OpenSSL through the AprLifecycleListener.
+	 * Add the listener after the other listeners if it is missing, and make sure
+	 * its SSL engine is on.
+	 *
+	 * @param server Server element
+	 */
+	private void configureAprListener(Element server) {
+		Element aprListener = null;
+		Element lastListener = null;
+		for (Element listener : server.getChildren(ELEMENT_LISTENER)) {
+			lastListener = listener;
+			if (APR_LISTENER.equals(listener.getAttributeValue(ATTRIBUTE_CLASSNAME))) {
+				aprListener = listener;
+			}
+		}
+		if (aprListener == null) {
+			server.addContent(lastListener == null ? 0 : server.indexOf(lastListener) + 1, createAprListenerNode());
+		} else {
+			aprListener.setAttribute(ATTRIBUTE_SSLENGINE, "on");
+		}
+	}
+
+	/**
+	 * @return new AprLifecycleListener with its SSL engine on
+	 */
+	private Element createAprListenerNode() {
+		Element aprListener = new Element(ELEMENT_LISTENER);
+		aprListener.setAttribute(ATTRIBUTE_CLASSNAME, APR_LISTENER);
+		aprListener.setAttribute(ATTRIBUTE_SSLENGINE, "on");
+		return aprListener;
+	}
+
+	/**
+	 * Work out the shared Executor the connectors run requests on. platform is a
+	 * pool of platform threads, sized by the connector tuning when there is one.
+	 * virtual runs each request on its own virtual thread, which needs a Tomcat
+	 * that ships the virtual thread executor and Java 21 to run it. The version
+	 * of the installed image and the Java it runs on are checked, and anything
+	 * older, or an unknown image version, gets a platform pool instead. The
+	 * thread limits of the tuning move from the connectors to the pool, since
+	 * Tomcat ignores them on connectors with an executor.
+	 *
+	 * @return name of the executor, or null if none is configured
+	 * @throws IOException
+	 */
+	private String getExecutorName() throws IOException {
+		String type = (config.containsKey(Configuration.CONFIGURATOR_TOMCAT_CONNECTOR_EXECUTOR)
+				? config.getProperty(Configuration.CONFIGURATOR_TOMCAT_CONNECTOR_EXECUTOR).trim()
+				: "none");
+		if (type.equalsIgnoreCase("none")) {
+			return null;
+		} else if (!type.equalsIgnoreCase("platform") && !type.equalsIgnoreCase("virtual")) {
+			throw new RuntimeException("Unknown executor type " + type);
+		}
+		String name = (config.containsKey(Configuration.CONFIGURATOR_TOMCAT_CONNECTOR_EXECUTOR_NAME)
+				? config.getProperty(Configuration.CONFIGURATOR_TOMCAT_CONNECTOR_EXECUTOR_NAME).trim()
+				: "tomcatThreadPool");
+
+		virtualExecutor = type.equalsIgnoreCase("virtual");
+		if (virtualExecutor) {
+			String version = tomcat.getVersion();
+			int javaVersion = tomcat.getJavaVersion();
+			if (!Tomcat.isVersionAtLeast(version, VIRTUAL_EXECUTOR_VERSION)) {
+				log.warn("Tomcat " + (version != null ? version : "of unknown version")
+						+ " has no virtual thread executor, using platform threads");
+				virtualExecutor = false;
+			} else if (javaVersion < VIRTUAL_EXECUTOR_JAVA_VERSION) {
+				log.warn("Java " + javaVersion + " cannot run the virtual thread executor, using platform threads");
+				virtualExecutor = false;
+			}
+		}
+
+		executorAttributes = new LinkedHashMap<>();
+		for (String attribute : List.of(ATTRIBUTE_MAXTHREADS, ATTRIBUTE_MINSPARETHREADS)) {
+			String value = connectorAttributes.remove(attribute);
+			if (value != null) {
+				executorAttributes.put(attribute, value);
+			}
+		}
+		log.info("Connectors use the " + (virtualExecutor ? "virtual" : "platform") + " thread executor " + name);
+		return name;
+	}
+
+	/**
+	 * Update the shared Executor of the Service, or add it before the first
+	 * Connector, since it has to be defined before the connectors that use it
+	 *
+	 * @param service Service element
+	 */
+	private void configureExecutors(Element service) {
+		for (Element executor : service.getChildren(ELEMENT_EXECUTOR)) {
+			if (executorName.equals(executor.getAttributeValue(ATTRIBUTE_NAME))) {
+				configureExecutor(executor);
+				return;
+			}
+		}
+		Element firstConnector = service.getChild(ELEMENT_CONNECTOR);
+		service.addContent(firstConnector == null ? service.getContentSize() : service.indexOf(firstConnector),
+				createExecutorNode());
+	}
+
+	/**
+	 * @return new shared Executor
+	 */
+	private Element createExecutorNode() {
+		Element executor = new Element(ELEMENT_EXECUTOR);
+		executor.setAttribute(ATTRIBUTE_NAME, executorName);
+		configureExecutor(executor);
+		return executor;
+	}
+
+	/**
+	 * Make an Executor a virtual thread executor or a platform thread pool
+	 *
+	 * @param executor Executor element
+	 */
+	private void configureExecutor(Element executor) {
+		if (virtualExecutor) {
+			// virtual threads are not pooled, so there are no limits to set
+			executor.setAttribute(ATTRIBUTE_CLASSNAME, VIRTUAL_EXECUTOR);
+			executor.setAttribute(ATTRIBUTE_NAMEPREFIX, "catalina-virt-");
+			executor.removeAttribute(ATTRIBUTE_MAXTHREADS);
+			executor.removeAttribute(ATTRIBUTE_MINSPARETHREADS);
+		} else {
+			if (VIRTUAL_EXECUTOR.equals(executor.getAttributeValue(ATTRIBUTE_CLASSNAME))) {
+				executor.removeAttribute(ATTRIBUTE_CLASSNAME);
+			}
+			executor.setAttribute(ATTRIBUTE_NAMEPREFIX, "catalina-exec-");
+			setAttributes(executor, executorAttributes);
+		}
+	}
+
+	/**
+	 * Point a connector at the shared executor, if there is one, and drop the
+	 * thread limits it no longer uses
+	 *
+	 * @param connector Connector element
+	 */
+	private void configureExecutorReference(Element connector) {
+		if (executorName != null) {
+			connector.setAttribute(ATTRIBUTE_EXECUTOR, executorName);
+			connector.removeAttribute(ATTRIBUTE_MAXTHREADS);
+			connector.removeAttribute(ATTRIBUTE_MINSPARETHREADS);
+		}
+	}
+
+	/**
+	 * Find the SSLHostConfig used for clients that send no known host name. It is
+	 * the one named by defaultSSLHostConfigName, _default_ unless set, or one
+	 * with no host name.
+	 *
+	 * @param connector Connector element
+	 * @return default SSLHostConfig element, or null if there is none
+	 */
+	private Element getDefaultHostConfig(Element connector) {
+		String defaultName = connector.getAttributeValue(ATTRIBUTE_DEFAULTHOSTCONFIG, "_default_");
+		for (Element hostConfig : connector.getChildren(ELEMENT_SSLHOSTCONFIG)) {
+			String hostName = hostConfig.getAttributeValue(ATTRIBUTE_HOSTNAME);
+			if (hostName == null || hostName.equalsIgnoreCase(defaultName)) {
+				return hostConfig;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Add or update one SSLHostConfig per virtual host configured in
+	 * configurator.certificate.ssl.hosts, so a single connector serves all of them
+	 * and clients pick theirs through SNI. SSLHostConfigs of other host names are
+	 * left alone.
+	 *
+	 * @param connector Connector element
+	 */
+	private void configureHostConfigs(Element connector) {
+		for (Map.Entry<String, String> host : SSLCertificate.getHostKeyStores(config).entrySet()) {
+			Element hostConfig = null;
+			for (Element node : connector.getChildren(ELEMENT_SSLHOSTCONFIG)) {
+				if (host.getKey().equalsIgnoreCase(node.getAttributeValue(ATTRIBUTE_HOSTNAME))) {
+					hostConfig = node;
+					break;
+				}
+			}
+			if (hostConfig == null) {
+				hostConfig = new Element(ELEMENT_SSLHOSTCONFIG);
+				hostConfig.setAttribute(ATTRIBUTE_HOSTNAME, host.getKey());
+				connector.addContent(hostConfig);
+			}
+			configureHostConfig(hostConfig, "conf/" + host.getValue());
+		}
+	}
+
+	/**
+	 * Configure everything we manage on an SSLHostConfig
+	 *
+	 * @param hostConfig SSLHostConfig element
+	 * @param keyStore   key store file, relative to the Tomcat base
+	 */
+	private void configureHostConfig(Element hostConfig, String keyStore) {
+		configureCertificates(hostConfig, keyStore);
+		setAttributes(hostConfig, hostConfigAttributes);
+	}
+
+	/**
+	 * Set attributes on an element
+	 *
+	 * @param element    element to update
+	 * @param attributes attribute values keyed by attribute name
+	 */
+	private void setAttributes(Element element, Map<String, String> attributes) {
+		for (Map.Entry<String, String> attribute : attributes.entrySet()) {
+			element.setAttribute(attribute.getKey(), attribute.getValue());
+		}
+	}
+
+	/**
+	 * Work out the tuning attributes of the SSL and non-SSL connectors, from the
+	 * tuning profile and the attributes configured on their own. The profile is
+	 * sized for the cores and memory of this machine, unless those are
+	 * configured for the server Tomcat will run on.
+	 *
+	 * @return attribute values keyed by attribute name
+	 */
+	private Map<String, String> getConnectorAttributes() {
+		Map<String, String> attributes = new LinkedHashMap<>();
+		String profile = (config.containsKey(Configuration.CONFIGURATOR_TOMCAT_CONNECTOR_TUNING)
+				? config.getProperty(Configuration.CONFIGURATOR_TOMCAT_CONNECTOR_TUNING).trim()
+				: "none");
+		if (!profile.equalsIgnoreCase("none")) {
+			int cores = (config.containsKey(Configuration.CONFIGURATOR_TOMCAT_CONNECTOR_TUNING_CORES)
+					? Integer.parseInt(config.getProperty(Configuration.CONFIGURATOR_TOMCAT_CONNECTOR_TUNING_CORES).trim())
+					: ConnectorTuning.getCores());
+			long memoryMB = (config.containsKey(Configuration.CONFIGURATOR_TOMCAT_CONNECTOR_TUNING_MEMORY)
+					? Long.parseLong(config.getProperty(Configuration.CONFIGURATOR_TOMCAT_CONNECTOR_TUNING_MEMORY).trim())
+					: ConnectorTuning.getMemoryMB());
+			attributes.putAll(ConnectorTuning.getAttributes(profile, cores, memoryMB));
+			log.info("Connector tuning " + profile + " for " + cores + " cores and " + memoryMB + " MB: " + attributes);
+		}
+
+		for (String attribute : ConnectorTuning.ATTRIBUTES) {
+			String key = Configuration.CONFIGURATOR_TOMCAT_CONNECTOR_TUNING + "." + attribute;
+			if (config.containsKey(key)) {
+				attributes.put(attribute, String.valueOf(Integer.parseInt(config.getProperty(key).trim())));
+			}
+		}
+		return attributes;
+	}
+
+	/**
+	 * Work out the compression and sendfile attributes of the connectors. The api
+	 * profile compresses JSON, XML and text responses from 1 KB. The web profile
+	 * compresses markup, style sheets, scripts, SVG, web assembly and fonts from
+	 * 2 KB, leaving images and archives that are compressed already. The MIME
+	 * types and minimum size can also be configured on their own, which
+	 * overrides the profile. sendfile stays on unless it is configured off.
+	 *
+	 * @return attribute values keyed by attribute name, null without a profile
+	 */
+	private Map<String, String> getDeliveryAttributes() {
+		String profile = (config.containsKey(Configuration.CONFIGURATOR_TOMCAT_CONNECTOR_DELIVERY)
+				? config.getProperty(Configuration.CONFIGURATOR_TOMCAT_CONNECTOR_DELIVERY).trim()
+				: "none");
+		List<String> mimeTypes;
+		int minSize;
+		if (profile.equalsIgnoreCase("none")) {
+			return null;
+		} else if (profile.equalsIgnoreCase("api")) {
+			mimeTypes = API_MIME_TYPES;
+			minSize = 1024;
+		} else if (profile.equalsIgnoreCase("web")) {
+			mimeTypes = WEB_MIME_TYPES;
+			minSize = 2048;
+		} else {
+			throw new RuntimeException("Unknown content delivery profile " + profile);
+		}
+
+		if (config.containsKey(Configuration.CONFIGURATOR_TOMCAT_CONNECTOR_DELIVERY_MIMETYPES)) {
+			mimeTypes = new ArrayList<>();
+			for (String mimeType : config.getProperty(Configuration.CONFIGURATOR_TOMCAT_CONNECTOR_DELIVERY_MIMETYPES)
+					.split(",")) {
+				if (!mimeType.isBlank()) {
+					mimeTypes.add(mimeType.trim());
+				}
+			}
+		}
+		if (config.containsKey(Configuration.CONFIGURATOR_TOMCAT_CONNECTOR_DELIVERY_MINSIZE)) {
+			minSize = Integer.parseInt(config.getProperty(Configuration.CONFIGURATOR_TOMCAT_CONNECTOR_DELIVERY_MINSIZE).trim());
+		}
+		boolean sendfile = (config.containsKey(Configuration.CONFIGURATOR_TOMCAT_CONNECTOR_DELIVERY_SENDFILE)
+				? Boolean.parseBoolean(config.getProperty(Configuration.CONFIGURATOR_TOMCAT_CONNECTOR_DELIVERY_SENDFILE).trim())
+				: true);
+
+		Map<String, String> attributes = new LinkedHashMap<>();
+		attributes.put(ATTRIBUTE_COMPRESSION, "on");
+		attributes.put(ATTRIBUTE_COMPRESSIONMINSIZE, String.valueOf(minSize));
+		attributes.put(ATTRIBUTE_COMPRESSIBLEMIMETYPE, String.join(",", mimeTypes));
+		attributes.put(ATTRIBUTE_USESENDFILE, String.valueOf(sendfile));
+		return attributes;
+	}
+
+	/**
+	 * Set the content delivery attributes on a connector. sendfile is turned off
+	 * on TLS connectors. The file has to be encrypted on its way out, so it
+	 * cannot be handed to the kernel without a copy, and a response sent with
+	 * sendfile is never compressed.
+	 *
+	 * @param connector Connector element
+	 * @param tls       true for the SSL connector
+	 */
+	private void configureDelivery(Element connector, boolean tls) {
+		if (deliveryAttributes == null) {
+			return;
+		}
+		setAttributes(connector, deliveryAttributes);
+		if (tls) {
+			connector.setAttribute(ATTRIBUTE_USESENDFILE, "false");
+		}
+	}
+
+	/**
+	 * Work out the HTTP/2 settings of the SSL connector. The latency profile lets
+	 * a client run many requests at once on one connection, with a large flow
+	 * control window so responses are not held back, and keeps idle connections
+	 * open for a minute. The small-host profile limits the streams a connection
+	 * can run at once. default leaves Tomcat's settings. Settings can also be
+	 * configured on their own, as configurator.tomcat.connector.http2.ATTRIBUTE,
+	 * which overrides the profile.
+	 *
+	 * @return attribute values keyed by attribute name, null if HTTP/2 is not
+	 *         configured
+	 */
+	private Map<String, String> getUpgradeAttributes() {
+		Map<String, String> attributes = new LinkedHashMap<>();
+		String profile = (config.containsKey(Configuration.CONFIGURATOR_TOMCAT_CONNECTOR_HTTP2)
+				? config.getProperty(Configuration.CONFIGURATOR_TOMCAT_CONNECTOR_HTTP2).trim()
+				: "none");
+		if (profile.equalsIgnoreCase("latency")) {
+			attributes.put("maxConcurrentStreams", "256");
+			attributes.put("maxConcurrentStreamExecution", "64");
+			attributes.put("initialWindowSize", "1048576");
+			attributes.put("keepAliveTimeout", "60000");
+			attributes.put("readTimeout", "10000");
+		} else if (profile.equalsIgnoreCase("small-host")) {
+			attributes.put("maxConcurrentStreams", "50");
+			attributes.put("maxConcurrentStreamExecution", "10");
+			attributes.put("initialWindowSize", "65535");
+			attributes.put("keepAliveTimeout", "10000");
+			attributes.put("readTimeout", "5000");
+		} else if (!profile.equalsIgnoreCase("default") && !profile.equalsIgnoreCase("none")) {
+			throw new RuntimeException("Unknown HTTP/2 profile " + profile);
+		}
+
+		for (String attribute : HTTP2_ATTRIBUTES) {
+			String key = Configuration.CONFIGURATOR_TOMCAT_CONNECTOR_HTTP2 + "." + attribute;
+			if (config.containsKey(key)) {
+				attributes.put(attribute, String.valueOf(Integer.parseInt(config.getProperty(key).trim())));
+			}
+		}
+		return (profile.equalsIgnoreCase("none") && attributes.isEmpty() ? null : attributes);
+	}
+
+	/**
+	 * Add the HTTP/2 UpgradeProtocol to a connector if it is missing, and set its
+	 * configured settings
+	 *
+	 * @param connector Connector element
+	 * @param add       true to add the UpgradeProtocol even when HTTP/2 is not
+	 *                  configured
+	 */
+	private void configureUpgradeProtocol(Element connector, boolean add) {
+		if (upgradeAttributes == null && !add) {
+			return;
+		}
+		Element upgrade = null;
+		for (Element node : connector.getChildren(ELEMENT_UPGRADEPROTOCOL)) {
+			if (HTTP2_PROTOCOL.equals(node.getAttributeValue(ATTRIBUTE_CLASSNAME))) {
+				upgrade = node;
+				break;
+			}
+		}
+		if (upgrade == null) {
+			upgrade = new Element(ELEMENT_UPGRADEPROTOCOL);
+			upgrade.setAttribute(ATTRIBUTE_CLASSNAME, HTTP2_PROTOCOL);
+			connector.addContent(0, upgrade);
+		}
+		if (upgradeAttributes != null) {
+			setAttributes(upgrade, upgradeAttributes);
+		}
+	}
+
+	/**
+	 * Work out the attributes set on every managed SSLHostConfig. The session
+	 * profile comes first, then the cipher policy, whose protocols win over the
+	 * session profile's, then protocols configured on their own.
+	 *
+	 * @return attribute values keyed by attribute name
+	 */
+	private Map<String, String> getHostConfigAttributes() {
+		Map<String, String> attributes = getSessionAttributes();
+		attributes.putAll(getCipherPolicyAttributes());
+		if (config.containsKey(Configuration.CONFIGURATOR_TOMCAT_CONNECTOR_SSL_PROTOCOLS)) {
+			attributes.put(ATTRIBUTE_PROTOCOLS,
+					config.getProperty(Configuration.CONFIGURATOR_TOMCAT_CONNECTOR_SSL_PROTOCOLS).trim());
+		}
+		return attributes;
+	}
+
+	/**
+	 * Work out the protocols, ciphers and cipher order of the configured cipher
+	 * policy, checked against the JDK running the configurator. The AES
+	 * hardware setting describes the server Tomcat runs on, and is detected when
+	 * it is not configured.
+	 *
+	 * @return attribute values keyed by attribute name, empty without a policy
+	 */
+	private Map<String, String> getCipherPolicyAttributes() {
+		Map<String, String> attributes = new LinkedHashMap<>();
+		String name = (config.containsKey(Configuration.CONFIGURATOR_TOMCAT_CONNECTOR_SSL_POLICY)
+				? config.getProperty(Configuration.CONFIGURATOR_TOMCAT_CONNECTOR_SSL_POLICY).trim()
+				: "none");
+		if (name.equalsIgnoreCase("none")) {
+			return attributes;
+		}
+
+		boolean aesHardware = (config.containsKey(Configuration.CONFIGURATOR_TOMCAT_CONNECTOR_SSL_POLICY_AES)
+				? Boolean.parseBoolean(config.getProperty(Configuration.CONFIGURATOR_TOMCAT_CONNECTOR_SSL_POLICY_AES).trim())
+				: CipherPolicy.hasAESHardware());
+		CipherPolicy policy;
+		try {
+			policy = CipherPolicy.forName(name, aesHardware);
+		} catch (NoSuchAlgorithmException | IllegalArgumentException e) {
+			throw new RuntimeException("Cipher policy " + name + " cannot be used: " + e.getMessage(), e);
+		}
+		log.info("Cipher policy " + policy.getName() + (aesHardware ? " with" : " without") + " AES hardware");
+
+		attributes.put(ATTRIBUTE_PROTOCOLS, String.join("+", policy.getProtocols()));
+		attributes.put(ATTRIBUTE_CIPHERS, String.join(",", policy.getCipherSuites()));
+		attributes.put(ATTRIBUTE_HONORCIPHERORDER, String.valueOf(policy.isHonorCipherOrder()));
+		return attributes;
+	}
+
+	/**
+	 * Work out the TLS session attributes of the SSLHostConfigs. The resumption
+	 * profile keeps up to 20480 sessions for a day, leaves session tickets on and
+	 * allows TLSv1.2 and TLSv1.3 only, so returning clients skip the full
+	 * handshake. The cache size, timeout and tickets can also be configured on
+	 * their own, which overrides the profile. Attributes that are not configured
+	 * are left as they are.
+	 *
+	 * @return attribute values keyed by attribute name
+	 */
+	private Map<String, String> getSessionAttributes() {
+		Map<String, String> attributes = new LinkedHashMap<>();
+		String profile = (config.containsKey(Configuration.CONFIGURATOR_TOMCAT_CONNECTOR_SSL_SESSION_PROFILE)
+				? config.getProperty(Configuration.CONFIGURATOR_TOMCAT_CONNECTOR_SSL_SESSION_PROFILE).trim()
+				: "none");
+		if (profile.equalsIgnoreCase("resumption")) {
+			attributes.put(ATTRIBUTE_SESSIONCACHESIZE, "20480");
+			attributes.put(ATTRIBUTE_SESSIONTIMEOUT, "86400");
+			attributes.put(ATTRIBUTE_DISABLESESSIONTICKETS, "false");
+			attributes.put(ATTRIBUTE_PROTOCOLS, "TLSv1.2+TLSv1.3");
+		} else if (!profile.equalsIgnoreCase("none")) {
+			throw new RuntimeException("Unknown TLS session profile " + profile);
+		}
+
+		if (config.containsKey(Configuration.CONFIGURATOR_TOMCAT_CONNECTOR_SSL_SESSION_CACHESIZE)) {
+			attributes.put(ATTRIBUTE_SESSIONCACHESIZE, String.valueOf(Integer
+					.parseInt(config.getProperty(Configuration.CONFIGURATOR_TOMCAT_CONNECTOR_SSL_SESSION_CACHESIZE).trim())));
+		}
+		if (config.containsKey(Configuration.CONFIGURATOR_TOMCAT_CONNECTOR_SSL_SESSION_TIMEOUT)) {
+			attributes.put(ATTRIBUTE_SESSIONTIMEOUT, String.valueOf(Integer
+					.parseInt(config.getProperty(Configuration.CONFIGURATOR_TOMCAT_CONNECTOR_SSL_SESSION_TIMEOUT).trim())));
+		}
+		if (config.containsKey(Configuration.CONFIGURATOR_TOMCAT_CONNECTOR_SSL_SESSION_TICKETS)) {
+			attributes.put(ATTRIBUTE_DISABLESESSIONTICKETS, String.valueOf(!Boolean
+					.parseBoolean(config.getProperty(Configuration.CONFIGURATOR_TOMCAT_CONNECTOR_SSL_SESSION_TICKETS).trim())));
+		}
+		return attributes;
+	}
+
+	/**
+	 * @return key store of the default SSLHostConfig, relative to the Tomcat base
+	 */
+	private String getKeyStore() {
+		return "conf/" + config.getProperty(Configuration.CONFIGURATOR_CERTIFICATE_SSL_KEYSTORE);
+	}
+
+	/**
+	 * Configure the Certificate elements of an SSLHostConfig. There is one
+	 * certificate, or an RSA and an EC one when dual certificates are configured.
+	 * An existing Certificate of the same type is reused, then one of a type we
+	 * do not want, before a new one is added. Left over Certificates that point
+	 * at our key store are removed, other ones are left alone.
+	 *
+	 * @param hostConfig SSLHostConfig element
+	 * @param keyStore   key store file, relative to the Tomcat base
+	 */
+	private void configureCertificates(Element hostConfig, String keyStore) {
+		// type and key store alias of each certificate wanted
+		List<String[]> wanted = new ArrayList<>();
+		if (SSLCertificate.isDual(config)) {
+			wanted.add(new String[] { "RSA", SSLCertificate.KEY_ALIAS_RSA });
+			wanted.add(new String[] { "EC", SSLCertificate.KEY_ALIAS_EC });
+		} else {
+			wanted.add(new String[] { getCertificateType(), null });
+		}
+		List<String> wantedTypes = new ArrayList<>();
+		for (String[] certificate : wanted) {
+			wantedTypes.add(certificate[0]);
+		}
+
+		List<Element> unused = new ArrayList<>(hostConfig.getChildren(ELEMENT_CERTIFICATE));
+		for (String[] certificate : wanted) {
+			Element certificateNode = null;
+			for (Element node : unused) {
+				if (certificate[0].equalsIgnoreCase(node.getAttributeValue(ATTRIBUTE_KEYTYPE))) {
+					certificateNode = node;
+					break;
+				}
+			}
+			if (certificateNode == null) {
+				for (Element node : unused) {
+					String type = node.getAttributeValue(ATTRIBUTE_KEYTYPE);
+					if (type == null || !wantedTypes.contains(type.toUpperCase())) {
+						certificateNode = node;
+						break;
+					}
+				}
+			}
+			if (certificateNode == null) {
+				certificateNode = new Element(ELEMENT_CERTIFICATE);
+				hostConfig.addContent(certificateNode);
+			}
+			unused.remove(certificateNode);
+
+			certificateNode.setAttribute(ATTRIBUTE_KEYTYPE, certificate[0]);
+			if (SSLCertificate.isPEM(config)) {
+				// the files written next to the key store, the key store itself is not used
+				String chainFile = SSLCertificate.getPEMFile(keyStore, certificate[1], SSLCertificate.PEM_CHAIN);
+				certificateNode.setAttribute(ATTRIBUTE_CERTIFICATEFILE,
+						SSLCertificate.getPEMFile(keyStore, certificate[1], SSLCertificate.PEM_CERTIFICATE));
+				certificateNode.setAttribute(ATTRIBUTE_CERTIFICATEKEYFILE,
+						SSLCertificate.getPEMFile(keyStore, certificate[1], SSLCertificate.PEM_KEY));
+				if (Files.exists(Paths.get(config.getProperty(Configuration.CONFIGURATOR_TARGET_DIRECTORY), chainFile))) {
+					certificateNode.setAttribute(ATTRIBUTE_CERTIFICATECHAINFILE, chainFile);
+				} else {
+					certificateNode.removeAttribute(ATTRIBUTE_CERTIFICATECHAINFILE);
+				}
+				certificateNode.removeAttribute(ATTRIBUTE_KEYSTORE);
+				certificateNode.removeAttribute(ATTRIBUTE_KEYPASS);
+				certificateNode.removeAttribute(ATTRIBUTE_KEYALIAS);
+			} else {
+				certificateNode.setAttribute(ATTRIBUTE_KEYSTORE, keyStore);
+				certificateNode.setAttribute(ATTRIBUTE_KEYPASS, "${" + Configuration.CONFIGURATOR_CERTIFICATE_SSL_PASSWORD + "}");
+				if (certificate[1] != null) {
+					certificateNode.setAttribute(ATTRIBUTE_KEYALIAS, certificate[1]);
+				} else {
+					certificateNode.removeAttribute(ATTRIBUTE_KEYALIAS);
+				}
+				certificateNode.removeAttribute(ATTRIBUTE_CERTIFICATEFILE);
+				certificateNode.removeAttribute(ATTRIBUTE_CERTIFICATEKEYFILE);
+				certificateNode.removeAttribute(ATTRIBUTE_CERTIFICATECHAINFILE);
+			}
+		}
+
+		// a second certificate from an earlier dual run would point at a missing alias
+		String pemBase = SSLCertificate.getPEMFile(keyStore, null, "");
+		for (Element node : unused) {
+			String certificateFile = node.getAttributeValue(ATTRIBUTE_CERTIFICATEFILE);
+			if (keyStore.equals(node.getAttributeValue(ATTRIBUTE_KEYSTORE))
+					|| (certificateFile != null
+							&& (certificateFile.startsWith(pemBase + ".") || certificateFile.startsWith(pemBase + "-")))) {
+				node.detach();
+			}
+		}
+	}
+
+	/**
+	 * Tomcat only knows the key types RSA, DSA and EC. Anything else, such as
+	 * Ed25519, has to be declared UNDEFINED and is then used for every cipher
+	 * suite.
+	 *
+	 * @return value for the Certificate type attribute
+	 */
+	private String getCertificateType() {
+		String algorithm = config.getProperty(Configuration.CONFIGURATOR_CERTIFICATE_SSL_ALGORITHM).trim();
+		if (algorithm.equalsIgnoreCase("RSA") || algorithm.equalsIgnoreCase("DSA") || algorithm.equalsIgnoreCase("EC")) {
+			return algorithm.toUpperCase();
+		} else if (algorithm.equalsIgnoreCase("Ed25519")) {
+			return "UNDEFINED";
+		}
+		throw new RuntimeException("Unsupported certificate algorithm " + algorithm);
+	}
+
 	/**
 	 * This returns the target directory and name of the server config file
 	 *
@@ -8,11 +8,32 @@
 package org.northcastle.tools.tomcat;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipFile;
 
 import org.apache.commons.io.FileUtils;
+import org.northcastle.util.ExtractionJournal;
+import org.northcastle.util.ExtractionProgress;
+import org.northcastle.util.ImageCache;
+import org.northcastle.util.PathFilter;
+import org.northcastle.util.TARFileUtil;
+import org.northcastle.util.TreeVerifier;
 import org.northcastle.util.ZIPFileUtil;
 
 import lombok.extern.slf4j.Slf4j;
@@ -27,7 +48,13 @@ public class Tomcat extends Configurator {
 	public static void main(String[] args) {
 		try {
 			Tomcat t = new Tomcat();
-			t.install();
+			if (Boolean.parseBoolean(t.config.getProperty(Configuration.CONFIGURATOR_TOMCAT_VERIFY))) {
+				if (!t.verify().isClean()) {
+					System.exit(1);
+				}
+			} else {
+				t.install();
+			}
 		} catch (Exception e) {
 			// TODO Auto-generated catch block
 			e.printStackTrace();
@@ -35,6 +62,18 @@ public class Tomcat extends Configurator {
 
 	}
 
+	// directories that Tomcat and deployments write to. These always get real copies
+	// when installing from the image cache
+	private static final Set<String> MUTABLE_DIRECTORIES = Set.of("conf", "logs", "work", "temp", "webapps");
+
+	// directories that make up a CATALINA_BASE, and the ones seeded from CATALINA_HOME
+	private static final List<String> BASE_DIRECTORIES = List.of("conf", "logs", "work", "temp", "webapps");
+	private static final Set<String> COPIED_BASE_DIRECTORIES = Set.of("conf", "webapps");
+
+	// where catalina.jar keeps the version Tomcat reports about itself
+	private static final String SERVER_INFO = "org/apache/catalina/util/ServerInfo.properties";
+	private static final Pattern VERSION_PATTERN = Pattern.compile("\\d+\\.\\d+\\.\\d+(-M\\d+)?");
+
 	private Path targetDir;
 
 	/**
@@ -61,7 +100,7 @@ public class Tomcat extends Configurator {
 	}
 
 	/**
-	 * Install tomcat from the configured source zip file.
+	 * Install tomcat from the configured source zip or tar file.
 	 *
 	 * @return absolute installation directory
 	 * @throws IOException
@@ -76,6 +115,12 @@ public class Tomcat extends Configurator {
 		Path installSource = Paths.get(config.getProperty(Configuration.CONFIGURATOR_TOMCAT_IMAGE_DIRECTORY),
 				config.getProperty(Configuration.CONFIGURATOR_TOMCAT_IMAGE_ZIP_FILE));
 
+		// how much the unpacking reports, a summary line per image by default
+		if (config.containsKey(Configuration.CONFIGURATOR_TOMCAT_IMAGE_PROGRESS)) {
+			ExtractionProgress.setLevel(ExtractionProgress.Level
+					.valueOf(config.getProperty(Configuration.CONFIGURATOR_TOMCAT_IMAGE_PROGRESS).trim().toUpperCase()));
+		}
+
 		// overwrite default is true
 		boolean overwrite = true;
 
@@ -84,17 +129,368 @@ public class Tomcat extends Configurator {
 				? Integer.parseInt(config.getProperty(Configuration.CONFIGURATOR_TOMCAT_IMAGE_ZIP_STRIPDIRECTORIES))
 				: 0);
 
-		// call ZIP to unpack
-		ZIPFileUtil.expandZIPFile(installSource, targetDir, overwrite, stripdir);
+		Path homeDir = getHomePath();
+		if (homeDir != null) {
+			// split install: one shared CATALINA_HOME per image, a thin CATALINA_BASE in
+			// the target directory
+			ImageCache.getImage(homeDir, stagingDir -> {
+				// copied rather than linked from the image cache, so the cache keeps its file modes
+				populate(installSource, stagingDir, overwrite, stripdir, false);
+				setReadOnly(stagingDir);
+			});
+			journal(installSource, targetDir, baseDir -> createBase(homeDir));
+			log.info("CATALINA_HOME is " + getHomeDirectory() + ", CATALINA_BASE is " + getInstallDirectory());
+		} else {
+			populate(installSource, targetDir, overwrite, stripdir, true);
+		}
 
 		return getInstallDirectory();
 		 
 	}
 
+	/**
+	 * This returns the shared CATALINA_HOME directory when a split install is
+	 * configured
+	 *
+	 * @return absolute CATALINA_HOME directory, or null if not a split install
+	 */
+	public String getHomeDirectory() {
+		Path homeDir = getHomePath();
+		return homeDir == null ? null : homeDir.toAbsolutePath().toString();
+	}
+
+	/**
+	 * Look for the Tomcat Native library, which the OpenSSL implementation of
+	 * the TLS connector needs. Windows images ship it in bin. Elsewhere it is
+	 * built from bin/tomcat-native.tar.gz and installed into bin or lib.
+	 *
+	 * @return location of the library, or null if the installed image does not
+	 *         have one
+	 * @throws IOException
+	 */
+	public Path getNativeLibrary() throws IOException {
+		Path homeDir = getHomePath();
+		Path imageDir = (homeDir != null ? homeDir : targetDir);
+		for (String directory : List.of("bin", "lib")) {
+			Path libraryDir = imageDir.resolve(directory);
+			if (!Files.isDirectory(libraryDir)) {
+				continue;
+			}
+			try (DirectoryStream<Path> libraries = Files.newDirectoryStream(libraryDir,
+					"{tcnative-*.dll,libtcnative-*.so*,libtcnative-*.dylib}")) {
+				for (Path library : libraries) {
+					return library;
+				}
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Find the version of the installed image. It is read from the server
+	 * information in lib/catalina.jar, then from the RELEASE-NOTES, and last from
+	 * the name of the image file.
+	 *
+	 * @return version such as 10.1.28, or null if it cannot be found
+	 * @throws IOException
+	 */
+	public String getVersion() throws IOException {
+		Path homeDir = getHomePath();
+		Path imageDir = (homeDir != null ? homeDir : targetDir);
+
+		Path catalinaJar = imageDir.resolve("lib").resolve("catalina.jar");
+		if (Files.isRegularFile(catalinaJar)) {
+			try (ZipFile jar = new ZipFile(catalinaJar.toFile())) {
+				ZipEntry entry = jar.getEntry(SERVER_INFO);
+				if (entry != null) {
+					Properties serverInfo = new Properties();
+					try (InputStream input = jar.getInputStream(entry)) {
+						serverInfo.load(input);
+					}
+					String version = findVersion(serverInfo.getProperty("server.info"));
+					if (version != null) {
+						return version;
+					}
+				}
+			} catch (ZipException e) {
+				log.warn("Cannot read " + catalinaJar + ", looking for the version elsewhere");
+			}
+		}
+
+		Path releaseNotes = imageDir.resolve("RELEASE-NOTES");
+		if (Files.isRegularFile(releaseNotes)) {
+			try (Stream<String> lines = Files.lines(releaseNotes, StandardCharsets.ISO_8859_1)) {
+				String version = lines.filter(line -> line.contains("Apache Tomcat Version")).map(Tomcat::findVersion)
+						.filter(found -> found != null).findFirst().orElse(null);
+				if (version != null) {
+					return version;
+				}
+			}
+		}
+
+		if (config.containsKey(Configuration.CONFIGURATOR_TOMCAT_IMAGE_ZIP_FILE)) {
+			return findVersion(config.getProperty(Configuration.CONFIGURATOR_TOMCAT_IMAGE_ZIP_FILE));
+		}
+		return null;
+	}
+
+	/**
+	 * Find the Java version Tomcat will run on. It is taken from the
+	 * configuration if set, then from the release file of JRE_HOME or JAVA_HOME,
+	 * in the order the startup scripts use them, and last from the Java running
+	 * the configurator.
+	 *
+	 * @return feature version, such as 21
+	 * @throws IOException
+	 */
+	public int getJavaVersion() throws IOException {
+		if (config.containsKey(Configuration.CONFIGURATOR_TOMCAT_JAVA_VERSION)) {
+			return Integer.parseInt(config.getProperty(Configuration.CONFIGURATOR_TOMCAT_JAVA_VERSION).trim());
+		}
+
+		for (String variable : List.of("JRE_HOME", "JAVA_HOME")) {
+			String javaHome = System.getenv(variable);
+			if (javaHome == null || javaHome.isBlank()) {
+				continue;
+			}
+			Path release = Paths.get(javaHome, "release");
+			if (Files.isRegularFile(release)) {
+				Properties releaseInfo = new Properties();
+				try (InputStream input = Files.newInputStream(release)) {
+					releaseInfo.load(input);
+				}
+				String version = releaseInfo.getProperty("JAVA_VERSION");
+				if (version != null) {
+					// 1.8.0_402 for Java 8 and older, 21.0.2 from Java 9 on
+					String[] numbers = version.replace("\"", "").split("[._]");
+					return Integer.parseInt(numbers[0].equals("1") && numbers.length > 1 ? numbers[1] : numbers[0]);
+				}
+			}
+		}
+		return Runtime.version().feature();
+	}
+
+	/**
+	 * Compare a Tomcat version against a minimum, number by number. Milestone
+	 * suffixes such as -M1 are ignored.
+	 *
+	 * @param version version to check, may be null
+	 * @param minimum lowest version accepted
+	 * @return true if the version is known and not lower than the minimum
+	 */
+	public static boolean isVersionAtLeast(String version, String minimum) {
+		if (version == null) {
+			return false;
+		}
+		String[] have = version.replaceFirst("-.*$", "").split("\\.");
+		String[] want = minimum.split("\\.");
+		for (int i = 0; i < Math.max(have.length, want.length); i++) {
+			int haveNumber = i < have.length ? Integer.parseInt(have[i]) : 0;
+			int wantNumber = i < want.length ? Integer.parseInt(want[i]) : 0;
+			if (haveNumber != wantNumber) {
+				return haveNumber > wantNumber;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @param text text that may hold a version, such as Apache Tomcat/10.1.28
+	 * @return the first version in the text, or null if there is none
+	 */
+	private static String findVersion(String text) {
+		if (text == null) {
+			return null;
+		}
+		Matcher matcher = VERSION_PATTERN.matcher(text);
+		return matcher.find() ? matcher.group() : null;
+	}
+
+	/**
+	 * The shared CATALINA_HOME for the configured image is named after the image
+	 * file, so each Tomcat version gets its own.
+	 *
+	 * @return CATALINA_HOME location, or null if not a split install
+	 */
+	private Path getHomePath() {
+		if (!config.containsKey(Configuration.CONFIGURATOR_TOMCAT_HOME_DIRECTORY)
+				|| !config.containsKey(Configuration.CONFIGURATOR_TOMCAT_IMAGE_ZIP_FILE)) {
+			return null;
+		}
+		String imageName = Paths.get(config.getProperty(Configuration.CONFIGURATOR_TOMCAT_IMAGE_ZIP_FILE)).getFileName()
+				.toString().replaceFirst("\\.(zip|tar|tar\\.gz|tgz|tar\\.xz|txz)$", "");
+		return Paths.get(config.getProperty(Configuration.CONFIGURATOR_TOMCAT_HOME_DIRECTORY), imageName);
+	}
+
+	/**
+	 * Lay out the CATALINA_BASE in the target directory. The configuration and
+	 * web applications are copied from CATALINA_HOME, and the run time
+	 * directories are created empty.
+	 *
+	 * @param homeDir CATALINA_HOME directory
+	 * @throws IOException
+	 */
+	private void createBase(Path homeDir) throws IOException {
+		for (String directory : BASE_DIRECTORIES) {
+			Path source = homeDir.resolve(directory);
+			Path destination = targetDir.resolve(directory);
+			if (COPIED_BASE_DIRECTORIES.contains(directory) && Files.isDirectory(source)) {
+				try (Stream<Path> tree = Files.walk(source)) {
+					for (Path next : (Iterable<Path>) tree::iterator) {
+						Path copy = destination.resolve(source.relativize(next).toString());
+						if (Files.isDirectory(next)) {
+							Files.createDirectories(copy);
+						} else {
+							// copies inherit the read-only mode of CATALINA_HOME
+							Files.copy(next, copy, StandardCopyOption.REPLACE_EXISTING);
+							copy.toFile().setWritable(true);
+						}
+					}
+				}
+			} else {
+				Files.createDirectories(destination);
+			}
+		}
+	}
+
+	/**
+	 * Populate a directory from the installation image, through the image cache
+	 * if one is configured
+	 *
+	 * @param installSource location of the ZIP file
+	 * @param destination   directory to populate
+	 * @param overwrite     replace files that already exist
+	 * @param stripdir      number of leading directories to remove
+	 * @param link          hard link files from the image cache where possible,
+	 *                      otherwise copy them
+	 * @throws IOException
+	 */
+	private void populate(Path installSource, Path destination, boolean overwrite, int stripdir, boolean link)
+			throws IOException {
+		if (config.containsKey(Configuration.CONFIGURATOR_TOMCAT_IMAGE_CACHE_DIRECTORY)) {
+			// expand into the shared cache once, then link the image into place
+			Path cacheDir = Paths.get(config.getProperty(Configuration.CONFIGURATOR_TOMCAT_IMAGE_CACHE_DIRECTORY));
+			Path imageDir = ImageCache.getImage(cacheDir, installSource, stripdir, getImageFilter(),
+					stagingDir -> expandImage(installSource, stagingDir, overwrite, stripdir));
+			journal(installSource, destination,
+					linkDir -> ImageCache.materialize(imageDir, linkDir, MUTABLE_DIRECTORIES, link));
+		} else {
+			expandImage(installSource, destination, overwrite, stripdir);
+		}
+	}
+
+	/**
+	 * Mark every file under a directory read-only. Directories are left alone so
+	 * the tree can still be removed.
+	 *
+	 * @param directory root of the tree
+	 * @throws IOException
+	 */
+	private void setReadOnly(Path directory) throws IOException {
+		try (Stream<Path> tree = Files.walk(directory)) {
+			tree.filter(Files::isRegularFile).forEach(file -> file.toFile().setWritable(false, false));
+		}
+	}
+
+	/**
+	 * Unpack the installation image. Tar images go through the pipelined tar
+	 * engine. For ZIP images, when an expected SHA-512 is configured the image is
+	 * verified while it is unpacked, which needs a single sequential pass.
+	 * Otherwise it is unpacked in parallel if a worker count is configured, and
+	 * only writing changed files if incremental mode is configured, and with a
+	 * journal that lets an interrupted run resume if journaling is configured.
+	 * The other ways of unpacking cannot resume, but still leave a journal that
+	 * is only marked complete once they finish.
+	 *
+	 * @param installSource location of the image file
+	 * @param destination   directory to unpack into
+	 * @param overwrite     replace files that already exist
+	 * @param stripdir      number of leading directories to remove
+	 * @throws IOException
+	 */
+	private void expandImage(Path installSource, Path destination, boolean overwrite, int stripdir)
+			throws IOException {
+		PathFilter filter = getImageFilter();
+		boolean verify = config.containsKey(Configuration.CONFIGURATOR_TOMCAT_IMAGE_ZIP_SHA512);
+		boolean incremental = Boolean
+				.parseBoolean(config.getProperty(Configuration.CONFIGURATOR_TOMCAT_IMAGE_ZIP_INCREMENTAL));
+		int threads = (config.containsKey(Configuration.CONFIGURATOR_TOMCAT_IMAGE_ZIP_THREADS)
+				? Integer.parseInt(config.getProperty(Configuration.CONFIGURATOR_TOMCAT_IMAGE_ZIP_THREADS))
+				: 1);
+		if (isJournaled() && !verify && !incremental && !TARFileUtil.isTARFile(installSource)) {
+			// the ZIP engine keeps the journal itself and resumes from it
+			ZIPFileUtil.expandZIPFile(installSource, destination, overwrite, stripdir, threads, filter, true);
+			return;
+		}
+
+		journal(installSource, destination, imageDir -> {
+			if (TARFileUtil.isTARFile(installSource)) {
+				TARFileUtil.expandTARFile(installSource, imageDir, overwrite, stripdir, verify ? "SHA-512" : null,
+						config.getProperty(Configuration.CONFIGURATOR_TOMCAT_IMAGE_ZIP_SHA512), filter);
+			} else if (verify) {
+				ZIPFileUtil.expandZIPFile(installSource, imageDir, overwrite, stripdir, "SHA-512",
+						config.getProperty(Configuration.CONFIGURATOR_TOMCAT_IMAGE_ZIP_SHA512), filter);
+			} else if (incremental) {
+				boolean delete = Boolean
+						.parseBoolean(config.getProperty(Configuration.CONFIGURATOR_TOMCAT_IMAGE_ZIP_INCREMENTAL_DELETE));
+				ZIPFileUtil.expandZIPFileIncremental(installSource, imageDir, stripdir, delete, threads, filter);
+			} else if (config.containsKey(Configuration.CONFIGURATOR_TOMCAT_IMAGE_ZIP_THREADS)) {
+				ZIPFileUtil.expandZIPFile(installSource, imageDir, overwrite, stripdir, threads, filter);
+			} else {
+				ZIPFileUtil.expandZIPFile(installSource, imageDir, overwrite, stripdir, filter);
+			}
+		});
+	}
+
+	/**
+	 * Run an install step under an extraction journal when journaling is
+	 * configured. The journal is opened before the step and only marked complete
+	 * once it finishes, so {@link #isInstalled()} does not report a target that
+	 * was left part way through.
+	 *
+	 * @param installSource location of the image file
+	 * @param destination   directory the step fills
+	 * @param step          install step
+	 * @throws IOException
+	 */
+	private void journal(Path installSource, Path destination, ImageCache.Expander step) throws IOException {
+		if (!isJournaled()) {
+			step.expand(destination);
+			return;
+		}
+		Files.createDirectories(destination);
+		try (ExtractionJournal journal = ExtractionJournal.open(destination, installSource)) {
+			step.expand(destination);
+			journal.complete();
+		}
+	}
+
+	/**
+	 * @return true if installs are journaled
+	 */
+	private boolean isJournaled() {
+		return Boolean.parseBoolean(config.getProperty(Configuration.CONFIGURATOR_TOMCAT_IMAGE_ZIP_JOURNAL));
+	}
+
+	/**
+	 * Build the filter for the image entries from the configured include and
+	 * exclude patterns
+	 *
+	 * @return image entry filter
+	 */
+	private PathFilter getImageFilter() {
+		return PathFilter.fromPatterns(config.getProperty(Configuration.CONFIGURATOR_TOMCAT_IMAGE_INCLUDE),
+				config.getProperty(Configuration.CONFIGURATOR_TOMCAT_IMAGE_EXCLUDE));
+	}
+
 	/**
 	 * Check the target directory to see if Tomcat is installed there. It looks for
 	 * the conf directory, then the server.xml and the catalina.properties files.
-	 * All three must exist.
+	 * All three must exist. For a split install the target directory is the
+	 * CATALINA_BASE, and the shared CATALINA_HOME must also be present. A target
+	 * holding an extraction journal that was never marked complete is not
+	 * installed, whatever files it already has. When journaling is configured the
+	 * target must hold a journal that was marked complete.
 	 *
 	 * @return true if installed
 	 */
@@ -108,10 +504,122 @@ public class Tomcat extends Configurator {
 				&& Files.exists(Paths.get(getInstallDirectory(),
 						config.getProperty(Configuration.CONFIGURATOR_TOMCAT_FILE_CATALINAPROPERTIES)));
 
+		// a split install also needs its CATALINA_HOME
+		Path homeDir = getHomePath();
+		if (installed && homeDir != null) {
+			installed = Files.isDirectory(homeDir.resolve("lib"));
+		}
+
+		// an interrupted journaled expansion leaves a journal without its end marker
+		if (installed) {
+			Path installDir = Paths.get(getInstallDirectory());
+			try {
+				installed = !ExtractionJournal.isIncomplete(installDir)
+						&& (!isJournaled() || Files.exists(installDir.resolve(ExtractionJournal.JOURNAL_FILE)));
+			} catch (IOException e) {
+				log.warn("Cannot read the extraction journal in " + getInstallDirectory(), e);
+				installed = false;
+			}
+		}
+
 		return installed;
 
 	}
 
+	/**
+	 * Check the installed files against the image they came from. Every expected
+	 * file is checked for its size and CRC-32 on one worker thread per processor.
+	 * The expected files come from the manifest kept by incremental installs if
+	 * there is one, otherwise from the central directory of the ZIP image. Files
+	 * under logs, work and temp are never reported as extra, and the files the
+	 * configurator itself writes are left out of the report. For a split install
+	 * only the shared CATALINA_HOME is checked, the CATALINA_BASE is not.
+	 *
+	 * @return verification report
+	 * @throws IOException
+	 */
+	public TreeVerifier.Report verify() throws IOException {
+		Path homeDir = getHomePath();
+		Path installDir = homeDir != null ? homeDir : targetDir;
+		Path manifestFile = installDir.resolve(ZIPFileUtil.MANIFEST_FILE);
+
+		Map<String, TreeVerifier.Expected> expected;
+		if (Files.exists(manifestFile)) {
+			expected = TreeVerifier.fromManifest(manifestFile);
+		} else {
+			if (!config.containsKey(Configuration.CONFIGURATOR_TOMCAT_IMAGE_DIRECTORY)
+					|| !config.containsKey(Configuration.CONFIGURATOR_TOMCAT_IMAGE_ZIP_FILE)) {
+				throw new RuntimeException("Tomcat cannot be verified without a manifest or an installation image.");
+			}
+			Path installSource = Paths.get(config.getProperty(Configuration.CONFIGURATOR_TOMCAT_IMAGE_DIRECTORY),
+					config.getProperty(Configuration.CONFIGURATOR_TOMCAT_IMAGE_ZIP_FILE));
+			if (TARFileUtil.isTARFile(installSource)) {
+				throw new RuntimeException("Tomcat cannot be verified against a tar image, it has no checksums.");
+			}
+			int stripdir = (config.containsKey(Configuration.CONFIGURATOR_TOMCAT_IMAGE_ZIP_STRIPDIRECTORIES)
+					? Integer.parseInt(config.getProperty(Configuration.CONFIGURATOR_TOMCAT_IMAGE_ZIP_STRIPDIRECTORIES))
+					: 0);
+			expected = TreeVerifier.fromZIPFile(installSource, stripdir, getImageFilter());
+		}
+
+		// the files the configurator writes are expected to differ from the image
+		List<String> managedFiles = getManagedFiles();
+		PathFilter managed = new PathFilter(List.of(), managedFiles);
+		expected.keySet().removeIf(file -> !managed.accept(Paths.get(file)));
+		List<String> unscoped = new ArrayList<>(List.of("logs", "work", "temp"));
+		unscoped.addAll(managedFiles);
+
+		TreeVerifier.Report report = TreeVerifier.verify(installDir, expected, 0, new PathFilter(List.of(), unscoped));
+
+		log.info("Verified " + installDir.toAbsolutePath() + ": " + report);
+		for (String file : report.getMissing()) {
+			log.warn("MISSING: " + file);
+		}
+		for (String file : report.getModified()) {
+			log.warn("MODIFIED: " + file);
+		}
+		for (String file : report.getExtra()) {
+			log.warn("EXTRA: " + file);
+		}
+		return report;
+	}
+
+	/**
+	 * List the files under the target directory that the configurator writes:
+	 * server.xml and its working copies, catalina.properties, and the key
+	 * stores with the PEM files written next to them.
+	 *
+	 * @return glob patterns relative to the target directory
+	 */
+	private List<String> getManagedFiles() {
+		String serverXml = config.getProperty(Configuration.CONFIGURATOR_TOMCAT_FILE_SERVERXML).trim();
+		List<String> managed = new ArrayList<>(List.of(serverXml, serverXml + ".backup", serverXml + ".edit",
+				config.getProperty(Configuration.CONFIGURATOR_TOMCAT_FILE_CATALINAPROPERTIES).trim()));
+
+		List<String> keyStores = new ArrayList<>();
+		if (config.containsKey(Configuration.CONFIGURATOR_CERTIFICATE_SSL_KEYSTORE)) {
+			keyStores.add(config.getProperty(Configuration.CONFIGURATOR_CERTIFICATE_SSL_KEYSTORE).trim());
+		}
+		keyStores.addAll(SSLCertificate.getHostKeyStores(config).values());
+		for (String keyStore : keyStores) {
+			// matches the key store and every PEM file named after it
+			managed.add(SSLCertificate.getPEMFile("conf/" + keyStore, null, "*"));
+		}
+
+		// stores kept outside conf only count when they are inside the target directory
+		Path baseDir = targetDir.toAbsolutePath().normalize();
+		for (String key : List.of(Configuration.CONFIGURATOR_CERTIFICATE_SSL_CA_KEYSTORE,
+				Configuration.CONFIGURATOR_CERTIFICATE_SSL_KEYPOOL_STORE)) {
+			if (config.containsKey(key)) {
+				Path store = Paths.get(config.getProperty(key).trim()).toAbsolutePath().normalize();
+				if (store.startsWith(baseDir)) {
+					managed.add(baseDir.relativize(store).toString().replace('\\', '/'));
+				}
+			}
+		}
+		return managed;
+	}
+
 	/**
 	 * Delete anything that is previously installed at the target location
 	 *
@@ -0,0 +1,176 @@
+/**
+ * ExtractionJournal
+ *
+ * Version v1.0
+ *
+ * Copyright (c) Rob Richter
+ */
+package org.northcastle.util;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Append-only journal of the entries an expansion has finished writing. It is
+ * kept in the target directory, so that an expansion that dies part way
+ * through can be resumed from the last entry that reached the disk, and so
+ * that a half expanded target can be recognized.
+ *
+ * Each entry is only recorded after its file has been forced to disk. The
+ * journal itself is forced every few entries, so a crash loses at most the
+ * last few records and those entries are simply expanded again.
+ */
+public class ExtractionJournal implements Closeable {
+
+	/**
+	 * Name of the journal file written into the target directory
+	 */
+	public static final String JOURNAL_FILE = ".zipjournal";
+
+	// records written between forcing the journal to disk
+	private static final int SYNC_INTERVAL = 64;
+
+	private static final String BEGIN = "BEGIN";
+	private static final String ENTRY = "ENTRY";
+	private static final String COMPLETE = "COMPLETE";
+	private static final String SEPARATOR = "\t";
+
+	/**
+	 * Open the journal for an expansion. If the target holds an unfinished
+	 * journal for the same archive, its entries are kept so the expansion can
+	 * resume. Otherwise a new journal is started.
+	 *
+	 * @param targetDir  target directory of the expansion
+	 * @param sourceFile archive being expanded
+	 * @return open journal
+	 * @throws IOException
+	 */
+	public static ExtractionJournal open(Path targetDir, Path sourceFile) throws IOException {
+		Path journalFile = targetDir.resolve(JOURNAL_FILE);
+		String begin = String.join(SEPARATOR, BEGIN, sourceFile.getFileName().toString(),
+				Long.toString(Files.size(sourceFile)), Long.toString(Files.getLastModifiedTime(sourceFile).toMillis()));
+
+		Map<String, String> done = new HashMap<>();
+		boolean resume = false;
+		if (Files.exists(journalFile)) {
+			List<String> lines = Files.readAllLines(journalFile, StandardCharsets.UTF_8);
+			resume = !lines.isEmpty() && lines.get(0).equals(begin) && !lines.contains(COMPLETE);
+			if (resume) {
+				for (String line : lines) {
+					// a torn last line from a crash does not split into four fields and is ignored
+					String[] fields = line.split(SEPARATOR, 4);
+					if (fields.length == 4 && fields[0].equals(ENTRY)) {
+						done.put(fields[3], fields[1] + SEPARATOR + fields[2]);
+					}
+				}
+			}
+		}
+
+		FileChannel channel;
+		if (resume) {
+			channel = FileChannel.open(journalFile, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+		} else {
+			channel = FileChannel.open(journalFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+					StandardOpenOption.TRUNCATE_EXISTING);
+		}
+		ExtractionJournal journal = new ExtractionJournal(channel, done);
+		if (!resume) {
+			journal.append(begin);
+			journal.sync();
+		}
+		return journal;
+	}
+
+	/**
+	 * Check whether a target directory was left part way through an expansion
+	 *
+	 * @param targetDir target directory to check
+	 * @return true if there is a journal and it was never marked complete
+	 * @throws IOException
+	 */
+	public static boolean isIncomplete(Path targetDir) throws IOException {
+		Path journalFile = targetDir.resolve(JOURNAL_FILE);
+		return Files.exists(journalFile) && !Files.readAllLines(journalFile, StandardCharsets.UTF_8).contains(COMPLETE);
+	}
+
+	private final FileChannel channel;
+	private final BufferedWriter writer;
+	private final Map<String, String> done;
+	private int unsynced = 0;
+
+	private ExtractionJournal(FileChannel channel, Map<String, String> done) {
+		this.channel = channel;
+		this.writer = new BufferedWriter(Channels.newWriter(channel, StandardCharsets.UTF_8));
+		this.done = done;
+	}
+
+	/**
+	 * @return number of entries recovered from an earlier, unfinished run
+	 */
+	public int getResumedCount() {
+		return done.size();
+	}
+
+	/**
+	 * Check whether an earlier run of this expansion already finished an entry
+	 *
+	 * @param key  entry path relative to the target directory
+	 * @param crc  CRC-32 of the entry
+	 * @param size uncompressed size of the entry
+	 * @return true if the entry was recorded with the same CRC-32 and size
+	 */
+	public boolean isDone(String key, long crc, long size) {
+		return (Long.toHexString(crc) + SEPARATOR + size).equals(done.get(key));
+	}
+
+	/**
+	 * Record a finished entry. The entry file must already be on disk.
+	 *
+	 * @param key  entry path relative to the target directory
+	 * @param crc  CRC-32 of the entry
+	 * @param size uncompressed size of the entry
+	 * @throws IOException
+	 */
+	public synchronized void completed(String key, long crc, long size) throws IOException {
+		append(String.join(SEPARATOR, ENTRY, Long.toHexString(crc), Long.toString(size), key));
+		if (++unsynced >= SYNC_INTERVAL) {
+			sync();
+		}
+	}
+
+	/**
+	 * Mark the expansion complete
+	 *
+	 * @throws IOException
+	 */
+	public synchronized void complete() throws IOException {
+		append(COMPLETE);
+		sync();
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		writer.close();
+	}
+
+	private void append(String line) throws IOException {
+		writer.write(line);
+		writer.newLine();
+	}
+
+	private void sync() throws IOException {
+		writer.flush();
+		channel.force(false);
+		unsynced = 0;
+	}
+}
@@ -0,0 +1,148 @@
+/**
+ * ExtractionProgress
+ *
+ * Version v1.0
+ *
+ * Copyright (c) Rob Richter
+ */
+package org.northcastle.util;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Progress reporting for archive expansion. Counts are kept for every run and
+ * logged as a single summary line. Per-entry lines are only produced at the
+ * ENTRIES level, and are collected and logged in blocks rather than one at a
+ * time. This class is safe to use from several worker threads.
+ */
+@Slf4j
+public class ExtractionProgress {
+
+	/**
+	 * How much is reported
+	 */
+	public enum Level {
+		/** nothing at all */
+		QUIET,
+		/** one summary line per archive */
+		SUMMARY,
+		/** the summary, plus a line for every entry */
+		ENTRIES
+	}
+
+	// number of entry lines collected before they are logged
+	private static final int LINES_PER_BLOCK = 256;
+
+	private static volatile Level level = Level.SUMMARY;
+
+	/**
+	 * Set the reporting level for all expansions
+	 *
+	 * @param newLevel reporting level
+	 */
+	public static void setLevel(Level newLevel) {
+		level = newLevel;
+	}
+
+	/**
+	 * @return the current reporting level
+	 */
+	public static Level getLevel() {
+		return level;
+	}
+
+	private final Object source;
+	private final long startTime = System.nanoTime();
+
+	private final AtomicLong files = new AtomicLong();
+	private final AtomicLong directories = new AtomicLong();
+	private final AtomicLong skipped = new AtomicLong();
+	private final AtomicLong bytes = new AtomicLong();
+
+	private final StringBuilder block = new StringBuilder();
+	private int blockLines = 0;
+
+	/**
+	 * Start reporting on an expansion
+	 *
+	 * @param source archive being expanded, used in the summary
+	 */
+	public ExtractionProgress(Object source) {
+		this.source = source;
+	}
+
+	/**
+	 * A directory was created
+	 */
+	public void directory(Object directory) {
+		directories.incrementAndGet();
+		entry("MKDIR", directory);
+	}
+
+	/**
+	 * A file was written
+	 *
+	 * @param file file that was written
+	 * @param size number of bytes written
+	 */
+	public void file(Object file, long size) {
+		files.incrementAndGet();
+		bytes.addAndGet(size);
+		entry("EXPANDING", file);
+	}
+
+	/**
+	 * An entry was not written
+	 */
+	public void skipped(Object entry) {
+		skipped.incrementAndGet();
+		entry("SKIPPING", entry);
+	}
+
+	/**
+	 * Report any other action on an entry. Only reported at the ENTRIES level.
+	 *
+	 * @param action short upper case description of the action
+	 * @param entry  entry or file it applies to
+	 */
+	public void entry(String action, Object entry) {
+		if (level != Level.ENTRIES) {
+			return;
+		}
+		synchronized (block) {
+			block.append(action).append(": ").append(entry).append(System.lineSeparator());
+			if (++blockLines >= LINES_PER_BLOCK) {
+				flush();
+			}
+		}
+	}
+
+	/**
+	 * Log anything still waiting, and the summary for the whole expansion
+	 */
+	public void finish() {
+		synchronized (block) {
+			flush();
+		}
+		if (level != Level.QUIET) {
+			log.info("Expanded " + source + ": " + files.get() + " files (" + bytes.get() + " bytes), "
+					+ directories.get() + " directories, " + skipped.get() + " skipped in "
+					+ TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime) + " ms");
+		}
+	}
+
+	/**
+	 * Log the collected entry lines. The caller holds the block lock.
+	 */
+	private void flush() {
+		if (blockLines > 0) {
+			block.setLength(block.length() - System.lineSeparator().length());
+			log.info(block.toString());
+			block.setLength(0);
+			blockLines = 0;
+		}
+	}
+}
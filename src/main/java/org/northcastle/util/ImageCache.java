@@ -0,0 +1,196 @@
+/**
+ * ImageCache
+ *
+ * Version v1.0
+ *
+ * Copyright (c) Rob Richter
+ */
+package org.northcastle.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Set;
+import java.util.stream.Stream;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Local cache of expanded installation images. Each image is expanded once
+ * into a directory named after the hash of the archive and the number of
+ * leading directories removed. Installs are then materialized from the cache
+ * by hard linking the files that never change and copying the ones that do.
+ */
+@Slf4j
+public class ImageCache {
+
+	/**
+	 * Callback that expands an archive into the directory it is given
+	 */
+	@FunctionalInterface
+	public interface Expander {
+		void expand(Path targetDir) throws IOException;
+	}
+
+	/**
+	 * Build the cache key for an archive. The key changes whenever the archive
+	 * content, the number of trimmed directories or the entry filter changes.
+	 *
+	 * @param sourceFile       location of the archive
+	 * @param trimPathElements number of leading directories removed on expansion
+	 * @param filter           entry filter used on expansion, may be null
+	 * @return cache key, usable as a directory name
+	 * @throws IOException
+	 */
+	public static String cacheKey(Path sourceFile, int trimPathElements, PathFilter filter) throws IOException {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IOException("SHA-256 is not available", e);
+		}
+
+		byte[] buffer = new byte[64 * 1024];
+		try (InputStream input = Files.newInputStream(sourceFile)) {
+			int len;
+			while ((len = input.read(buffer)) > 0) {
+				digest.update(buffer, 0, len);
+			}
+		}
+
+		String key = ZIPFileUtil.toHex(digest.digest()) + "-strip" + trimPathElements;
+		if (filter != null && !filter.isEmpty()) {
+			key += "-filter" + Integer.toHexString(filter.toString().hashCode());
+		}
+		return key;
+	}
+
+	/**
+	 * Locate an expanded image in the cache, expanding it first if this is the
+	 * first time it has been requested.
+	 *
+	 * @param cacheDir         root directory of the cache
+	 * @param sourceFile       location of the archive
+	 * @param trimPathElements number of leading directories removed on expansion
+	 * @param filter           entry filter used on expansion, may be null
+	 * @param expander         expands the archive into a directory
+	 * @return directory holding the expanded image
+	 * @throws IOException
+	 */
+	public static Path getImage(Path cacheDir, Path sourceFile, int trimPathElements, PathFilter filter,
+			Expander expander) throws IOException {
+		return getImage(cacheDir.resolve(cacheKey(sourceFile, trimPathElements, filter)), expander);
+	}
+
+	/**
+	 * Return an image directory, expanding it first if it does not exist yet. The
+	 * image is expanded into a staging directory beside it and moved into place,
+	 * so that a partial expansion is never seen by another install. The staging
+	 * directory is named after the image and is kept when the expansion fails, so
+	 * a journaled expansion resumes on the next run. A lock file beside it keeps
+	 * concurrent installs of the same image from expanding it twice. The extraction journal is
+	 * removed before the image is published.
+	 *
+	 * @param imageDir directory that will hold the expanded image
+	 * @param expander expands the archive into a directory
+	 * @return directory holding the expanded image
+	 * @throws IOException
+	 */
+	public static Path getImage(Path imageDir, Expander expander) throws IOException {
+		if (Files.isDirectory(imageDir)) {
+			log.info("Using cached image " + imageDir);
+			return imageDir;
+		}
+
+		Path parentDir = imageDir.toAbsolutePath().getParent();
+		Path stagingDir = parentDir.resolve("." + imageDir.getFileName() + ".staging");
+		Files.createDirectories(parentDir);
+
+		// installs of the same image share the staging directory, so only one expands at a time
+		try (FileChannel lockChannel = FileChannel.open(parentDir.resolve("." + imageDir.getFileName() + ".lock"),
+				StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+			FileLock lock = lockChannel.lock();
+			try {
+				if (Files.isDirectory(imageDir)) {
+					log.info("Using cached image " + imageDir);
+					return imageDir;
+				}
+				Files.createDirectories(stagingDir);
+				expander.expand(stagingDir);
+				Files.deleteIfExists(stagingDir.resolve(ExtractionJournal.JOURNAL_FILE));
+				Files.move(stagingDir, imageDir, StandardCopyOption.ATOMIC_MOVE);
+			} finally {
+				lock.release();
+			}
+		}
+
+		return imageDir;
+	}
+
+	/**
+	 * Populate the target directory from an expanded image. Files under the
+	 * mutable top level directories are copied. Everything else is hard linked
+	 * to the cache, falling back to a copy when the file system cannot link
+	 * (for example when the cache is on a different volume). Hard linked files
+	 * share storage with the cache and must not be edited in place.
+	 *
+	 * @param imageDir    directory holding the expanded image
+	 * @param targetDir   target directory where the image will be installed
+	 * @param mutableDirs top level directory names that always get real copies
+	 * @throws IOException
+	 */
+	public static void materialize(Path imageDir, Path targetDir, Set<String> mutableDirs) throws IOException {
+		materialize(imageDir, targetDir, mutableDirs, true);
+	}
+
+	/**
+	 * Populate the target directory from an expanded image, optionally copying
+	 * every file. Copies are needed when the target will have its file modes
+	 * changed, since a hard link shares its mode with the cache.
+	 *
+	 * @param imageDir    directory holding the expanded image
+	 * @param targetDir   target directory where the image will be installed
+	 * @param mutableDirs top level directory names that always get real copies
+	 * @param link        when false, copy every file instead of linking
+	 * @throws IOException
+	 */
+	public static void materialize(Path imageDir, Path targetDir, Set<String> mutableDirs, boolean link)
+			throws IOException {
+		Files.createDirectories(targetDir);
+
+		try (Stream<Path> tree = Files.walk(imageDir)) {
+			for (Path source : (Iterable<Path>) tree::iterator) {
+				Path relative = imageDir.relativize(source);
+				Path target = targetDir.resolve(relative.toString());
+
+				if (Files.isDirectory(source)) {
+					Files.createDirectories(target);
+				} else if (!link
+						|| relative.getNameCount() > 1 && mutableDirs.contains(relative.getName(0).toString())) {
+					Files.copy(source, target, StandardCopyOption.REPLACE_EXISTING);
+				} else {
+					Files.deleteIfExists(target);
+					try {
+						Files.createLink(target, source);
+					} catch (UnsupportedOperationException | FileSystemException e) {
+						Files.copy(source, target);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * This class does not need to be instantiated
+	 */
+	private ImageCache() {
+	}
+}
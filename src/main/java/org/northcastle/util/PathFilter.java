@@ -0,0 +1,115 @@
+/**
+ * PathFilter
+ *
+ * Version v1.0
+ *
+ * Copyright (c) Rob Richter
+ */
+package org.northcastle.util;
+
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Include and exclude filter for relative paths inside an archive, using glob
+ * patterns. A path matches a pattern when the path itself, or any of its
+ * parent directories, matches. So "webapps/docs" excludes that directory and
+ * everything in it.
+ */
+public class PathFilter {
+
+	private final List<String> includes;
+	private final List<String> excludes;
+	private final List<PathMatcher> includeMatchers = new ArrayList<>();
+	private final List<PathMatcher> excludeMatchers = new ArrayList<>();
+
+	/**
+	 * Build a filter from comma separated lists of glob patterns
+	 *
+	 * @param includes patterns a path must match to be accepted, null or empty
+	 *                 to accept everything
+	 * @param excludes patterns that reject a path, null or empty to reject
+	 *                 nothing
+	 * @return new filter
+	 */
+	public static PathFilter fromPatterns(String includes, String excludes) {
+		return new PathFilter(split(includes), split(excludes));
+	}
+
+	/**
+	 * Split a comma separated list, dropping blanks
+	 */
+	private static List<String> split(String patterns) {
+		List<String> result = new ArrayList<>();
+		if (patterns != null) {
+			for (String pattern : patterns.split(",")) {
+				if (!pattern.isBlank()) {
+					result.add(pattern.trim());
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Construct a filter from glob patterns
+	 *
+	 * @param includes patterns a path must match to be accepted, empty to accept
+	 *                 everything
+	 * @param excludes patterns that reject a path, empty to reject nothing
+	 */
+	public PathFilter(List<String> includes, List<String> excludes) {
+		this.includes = List.copyOf(includes);
+		this.excludes = List.copyOf(excludes);
+		for (String pattern : includes) {
+			includeMatchers.add(FileSystems.getDefault().getPathMatcher("glob:" + pattern));
+		}
+		for (String pattern : excludes) {
+			excludeMatchers.add(FileSystems.getDefault().getPathMatcher("glob:" + pattern));
+		}
+	}
+
+	/**
+	 * Check whether a path passes the filter
+	 *
+	 * @param relativePath path relative to the root of the archive, after any
+	 *                     leading directories are removed
+	 * @return true if the path should be expanded
+	 */
+	public boolean accept(Path relativePath) {
+		if (!includeMatchers.isEmpty() && !matches(includeMatchers, relativePath)) {
+			return false;
+		}
+		return !matches(excludeMatchers, relativePath);
+	}
+
+	/**
+	 * @return true if this filter accepts everything
+	 */
+	public boolean isEmpty() {
+		return includes.isEmpty() && excludes.isEmpty();
+	}
+
+	/**
+	 * Check a path and each of its parent directories against the patterns
+	 */
+	private static boolean matches(List<PathMatcher> matchers, Path relativePath) {
+		for (int count = relativePath.getNameCount(); count > 0; count--) {
+			Path candidate = relativePath.subpath(0, count);
+			for (PathMatcher matcher : matchers) {
+				if (matcher.matches(candidate)) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	@Override
+	public String toString() {
+		return "include=" + includes + ";exclude=" + excludes;
+	}
+}
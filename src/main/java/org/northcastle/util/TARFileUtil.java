@@ -0,0 +1,462 @@
+/**
+ * TARFileUtil
+ *
+ * Version v1.0
+ *
+ * Copyright (c) Rob Richter
+ */
+package org.northcastle.util;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermission;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+import org.apache.commons.compress.compressors.gzip.GzipCompressorInputStream;
+import org.apache.commons.compress.compressors.xz.XZCompressorInputStream;
+import org.apache.commons.io.FileUtils;
+
+/**
+ * Unpacks tar, tar.gz and tar.xz archives. Decompression runs on its own
+ * thread and hands blocks to the thread writing files through a bounded
+ * queue, so inflating and disk I/O overlap. Unix permission bits and links
+ * stored in the archive are restored.
+ */
+public class TARFileUtil {
+
+	private static final int CHUNK_SIZE = 64 * 1024;
+
+	// number of decompressed chunks that can be waiting for the writer
+	private static final int PIPELINE_DEPTH = 16;
+
+	private static final ByteBuffer END_OF_STREAM = ByteBuffer.allocate(0);
+
+	private static final byte[] GZIP_MAGIC = { (byte) 0x1f, (byte) 0x8b };
+	private static final byte[] XZ_MAGIC = { (byte) 0xfd, '7', 'z', 'X', 'Z', 0 };
+
+	// permission bits in tar mode order, owner read first
+	private static final PosixFilePermission[] PERMISSION_BITS = { PosixFilePermission.OWNER_READ,
+			PosixFilePermission.OWNER_WRITE, PosixFilePermission.OWNER_EXECUTE, PosixFilePermission.GROUP_READ,
+			PosixFilePermission.GROUP_WRITE, PosixFilePermission.GROUP_EXECUTE, PosixFilePermission.OTHERS_READ,
+			PosixFilePermission.OTHERS_WRITE, PosixFilePermission.OTHERS_EXECUTE };
+
+	/**
+	 * Check whether a file is a tar archive, either from its extension or from
+	 * the gzip or xz magic bytes at the start of the file
+	 *
+	 * @param sourceFile location of the archive
+	 * @return true if the file should be unpacked as a tar archive
+	 * @throws IOException
+	 */
+	public static boolean isTARFile(Path sourceFile) throws IOException {
+		String name = sourceFile.getFileName().toString().toLowerCase();
+		if (name.endsWith(".tar") || name.endsWith(".tar.gz") || name.endsWith(".tgz") || name.endsWith(".tar.xz")
+				|| name.endsWith(".txz")) {
+			return true;
+		}
+		if (!Files.isRegularFile(sourceFile)) {
+			return false;
+		}
+		byte[] header = readHeader(sourceFile);
+		return startsWith(header, GZIP_MAGIC) || startsWith(header, XZ_MAGIC);
+	}
+
+	/**
+	 * Unpack a tar archive, allowing customization of overwrite, optional removal
+	 * of leading directories and filtering of the entries
+	 *
+	 * @param sourceFile       location of the archive
+	 * @param targetDir        target directory where unpack will happen
+	 * @param overwrite        when true, file from the archive will replace files
+	 *                         in the file system
+	 * @param trimPathElements number of leading directories stored in the archive
+	 *                         to remove, 0 to not remove any
+	 * @param filter           entries to expand, null to expand everything
+	 * @throws IOException
+	 */
+	public static void expandTARFile(Path sourceFile, Path targetDir, boolean overwrite, int trimPathElements,
+			PathFilter filter) throws IOException {
+		expandTARFile(sourceFile, targetDir, overwrite, trimPathElements, null, null, filter);
+	}
+
+	/**
+	 * Unpack a tar archive, optionally checking it against an expected digest
+	 * computed on the same bytes that feed decompression. Files are written next
+	 * to their final location and only moved into place, and links created, once
+	 * the whole archive has been read. On any failure everything written is
+	 * removed. Entries outside the target directory are rejected. Symbolic links
+	 * that are absolute or lead outside the target directory, following the
+	 * links created before them, are skipped, as are hard links to files that
+	 * were not expanded.
+	 *
+	 * @param sourceFile       location of the archive
+	 * @param targetDir        target directory where unpack will happen
+	 * @param overwrite        when true, file from the archive will replace files
+	 *                         in the file system
+	 * @param trimPathElements number of leading directories stored in the archive
+	 *                         to remove, 0 to not remove any
+	 * @param digestAlgorithm  message digest algorithm, null to skip verification
+	 * @param expectedDigest   expected digest of the whole archive file, in hex,
+	 *                         or the contents of a published digest file
+	 * @param filter           entries to expand, null to expand everything
+	 * @throws IOException     if the file cannot be expanded or the digest does
+	 *                         not match
+	 */
+	public static void expandTARFile(Path sourceFile, Path targetDir, boolean overwrite, int trimPathElements,
+			String digestAlgorithm, String expectedDigest, PathFilter filter) throws IOException {
+
+		// source file must exist
+		if (!Files.exists(sourceFile)) {
+			throw new IOException("TAR file not found: " + sourceFile);
+		}
+
+		MessageDigest digest = null;
+		String wantedDigest = null;
+		if (digestAlgorithm != null) {
+			try {
+				digest = MessageDigest.getInstance(digestAlgorithm);
+			} catch (NoSuchAlgorithmException e) {
+				throw new IOException("Unsupported digest algorithm " + digestAlgorithm, e);
+			}
+			wantedDigest = ZIPFileUtil.parseDigest(expectedDigest, digest);
+		}
+
+		boolean posix = FileSystems.getDefault().supportedFileAttributeViews().contains("posix");
+
+		// everything needed to roll back, or to finish once the archive is read
+		List<Path> createdDirs = new ArrayList<>();
+		List<Path[]> stagedFiles = new ArrayList<>();
+		List<Path[]> hardLinks = new ArrayList<>();
+		List<Path[]> symbolicLinks = new ArrayList<>();
+		Set<Path> expandedFiles = new HashSet<>();
+		Map<Path, Integer> directoryModes = new LinkedHashMap<>();
+
+		ExtractionProgress progress = new ExtractionProgress(sourceFile);
+		ExecutorService decompressor = Executors.newSingleThreadExecutor();
+		Future<Void> producer = null;
+		try {
+			ZIPFileUtil.createDirectories(targetDir, createdDirs, progress);
+
+			// decompression stage, runs ahead of the writer up to the queue depth. The
+			// chunks circulate between the two stages rather than being reallocated
+			BlockingQueue<ByteBuffer> filled = new ArrayBlockingQueue<>(PIPELINE_DEPTH + 1);
+			BlockingQueue<ByteBuffer> empty = new ArrayBlockingQueue<>(PIPELINE_DEPTH + 2);
+			for (int chunk = 0; chunk < PIPELINE_DEPTH + 2; chunk++) {
+				empty.add(ByteBuffer.wrap(new byte[CHUNK_SIZE]));
+			}
+			MessageDigest sourceDigest = digest;
+			producer = decompressor.submit(() -> {
+				decompress(sourceFile, sourceDigest, empty, filled);
+				return null;
+			});
+
+			// writer stage
+			PipeInputStream pipe = new PipeInputStream(filled, empty, producer);
+			TarArchiveInputStream tarInput = new TarArchiveInputStream(pipe);
+			TarArchiveEntry tarEntry = tarInput.getNextEntry();
+			while (tarEntry != null) {
+				Path nextFile = ZIPFileUtil.resolveEntry(targetDir, tarEntry.getName(), trimPathElements, filter);
+
+				if (nextFile == null) {
+					progress.skipped(tarEntry.getName());
+				} else if (Files.exists(nextFile, LinkOption.NOFOLLOW_LINKS) && !overwrite) {
+					progress.skipped(nextFile);
+				} else if (tarEntry.isDirectory()) {
+					ZIPFileUtil.createDirectories(nextFile, createdDirs, progress);
+					directoryModes.put(nextFile, tarEntry.getMode());
+				} else if (tarEntry.isSymbolicLink()) {
+					// checked when it is created, once the links before it exist
+					ZIPFileUtil.createDirectories(nextFile.getParent(), createdDirs, progress);
+					symbolicLinks.add(new Path[] { nextFile, Paths.get(tarEntry.getLinkName()) });
+				} else if (tarEntry.isLink()) {
+					// the target has to be a file from earlier in the archive, or one already installed
+					Path linkTarget = ZIPFileUtil.resolveEntry(targetDir, tarEntry.getLinkName(), trimPathElements, null);
+					if (linkTarget == null || !expandedFiles.contains(linkTarget)
+							&& !Files.isRegularFile(linkTarget, LinkOption.NOFOLLOW_LINKS)) {
+						progress.skipped(nextFile + " => " + tarEntry.getLinkName());
+					} else {
+						ZIPFileUtil.createDirectories(nextFile.getParent(), createdDirs, progress);
+						hardLinks.add(new Path[] { nextFile, linkTarget });
+						expandedFiles.add(nextFile);
+					}
+				} else if (tarEntry.isFile()) {
+					ZIPFileUtil.createDirectories(nextFile.getParent(), createdDirs, progress);
+					Path stagedFile = nextFile.resolveSibling(nextFile.getFileName() + ".part");
+					stagedFiles.add(new Path[] { stagedFile, nextFile });
+					expandedFiles.add(nextFile);
+					progress.file(nextFile, ZIPFileUtil.writeEntry(tarInput, stagedFile, tarEntry.getSize()));
+					if (posix) {
+						Files.setPosixFilePermissions(stagedFile, toPermissions(tarEntry.getMode()));
+					}
+				} else {
+					progress.skipped(nextFile);
+				}
+				tarEntry = tarInput.getNextEntry();
+			}
+
+			// let the decompressor reach the end of the file so the digest is complete,
+			// then pick up any failure it had
+			pipe.transferTo(OutputStream.nullOutputStream());
+			waitFor(producer);
+
+			if (digest != null) {
+				String actualDigest = ZIPFileUtil.toHex(digest.digest());
+				if (!actualDigest.equalsIgnoreCase(wantedDigest)) {
+					throw new IOException(digestAlgorithm + " mismatch for " + sourceFile + ", expected "
+							+ wantedDigest + " but was " + actualDigest);
+				}
+			}
+
+			// the archive is complete, move everything into place
+			for (Path[] staged : stagedFiles) {
+				Files.move(staged[0], staged[1], StandardCopyOption.REPLACE_EXISTING);
+			}
+			for (Path[] link : hardLinks) {
+				progress.entry("LINKING", link[0]);
+				Files.deleteIfExists(link[0]);
+				Files.createLink(link[0], link[1]);
+			}
+			Path realTargetDir = targetDir.toRealPath();
+			for (Path[] link : symbolicLinks) {
+				// a link leading outside the target would let a later run write through it
+				if (link[1].isAbsolute() || !isInside(realTargetDir, link[0].getParent(), link[1])) {
+					progress.skipped(link[0] + " -> " + link[1]);
+					continue;
+				}
+				progress.entry("SYMLINK", link[0] + " -> " + link[1]);
+				Files.deleteIfExists(link[0]);
+				Files.createSymbolicLink(link[0], link[1]);
+			}
+		} catch (IOException | RuntimeException e) {
+			if (producer != null) {
+				producer.cancel(true);
+			}
+			for (Path[] staged : stagedFiles) {
+				Files.deleteIfExists(staged[0]);
+			}
+			for (Path createdDir : createdDirs) {
+				FileUtils.deleteQuietly(createdDir.toFile());
+			}
+			throw e;
+		} finally {
+			decompressor.shutdownNow();
+		}
+
+		// directory modes last, so a read-only directory does not block its contents
+		if (posix) {
+			for (Map.Entry<Path, Integer> directoryMode : directoryModes.entrySet()) {
+				Files.setPosixFilePermissions(directoryMode.getKey(), toPermissions(directoryMode.getValue()));
+			}
+		}
+		progress.finish();
+	}
+
+	/**
+	 * Follow a symbolic link target the way the file system will, one element at
+	 * a time, resolving the links that already exist on the way
+	 *
+	 * @param realTargetDir real path of the target directory
+	 * @param linkDir       directory holding the link
+	 * @param linkName      target of the link, relative to its directory
+	 * @return true if every step stays inside the target directory
+	 * @throws IOException
+	 */
+	private static boolean isInside(Path realTargetDir, Path linkDir, Path linkName) throws IOException {
+		Path current = linkDir.toRealPath();
+		for (Path element : linkName) {
+			if (element.toString().equals("..")) {
+				current = current.getParent();
+			} else if (!element.toString().equals(".")) {
+				current = current.resolve(element.toString());
+				if (Files.isSymbolicLink(current)) {
+					if (!Files.exists(current)) {
+						return false;
+					}
+					current = current.toRealPath();
+				}
+			}
+			if (current == null || !current.startsWith(realTargetDir)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Decompression stage. Reads the archive file, feeding the digest if there is
+	 * one, and queues the decompressed bytes for the writer.
+	 *
+	 * @param sourceFile location of the archive
+	 * @param digest     digest to update with the raw file bytes, may be null
+	 * @param empty      chunks the writer has finished with
+	 * @param filled     chunks waiting for the writer
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	private static void decompress(Path sourceFile, MessageDigest digest, BlockingQueue<ByteBuffer> empty,
+			BlockingQueue<ByteBuffer> filled) throws IOException, InterruptedException {
+		byte[] header = readHeader(sourceFile);
+
+		try (InputStream fileInput = new BufferedInputStream(Files.newInputStream(sourceFile), CHUNK_SIZE)) {
+			InputStream rawInput = (digest == null ? fileInput : new DigestInputStream(fileInput, digest));
+			InputStream tarStream;
+			if (startsWith(header, GZIP_MAGIC)) {
+				tarStream = new GzipCompressorInputStream(rawInput, true);
+			} else if (startsWith(header, XZ_MAGIC)) {
+				tarStream = new XZCompressorInputStream(rawInput, true);
+			} else {
+				tarStream = rawInput;
+			}
+
+			while (true) {
+				ByteBuffer chunk = empty.take();
+				int len = tarStream.readNBytes(chunk.array(), 0, CHUNK_SIZE);
+				if (len <= 0) {
+					break;
+				}
+				chunk.clear().limit(len);
+				filled.put(chunk);
+			}
+
+			// anything after the compressed data still counts towards the digest
+			rawInput.transferTo(OutputStream.nullOutputStream());
+		}
+		filled.put(END_OF_STREAM);
+	}
+
+	/**
+	 * Wait for the decompression stage, rethrowing its failure as an IOException
+	 *
+	 * @param producer future of the decompression stage
+	 * @throws IOException
+	 */
+	private static void waitFor(Future<Void> producer) throws IOException {
+		try {
+			producer.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Extraction interrupted", e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			throw new IOException("Decompression failed", e.getCause());
+		}
+	}
+
+	/**
+	 * Read the first few bytes of a file, enough to recognize the compression
+	 */
+	private static byte[] readHeader(Path sourceFile) throws IOException {
+		try (InputStream input = Files.newInputStream(sourceFile)) {
+			return input.readNBytes(XZ_MAGIC.length);
+		}
+	}
+
+	private static boolean startsWith(byte[] header, byte[] magic) {
+		return header.length >= magic.length && Arrays.equals(header, 0, magic.length, magic, 0, magic.length);
+	}
+
+	/**
+	 * Convert the permission bits of a tar mode
+	 */
+	private static Set<PosixFilePermission> toPermissions(int mode) {
+		Set<PosixFilePermission> permissions = EnumSet.noneOf(PosixFilePermission.class);
+		for (int bit = 0; bit < PERMISSION_BITS.length; bit++) {
+			if ((mode & (0400 >> bit)) != 0) {
+				permissions.add(PERMISSION_BITS[bit]);
+			}
+		}
+		return permissions;
+	}
+
+	/**
+	 * Writer side of the pipeline. Reads the decompressed chunks from the queue,
+	 * handing each one back once it is used up, and reaches end of stream when
+	 * the decompressor is finished, whether or not it succeeded.
+	 */
+	private static class PipeInputStream extends InputStream {
+
+		private final BlockingQueue<ByteBuffer> filled;
+		private final BlockingQueue<ByteBuffer> empty;
+		private final Future<Void> producer;
+		private ByteBuffer current = END_OF_STREAM;
+		private boolean finished = false;
+
+		PipeInputStream(BlockingQueue<ByteBuffer> filled, BlockingQueue<ByteBuffer> empty, Future<Void> producer) {
+			this.filled = filled;
+			this.empty = empty;
+			this.producer = producer;
+		}
+
+		@Override
+		public int read() throws IOException {
+			byte[] single = new byte[1];
+			return read(single, 0, 1) < 0 ? -1 : single[0] & 0xff;
+		}
+
+		@Override
+		public int read(byte[] buffer, int offset, int length) throws IOException {
+			if (length == 0) {
+				return 0;
+			}
+			while (!current.hasRemaining()) {
+				if (finished) {
+					return -1;
+				}
+				ByteBuffer next;
+				try {
+					next = filled.poll(100, TimeUnit.MILLISECONDS);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new IOException("Extraction interrupted", e);
+				}
+				if (next == END_OF_STREAM || (next == null && producer.isDone() && filled.isEmpty())) {
+					finished = true;
+				} else if (next != null) {
+					if (current != END_OF_STREAM) {
+						empty.offer(current);
+					}
+					current = next;
+				}
+			}
+			int count = Math.min(length, current.remaining());
+			current.get(buffer, offset, count);
+			return count;
+		}
+	}
+
+	/**
+	 * This class is never instantiated
+	 */
+	private TARFileUtil() {
+	}
+}
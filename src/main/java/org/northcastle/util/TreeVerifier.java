@@ -0,0 +1,225 @@
+/**
+ * TreeVerifier
+ *
+ * Version v1.0
+ *
+ * Copyright (c) Rob Richter
+ */
+package org.northcastle.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Check an expanded directory tree against what it was expanded from. The
+ * expected files come from the central directory of the ZIP file, or from the
+ * manifest kept by incremental expansion. Sizes are compared first, and the
+ * CRC-32 of every file whose size matches is computed on a pool of worker
+ * threads, streaming each file through a reused buffer.
+ */
+public class TreeVerifier {
+
+	/**
+	 * Size and CRC-32 a file is expected to have
+	 */
+	public static final class Expected {
+		private final long crc;
+		private final long size;
+
+		/**
+		 * @param crc  expected CRC-32
+		 * @param size expected size in bytes
+		 */
+		public Expected(long crc, long size) {
+			this.crc = crc;
+			this.size = size;
+		}
+	}
+
+	/**
+	 * Outcome of a verification. Paths are relative to the verified directory
+	 * and sorted.
+	 */
+	public static final class Report {
+		private final List<String> missing;
+		private final List<String> modified;
+		private final List<String> extra;
+		private final int checked;
+
+		private Report(List<String> missing, List<String> modified, List<String> extra, int checked) {
+			this.missing = missing;
+			this.modified = modified;
+			this.extra = extra;
+			this.checked = checked;
+		}
+
+		/**
+		 * @return expected files that do not exist
+		 */
+		public List<String> getMissing() {
+			return missing;
+		}
+
+		/**
+		 * @return expected files whose size or CRC-32 differ
+		 */
+		public List<String> getModified() {
+			return modified;
+		}
+
+		/**
+		 * @return files that exist but were not expected
+		 */
+		public List<String> getExtra() {
+			return extra;
+		}
+
+		/**
+		 * @return true if nothing is missing, modified or extra
+		 */
+		public boolean isClean() {
+			return missing.isEmpty() && modified.isEmpty() && extra.isEmpty();
+		}
+
+		@Override
+		public String toString() {
+			return checked + " files checked, " + missing.size() + " missing, " + modified.size() + " modified, "
+					+ extra.size() + " extra";
+		}
+	}
+
+	/**
+	 * Read the expected files from the central directory of a ZIP file
+	 *
+	 * @param sourceFile       location of the ZIP file
+	 * @param trimPathElements number of leading directories removed when it was
+	 *                         expanded
+	 * @param filter           entries that were expanded, null for everything
+	 * @return expected files keyed by their path relative to the target directory
+	 * @throws IOException
+	 */
+	public static Map<String, Expected> fromZIPFile(Path sourceFile, int trimPathElements, PathFilter filter)
+			throws IOException {
+		// resolve against a dummy root so the keys come out relative
+		Path root = sourceFile.getFileSystem().getPath("").toAbsolutePath();
+		Map<String, Expected> expected = new HashMap<>();
+		try (ZipFile zipFile = new ZipFile(sourceFile.toFile())) {
+			Enumeration<? extends ZipEntry> entries = zipFile.entries();
+			while (entries.hasMoreElements()) {
+				ZipEntry zipEntry = entries.nextElement();
+				Path file = ZIPFileUtil.resolveEntry(root, zipEntry.getName(), trimPathElements, filter);
+				if (file != null && !zipEntry.isDirectory()) {
+					expected.put(ZIPFileUtil.entryKey(root, file), new Expected(zipEntry.getCrc(), zipEntry.getSize()));
+				}
+			}
+		}
+		return expected;
+	}
+
+	/**
+	 * Read the expected files from the manifest written by incremental expansion
+	 *
+	 * @param manifestFile location of the manifest
+	 * @return expected files keyed by their path relative to the target directory
+	 * @throws IOException
+	 */
+	public static Map<String, Expected> fromManifest(Path manifestFile) throws IOException {
+		Properties manifest = new Properties();
+		try (InputStream manifestInput = Files.newInputStream(manifestFile)) {
+			manifest.load(manifestInput);
+		}
+		Map<String, Expected> expected = new HashMap<>();
+		for (String key : manifest.stringPropertyNames()) {
+			String[] fields = manifest.getProperty(key).split(",");
+			expected.put(key, new Expected(Long.parseUnsignedLong(fields[0], 16), Long.parseLong(fields[1])));
+		}
+		return expected;
+	}
+
+	/**
+	 * Verify a directory tree
+	 *
+	 * @param directory directory to verify
+	 * @param expected  expected files keyed by relative path
+	 * @param threads   number of worker threads, 0 or less to use one per
+	 *                  available processor
+	 * @param scope     files that count as extra when they are not expected,
+	 *                  null for all of them
+	 * @return verification report
+	 * @throws IOException
+	 */
+	public static Report verify(Path directory, Map<String, Expected> expected, int threads, PathFilter scope)
+			throws IOException {
+		if (threads <= 0) {
+			threads = Runtime.getRuntime().availableProcessors();
+		}
+
+		Queue<String> missing = new ConcurrentLinkedQueue<>();
+		Queue<String> modified = new ConcurrentLinkedQueue<>();
+		List<String> extra = new ArrayList<>();
+
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try {
+			List<Future<Void>> results = new ArrayList<>();
+			for (Map.Entry<String, Expected> entry : expected.entrySet()) {
+				Path file = directory.resolve(entry.getKey());
+				Expected wanted = entry.getValue();
+				results.add(executor.submit(() -> {
+					if (!Files.isRegularFile(file)) {
+						missing.add(entry.getKey());
+					} else if (Files.size(file) != wanted.size || ZIPFileUtil.crc32(file) != wanted.crc) {
+						modified.add(entry.getKey());
+					}
+					return null;
+				}));
+			}
+
+			// the walk only reads metadata, so it runs while the workers read file contents
+			try (Stream<Path> files = Files.walk(directory)) {
+				files.filter(Files::isRegularFile).forEach(file -> {
+					Path relative = directory.relativize(file);
+					String key = ZIPFileUtil.entryKey(directory, file);
+					if (!expected.containsKey(key) && !key.equals(ZIPFileUtil.MANIFEST_FILE)
+							&& !key.equals(ExtractionJournal.JOURNAL_FILE) && (scope == null || scope.accept(relative))) {
+						extra.add(key);
+					}
+				});
+			}
+			ZIPFileUtil.waitForAll(results);
+		} finally {
+			executor.shutdownNow();
+		}
+
+		return new Report(sorted(missing), sorted(modified), sorted(extra), expected.size());
+	}
+
+	private static List<String> sorted(Iterable<String> paths) {
+		List<String> result = new ArrayList<>();
+		paths.forEach(result::add);
+		Collections.sort(result);
+		return Collections.unmodifiableList(result);
+	}
+
+	/**
+	 * This class is never instantiated
+	 */
+	private TreeVerifier() {
+	}
+}
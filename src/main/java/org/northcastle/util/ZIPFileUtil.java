@@ -7,17 +7,52 @@
  */
 package org.northcastle.util;
 
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
+import java.io.BufferedInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
 import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
 import java.util.zip.ZipInputStream;
 
+import org.apache.commons.io.FileUtils;
+
 public class ZIPFileUtil {
 
+	/**
+	 * Name of the manifest written into the target directory by incremental
+	 * expansion
+	 */
+	public static final String MANIFEST_FILE = ".zipmanifest";
+
+	// size of the per-thread copy buffer
+	private static final int BUFFER_SIZE = 256 * 1024;
+
+	// each worker thread reuses one buffer for every entry it writes
+	private static final ThreadLocal<ByteBuffer> BUFFERS = ThreadLocal
+			.withInitial(() -> ByteBuffer.wrap(new byte[BUFFER_SIZE]));
+
 	/**
 	 * Unpack a ZIP file, do not overwrite, do not strip any directories
 	 *
@@ -43,11 +78,28 @@ public class ZIPFileUtil {
 	 */
 	public static void expandZIPFile(Path sourceFile, Path targetDir, boolean overwrite, int trimPathElements)
 			throws IOException {
-		byte[] buffer = new byte[1024];
+		ZIPFileUtil.expandZIPFile(sourceFile, targetDir, overwrite, trimPathElements, (PathFilter) null);
+	}
+
+	/**
+	 * Unpack a ZIP file, allowing customization of overwrite, optional removal of
+	 * leading directories and filtering of the entries
+	 *
+	 * @param sourceFile       location of the ZIP file
+	 * @param targetDir        target directory where unpack will happen
+	 * @param overwrite        when true, file from the ZIP will replace files in
+	 *                         the file system
+	 * @param trimPathElements number of leading directories stored in the zip file
+	 *                         to remove, 0 to not remove any
+	 * @param filter           entries to expand, null to expand everything
+	 * @throws IOException
+	 */
+	public static void expandZIPFile(Path sourceFile, Path targetDir, boolean overwrite, int trimPathElements,
+			PathFilter filter) throws IOException {
 
 		// source file must exist
 		if (!Files.exists(sourceFile)) {
-			throw new IOException();
+			throw new IOException("ZIP file not found: " + sourceFile);
 		}
 
 		// create target directory if it does not exist
@@ -55,53 +107,614 @@ public class ZIPFileUtil {
 			Files.createDirectories(targetDir);
 		}
 
-		ZipInputStream zipInput = new ZipInputStream(new FileInputStream(sourceFile.toFile()));
-		ZipEntry zipEntry = zipInput.getNextEntry();
-		while (zipEntry != null) {
-			Path zipFileEntry = Paths.get(zipEntry.getName());
+		ExtractionProgress progress = new ExtractionProgress(sourceFile);
+		try (ZipInputStream zipInput = new ZipInputStream(
+				new BufferedInputStream(Files.newInputStream(sourceFile), BUFFER_SIZE))) {
+			ZipEntry zipEntry = zipInput.getNextEntry();
+			while (zipEntry != null) {
+				Path nextFile = resolveEntry(targetDir, zipEntry, trimPathElements, filter);
 
-			// strip off leading path elements
-			if (trimPathElements < zipFileEntry.getNameCount()) {
-				zipFileEntry = zipFileEntry.subpath(trimPathElements, zipFileEntry.getNameCount());
+				if (nextFile == null) {
+					progress.skipped(zipEntry.getName());
+				} else if (Files.exists(nextFile) && !overwrite) {
+					// if the file does not exist, or overwrite, then handle
+					progress.skipped(nextFile);
+				} else if (zipEntry.isDirectory()) {
+					// handle zip file directory entries
+					Files.createDirectories(nextFile);
+					progress.directory(nextFile);
+				} else {
+					// handle zip files without directory entries
+					// these directories need to be created if they don't exist
+					Path parentDir = nextFile.getParent();
+					if (parentDir != null && !Files.exists(parentDir)) {
+						Files.createDirectories(parentDir);
+						progress.directory(parentDir);
+					}
 
-				// place the file in the proper output location
-				Path nextFile = targetDir.resolve(zipFileEntry);
+					// unpack the file into the directory
+					progress.file(nextFile, writeEntry(zipInput, nextFile, zipEntry.getSize()));
+				}
+				zipEntry = zipInput.getNextEntry();
+			}
+		}
+		progress.finish();
+	}
 
-				// if the file does not exist, or overwrite, then handle
-				if (!Files.exists(nextFile) || overwrite) {
-					// handle zip file directory entries
-					if (zipEntry.isDirectory()) {
-						Files.createDirectories(nextFile);
-						System.out.println("MKDIR: " + nextFile);
+	/**
+	 * Unpack a ZIP file using its central directory, inflating and writing the
+	 * file entries in parallel. Overwrite and removal of leading directories
+	 * behave the same as the streaming version.
+	 *
+	 * @param sourceFile       location of the ZIP file
+	 * @param targetDir        target directory where unpack will happen
+	 * @param overwrite        when true, file from the ZIP will replace files in
+	 *                         the file system
+	 * @param trimPathElements number of leading directories stored in the zip file
+	 *                         to remove, 0 to not remove any
+	 * @param threads          number of worker threads, 0 or less to use one per
+	 *                         available processor
+	 * @param filter           entries to expand, null to expand everything
+	 * @throws IOException
+	 */
+	public static void expandZIPFile(Path sourceFile, Path targetDir, boolean overwrite, int trimPathElements,
+			int threads, PathFilter filter) throws IOException {
+		ZIPFileUtil.expandZIPFile(sourceFile, targetDir, overwrite, trimPathElements, threads, filter, false);
+	}
+
+	/**
+	 * Unpack a ZIP file using its central directory, inflating and writing the
+	 * file entries in parallel, optionally keeping an {@link ExtractionJournal}
+	 * in the target directory. With a journal every file is forced to disk
+	 * before it is recorded, and a run that finds an unfinished journal for the
+	 * same ZIP file skips the entries it already records, even when overwrite is
+	 * set.
+	 *
+	 * @param sourceFile       location of the ZIP file
+	 * @param targetDir        target directory where unpack will happen
+	 * @param overwrite        when true, file from the ZIP will replace files in
+	 *                         the file system
+	 * @param trimPathElements number of leading directories stored in the zip file
+	 *                         to remove, 0 to not remove any
+	 * @param threads          number of worker threads, 0 or less to use one per
+	 *                         available processor
+	 * @param filter           entries to expand, null to expand everything
+	 * @param journaled        when true, keep a journal so an interrupted
+	 *                         expansion can be resumed
+	 * @throws IOException
+	 */
+	public static void expandZIPFile(Path sourceFile, Path targetDir, boolean overwrite, int trimPathElements,
+			int threads, PathFilter filter, boolean journaled) throws IOException {
+
+		// source file must exist
+		if (!Files.exists(sourceFile)) {
+			throw new IOException("ZIP file not found: " + sourceFile);
+		}
+
+		// create target directory if it does not exist
+		if (!Files.exists(targetDir)) {
+			Files.createDirectories(targetDir);
+		}
+
+		if (threads <= 0) {
+			threads = Runtime.getRuntime().availableProcessors();
+		}
+
+		ExtractionProgress progress = new ExtractionProgress(sourceFile);
+		try (ZipFile zipFile = new ZipFile(sourceFile.toFile());
+				ExtractionJournal journal = journaled ? ExtractionJournal.open(targetDir, sourceFile) : null) {
+
+			if (journal != null && journal.getResumedCount() > 0) {
+				progress.entry("RESUMING", journal.getResumedCount() + " entries already expanded");
+			}
+
+			// first pass over the central directory: create all directories up front so
+			// the workers never race each other creating the same parent
+			List<ZipEntry> fileEntries = new ArrayList<>();
+			Enumeration<? extends ZipEntry> entries = zipFile.entries();
+			while (entries.hasMoreElements()) {
+				ZipEntry zipEntry = entries.nextElement();
+				Path nextFile = resolveEntry(targetDir, zipEntry, trimPathElements, filter);
+
+				if (nextFile == null) {
+					progress.skipped(zipEntry.getName());
+				} else if (journal != null && !zipEntry.isDirectory()
+						&& journal.isDone(entryKey(targetDir, nextFile), zipEntry.getCrc(), zipEntry.getSize())
+						&& Files.isRegularFile(nextFile) && Files.size(nextFile) == zipEntry.getSize()) {
+					// finished by an earlier run that did not complete
+					progress.skipped(nextFile);
+				} else if (Files.exists(nextFile) && !overwrite) {
+					progress.skipped(nextFile);
+				} else if (zipEntry.isDirectory()) {
+					Files.createDirectories(nextFile);
+					progress.directory(nextFile);
+				} else {
+					Path parentDir = nextFile.getParent();
+					if (parentDir != null && !Files.exists(parentDir)) {
+						Files.createDirectories(parentDir);
+						progress.directory(parentDir);
+					}
+					fileEntries.add(zipEntry);
+				}
+			}
+
+			// second pass: inflate and write the files on the worker pool
+			ExecutorService executor = Executors.newFixedThreadPool(threads);
+			try {
+				List<Future<Void>> results = new ArrayList<>();
+				for (ZipEntry zipEntry : fileEntries) {
+					Path nextFile = resolveEntry(targetDir, zipEntry, trimPathElements, filter);
+					results.add(executor.submit(() -> {
+						try (InputStream entryInput = zipFile.getInputStream(zipEntry)) {
+							progress.file(nextFile,
+									writeEntry(entryInput, nextFile, zipEntry.getSize(), journal != null));
+						}
+						if (journal != null) {
+							journal.completed(entryKey(targetDir, nextFile), zipEntry.getCrc(), zipEntry.getSize());
+						}
+						return null;
+					}));
+				}
+				waitForAll(results);
+			} finally {
+				executor.shutdownNow();
+			}
+
+			if (journal != null) {
+				journal.complete();
+			}
+		}
+		progress.finish();
+	}
+
+	/**
+	 * Unpack a ZIP file while checking it against an expected digest. The digest
+	 * is computed on the same bytes that feed the expansion, so the archive is
+	 * only read once. Files are written next to their final location and only
+	 * moved into place once the digest matches. On a mismatch, or any other
+	 * failure, everything written is removed and the target is left as it was.
+	 *
+	 * @param sourceFile       location of the ZIP file
+	 * @param targetDir        target directory where unpack will happen
+	 * @param overwrite        when true, file from the ZIP will replace files in
+	 *                         the file system
+	 * @param trimPathElements number of leading directories stored in the zip file
+	 *                         to remove, 0 to not remove any
+	 * @param digestAlgorithm  message digest algorithm, such as SHA-512
+	 * @param expectedDigest   expected digest of the whole ZIP file, in hex, or
+	 *                         the contents of a published digest file
+	 * @param filter           entries to expand, null to expand everything
+	 * @throws IOException     if the file cannot be expanded or the digest does
+	 *                         not match
+	 */
+	public static void expandZIPFile(Path sourceFile, Path targetDir, boolean overwrite, int trimPathElements,
+			String digestAlgorithm, String expectedDigest, PathFilter filter) throws IOException {
+
+		// source file must exist
+		if (!Files.exists(sourceFile)) {
+			throw new IOException("ZIP file not found: " + sourceFile);
+		}
+
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance(digestAlgorithm);
+		} catch (NoSuchAlgorithmException e) {
+			throw new IOException("Unsupported digest algorithm " + digestAlgorithm, e);
+		}
+		String wantedDigest = parseDigest(expectedDigest, digest);
+
+		// everything needed to roll back: the highest directories we created, and the
+		// staged files paired with where they belong
+		List<Path> createdDirs = new ArrayList<>();
+		List<Path[]> stagedFiles = new ArrayList<>();
+		ExtractionProgress progress = new ExtractionProgress(sourceFile);
+
+		try {
+			createDirectories(targetDir, createdDirs, progress);
+
+			try (DigestInputStream digestInput = new DigestInputStream(
+					new BufferedInputStream(Files.newInputStream(sourceFile), BUFFER_SIZE), digest);
+					ZipInputStream zipInput = new ZipInputStream(digestInput)) {
+
+				ZipEntry zipEntry = zipInput.getNextEntry();
+				while (zipEntry != null) {
+					Path nextFile = resolveEntry(targetDir, zipEntry, trimPathElements, filter);
+
+					if (nextFile == null) {
+						progress.skipped(zipEntry.getName());
+					} else if (Files.exists(nextFile) && !overwrite) {
+						progress.skipped(nextFile);
+					} else if (zipEntry.isDirectory()) {
+						createDirectories(nextFile, createdDirs, progress);
 					} else {
+						createDirectories(nextFile.getParent(), createdDirs, progress);
+						Path stagedFile = nextFile.resolveSibling(nextFile.getFileName() + ".part");
+						stagedFiles.add(new Path[] { stagedFile, nextFile });
+						progress.file(nextFile, writeEntry(zipInput, stagedFile, zipEntry.getSize()));
+					}
+					zipEntry = zipInput.getNextEntry();
+				}
+
+				// the central directory has not been read by the ZIP stream, so finish the
+				// digest with whatever is left
+				digestInput.transferTo(OutputStream.nullOutputStream());
+			}
+
+			String actualDigest = toHex(digest.digest());
+			if (!actualDigest.equalsIgnoreCase(wantedDigest)) {
+				throw new IOException(digestAlgorithm + " mismatch for " + sourceFile + ", expected " + wantedDigest
+						+ " but was " + actualDigest);
+			}
+
+			// verified, move everything into place
+			for (Path[] staged : stagedFiles) {
+				Files.move(staged[0], staged[1], StandardCopyOption.REPLACE_EXISTING);
+			}
+		} catch (IOException | RuntimeException e) {
+			for (Path[] staged : stagedFiles) {
+				Files.deleteIfExists(staged[0]);
+			}
+			for (Path createdDir : createdDirs) {
+				FileUtils.deleteQuietly(createdDir.toFile());
+			}
+			throw e;
+		}
+		progress.finish();
+	}
+
+	/**
+	 * Unpack a ZIP file incrementally. Only entries whose size or CRC-32 differ
+	 * from the file on disk are written. A manifest of the installed entries is
+	 * kept in the target directory, so unchanged files can be recognized from
+	 * their size and modification time without reading them again.
+	 *
+	 * @param sourceFile       location of the ZIP file
+	 * @param targetDir        target directory where unpack will happen
+	 * @param trimPathElements number of leading directories stored in the zip file
+	 *                         to remove, 0 to not remove any
+	 * @param deleteRemoved    when true, files recorded in the previous manifest
+	 *                         that are no longer in the ZIP file are deleted
+	 * @param threads          number of worker threads, 0 or less to use one per
+	 *                         available processor
+	 * @param filter           entries to expand, null to expand everything
+	 * @throws IOException
+	 */
+	public static void expandZIPFileIncremental(Path sourceFile, Path targetDir, int trimPathElements,
+			boolean deleteRemoved, int threads, PathFilter filter) throws IOException {
 
-						// handle zip files without directory entries
-						// these directories need to be created if they don't exist
+		// source file must exist
+		if (!Files.exists(sourceFile)) {
+			throw new IOException("ZIP file not found: " + sourceFile);
+		}
+
+		// create target directory if it does not exist
+		if (!Files.exists(targetDir)) {
+			Files.createDirectories(targetDir);
+		}
+
+		if (threads <= 0) {
+			threads = Runtime.getRuntime().availableProcessors();
+		}
+
+		Path manifestFile = targetDir.resolve(MANIFEST_FILE);
+		Properties previous = new Properties();
+		if (Files.exists(manifestFile)) {
+			try (InputStream manifestInput = Files.newInputStream(manifestFile)) {
+				previous.load(manifestInput);
+			}
+		}
+		Map<String, String> current = new ConcurrentHashMap<>();
+
+		ExtractionProgress progress = new ExtractionProgress(sourceFile);
+		try (ZipFile zipFile = new ZipFile(sourceFile.toFile())) {
+			ExecutorService executor = Executors.newFixedThreadPool(threads);
+			try {
+				List<Future<Void>> results = new ArrayList<>();
+				Enumeration<? extends ZipEntry> entries = zipFile.entries();
+				while (entries.hasMoreElements()) {
+					ZipEntry zipEntry = entries.nextElement();
+					Path nextFile = resolveEntry(targetDir, zipEntry, trimPathElements, filter);
+
+					if (nextFile == null) {
+						progress.skipped(zipEntry.getName());
+					} else if (zipEntry.isDirectory()) {
+						Files.createDirectories(nextFile);
+					} else {
 						Path parentDir = nextFile.getParent();
 						if (parentDir != null && !Files.exists(parentDir)) {
 							Files.createDirectories(parentDir);
-							System.out.println("MKDIR: " + parentDir);
+							progress.directory(parentDir);
 						}
 
-						// unpack the file into the directory
-						System.out.println("EXPANDING: " + nextFile);
-						FileOutputStream fileOut = new FileOutputStream(nextFile.toFile());
-						int len;
-						while ((len = zipInput.read(buffer)) > 0) {
-							fileOut.write(buffer, 0, len);
-						}
-						fileOut.close();
+						String key = entryKey(targetDir, nextFile);
+						results.add(executor.submit(() -> {
+							if (isUnchanged(nextFile, zipEntry, previous.getProperty(key))) {
+								progress.skipped(nextFile);
+							} else {
+								try (InputStream entryInput = zipFile.getInputStream(zipEntry)) {
+									progress.file(nextFile, writeEntry(entryInput, nextFile, zipEntry.getSize()));
+								}
+							}
+							current.put(key, manifestRecord(zipEntry.getCrc(), zipEntry.getSize(),
+									Files.getLastModifiedTime(nextFile).toMillis()));
+							return null;
+						}));
 					}
-				} else {
-					System.out.println("SKIPPING: " + nextFile);
 				}
-			} else {
-				System.out.println("SKIPPING: " + zipFileEntry);
+				waitForAll(results);
+			} finally {
+				executor.shutdownNow();
+			}
+		}
+
+		// anything we installed last time that is no longer in the image
+		if (deleteRemoved) {
+			for (String key : previous.stringPropertyNames()) {
+				if (!current.containsKey(key) && Files.deleteIfExists(targetDir.resolve(key))) {
+					progress.entry("DELETED", targetDir.resolve(key));
+				}
+			}
+		}
+
+		Properties manifest = new Properties();
+		manifest.putAll(current);
+		try (OutputStream manifestOutput = Files.newOutputStream(manifestFile)) {
+			manifest.store(manifestOutput, "Installed from " + sourceFile.getFileName());
+		}
+		progress.finish();
+	}
+
+	/**
+	 * Decide whether a file on disk already matches a ZIP entry. When the
+	 * manifest record still matches the file size and modification time, its
+	 * CRC-32 is trusted. Otherwise the file is read and its CRC-32 computed.
+	 *
+	 * @param file     file on disk
+	 * @param zipEntry entry from the ZIP file central directory
+	 * @param record   manifest record from the previous run, may be null
+	 * @return true if the file does not need to be written
+	 * @throws IOException
+	 */
+	private static boolean isUnchanged(Path file, ZipEntry zipEntry, String record) throws IOException {
+		if (!Files.isRegularFile(file) || Files.size(file) != zipEntry.getSize()) {
+			return false;
+		}
+
+		long modified = Files.getLastModifiedTime(file).toMillis();
+		if (manifestRecord(zipEntry.getCrc(), zipEntry.getSize(), modified).equals(record)) {
+			return true;
+		}
+
+		return crc32(file) == zipEntry.getCrc();
+	}
+
+	/**
+	 * Compute the CRC-32 of a file, streaming it through this thread's reusable
+	 * buffer
+	 *
+	 * @param file file to read
+	 * @return CRC-32 of the file contents
+	 * @throws IOException
+	 */
+	static long crc32(Path file) throws IOException {
+		CRC32 crc = new CRC32();
+		ByteBuffer buffer = BUFFERS.get();
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			while (channel.read(buffer.clear()) > 0) {
+				crc.update(buffer.flip());
+			}
+		}
+		return crc.getValue();
+	}
+
+	/**
+	 * Format a manifest record
+	 *
+	 * @param crc      CRC-32 of the entry
+	 * @param size     uncompressed size of the entry
+	 * @param modified modification time of the file on disk
+	 * @return manifest record
+	 */
+	private static String manifestRecord(long crc, long size, long modified) {
+		return Long.toHexString(crc) + "," + size + "," + modified;
+	}
+
+	/**
+	 * Write an entry to a file through a file channel, using this thread's
+	 * reusable buffer. When the uncompressed size is known the file is extended
+	 * to it before writing, so the file system sees the final size up front.
+	 *
+	 * @param input input positioned at the entry data
+	 * @param file  file to write, replaced if it exists
+	 * @param size  uncompressed size of the entry, or -1 if not known
+	 * @return number of bytes written
+	 * @throws IOException
+	 */
+	static long writeEntry(InputStream input, Path file, long size) throws IOException {
+		return writeEntry(input, file, size, false);
+	}
+
+	/**
+	 * Write an entry to a file, optionally forcing the data to disk before
+	 * returning. An existing file is removed rather than truncated, so a file
+	 * hard linked from the image cache, or a symbolic link, is never written
+	 * through.
+	 *
+	 * @param input input positioned at the entry data
+	 * @param file  file to write, replaced if it exists
+	 * @param size  uncompressed size of the entry, or -1 if not known
+	 * @param force when true, the file contents are on disk when this returns
+	 * @return number of bytes written
+	 * @throws IOException
+	 */
+	static long writeEntry(InputStream input, Path file, long size, boolean force) throws IOException {
+		ByteBuffer buffer = BUFFERS.get();
+		byte[] array = buffer.array();
+		long written = 0;
+
+		Files.deleteIfExists(file);
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+			if (size > 0) {
+				channel.write(buffer.clear().limit(1), size - 1);
+			}
+
+			int len;
+			while ((len = input.read(array, 0, array.length)) > 0) {
+				buffer.clear().limit(len);
+				while (buffer.hasRemaining()) {
+					written += channel.write(buffer, written);
+				}
+			}
+
+			// the entry was shorter than the central directory said
+			if (written < size) {
+				channel.truncate(written);
 			}
-			zipEntry = zipInput.getNextEntry();
+			if (force) {
+				channel.force(false);
+			}
+		}
+		return written;
+	}
+
+	/**
+	 * Key an entry by its path relative to the target directory
+	 *
+	 * @param targetDir target directory where unpack will happen
+	 * @param file      output location of the entry
+	 * @return key used in the manifest and journal
+	 */
+	static String entryKey(Path targetDir, Path file) {
+		return targetDir.relativize(file).toString().replace('\\', '/');
+	}
+
+	/**
+	 * Create a directory and any missing parents, remembering the highest one
+	 * that had to be created so it can be removed again
+	 *
+	 * @param directory   directory to create
+	 * @param createdDirs highest directories created so far
+	 * @param progress    progress reporter
+	 * @throws IOException
+	 */
+	static void createDirectories(Path directory, List<Path> createdDirs, ExtractionProgress progress)
+			throws IOException {
+		if (directory == null || Files.isDirectory(directory)) {
+			return;
+		}
+		Path highest = directory;
+		while (highest.getParent() != null && !Files.exists(highest.getParent())) {
+			highest = highest.getParent();
+		}
+		Files.createDirectories(directory);
+		createdDirs.add(highest);
+		progress.directory(directory);
+	}
+
+	/**
+	 * Read an expected digest. Apache publishes digest files as the hex digest
+	 * followed by the file name, so only the first word is used.
+	 *
+	 * @param expectedDigest expected digest in hex, or the contents of a
+	 *                       published digest file
+	 * @param digest         digest the value will be compared with
+	 * @return expected digest in hex
+	 * @throws IOException if the value is not a hex digest of the right length
+	 */
+	static String parseDigest(String expectedDigest, MessageDigest digest) throws IOException {
+		String[] words = (expectedDigest == null ? "" : expectedDigest.trim()).split("\\s+", 2);
+		int length = digest.getDigestLength() * 2;
+		if (!words[0].matches("[0-9a-fA-F]{" + length + "}")) {
+			throw new IOException("Expected " + digest.getAlgorithm() + " digest must start with " + length
+					+ " hex characters: " + expectedDigest);
+		}
+		return words[0];
+	}
+
+	/**
+	 * Format bytes as lower case hex, the way published digests are written
+	 *
+	 * @param bytes bytes to format
+	 * @return hex string
+	 */
+	static String toHex(byte[] bytes) {
+		StringBuilder hex = new StringBuilder(bytes.length * 2);
+		for (byte b : bytes) {
+			hex.append(String.format("%02x", b));
+		}
+		return hex.toString();
+	}
+
+	/**
+	 * Work out where a ZIP entry belongs in the target directory after removing
+	 * leading path elements. This only looks at the entry name, so filtered
+	 * entries are never inflated.
+	 *
+	 * @param targetDir        target directory where unpack will happen
+	 * @param zipEntry         entry from the ZIP file
+	 * @param trimPathElements number of leading directories to remove
+	 * @param filter           entries to expand, null to expand everything
+	 * @return output location, or null if nothing is left of the entry name or
+	 *         the entry is filtered out
+	 * @throws IOException if the entry would land outside the target directory
+	 */
+	private static Path resolveEntry(Path targetDir, ZipEntry zipEntry, int trimPathElements, PathFilter filter)
+			throws IOException {
+		return resolveEntry(targetDir, zipEntry.getName(), trimPathElements, filter);
+	}
+
+	/**
+	 * Work out where an archive entry belongs in the target directory after
+	 * removing leading path elements. The entry name is normalized, and an
+	 * entry that would land outside the target directory, through .. elements,
+	 * is rejected.
+	 *
+	 * @param targetDir        target directory where unpack will happen
+	 * @param entryName        name of the entry in the archive
+	 * @param trimPathElements number of leading directories to remove
+	 * @param filter           entries to expand, null to expand everything
+	 * @return output location, or null if nothing is left of the entry name or
+	 *         the entry is filtered out
+	 * @throws IOException if the entry would land outside the target directory
+	 */
+	static Path resolveEntry(Path targetDir, String entryName, int trimPathElements, PathFilter filter)
+			throws IOException {
+		Path zipFileEntry = Paths.get(entryName);
+		if (trimPathElements >= zipFileEntry.getNameCount()) {
+			return null;
+		}
+		zipFileEntry = zipFileEntry.subpath(trimPathElements, zipFileEntry.getNameCount()).normalize();
+		Path resolved = targetDir.resolve(zipFileEntry);
+		if (zipFileEntry.startsWith("..") || !resolved.normalize().startsWith(targetDir.normalize())) {
+			throw new IOException("Archive entry " + entryName + " is outside the target directory");
 		}
+		if (filter != null && !filter.accept(zipFileEntry)) {
+			return null;
+		}
+		return resolved;
+	}
 
-		zipInput.close();
+	/**
+	 * Wait for every submitted task, rethrowing the first failure as an
+	 * IOException
+	 *
+	 * @param results futures of the submitted tasks
+	 * @throws IOException
+	 */
+	static void waitForAll(List<Future<Void>> results) throws IOException {
+		for (Future<Void> result : results) {
+			try {
+				result.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException("Extraction interrupted", e);
+			} catch (ExecutionException e) {
+				if (e.getCause() instanceof IOException) {
+					throw (IOException) e.getCause();
+				}
+				throw new IOException("Extraction failed", e.getCause());
+			}
+		}
 	}
 
 	/**
@@ -0,0 +1,709 @@
+/**
+ * StreamingXMLEditor
+ *
+ * Version v1.0
+ *
+ * Copyright (c) Rob Richter
+ */
+package org.northcastle.xml;
+
+import java.io.BufferedReader;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.jdom2.Attribute;
+import org.jdom2.Element;
+import org.jdom2.Namespace;
+import org.jdom2.output.Format;
+import org.jdom2.output.XMLOutputter;
+
+/**
+ * Rewrites an XML file in one streaming pass, copying everything it does not
+ * change exactly as it was. The file is parsed with StAX, and a scanner reads
+ * the same file alongside it to keep the original text of every tag, comment
+ * and piece of whitespace.
+ * <p>
+ * Only the elements a {@link Handler} asks for are loaded, one at a time, as
+ * small JDOM trees. The handler changes their attributes and adds or removes
+ * child elements, and only the start tags that changed are written again. New
+ * elements are written with the indentation of their siblings. Memory use
+ * depends on the largest element loaded, not on the size of the file.
+ */
+public class StreamingXMLEditor {
+
+	/**
+	 * Decides what is edited. Paths are the qualified names of the elements from
+	 * the root down to the element itself.
+	 */
+	public interface Handler {
+		/**
+		 * @param path path of an element that starts
+		 * @return true to load the element and its content, and pass it to
+		 *         {@link #edit(List, Element)}
+		 */
+		boolean isEditable(List<String> path);
+
+		/**
+		 * Change a loaded element. Attributes can be set and removed, and child
+		 * elements added and removed. Text content is not written back.
+		 *
+		 * @param path    path of the element
+		 * @param element the element and its content
+		 */
+		void edit(List<String> path, Element element);
+
+		/**
+		 * Called before the start tag of each element, and before the end tag of
+		 * each element that is not loaded and has an end tag
+		 *
+		 * @param path path of the element
+		 * @param end  true before the end tag, false before the start tag
+		 * @return new elements to write there, as siblings before the start tag or
+		 *         as the last children before the end tag
+		 */
+		List<Element> insertBefore(List<String> path, boolean end);
+	}
+
+	// the parts of a start tag
+	private static final Pattern TAG_NAME = Pattern.compile("<[^\\s/>]+");
+	private static final Pattern TAG_ATTRIBUTE = Pattern.compile("(\\s+)([^\\s=/>]+)(\\s*=\\s*)(\"[^\"]*\"|'[^']*')");
+
+	/**
+	 * The original text of a loaded element
+	 */
+	private static final class Source {
+		private final String startTag;
+		private final Map<String, String> attributes;
+		private final String indent;
+		// StringBuilders of character data, comments and processing instructions,
+		// and Elements for the child elements, in document order
+		private final List<Object> content = new ArrayList<>();
+		private String endTag;
+
+		private Source(String startTag, Map<String, String> attributes, String indent) {
+			this.startTag = startTag;
+			this.attributes = attributes;
+			this.indent = indent;
+		}
+
+		private void addText(String text) {
+			if (text.isEmpty()) {
+				return;
+			}
+			if (!content.isEmpty() && content.get(content.size() - 1) instanceof StringBuilder) {
+				((StringBuilder) content.get(content.size() - 1)).append(text);
+			} else {
+				content.add(new StringBuilder(text));
+			}
+		}
+	}
+
+	/**
+	 * An open element that is not loaded
+	 */
+	private static final class Level {
+		private final String indent;
+		private String childIndent;
+
+		private Level(String indent) {
+			this.indent = indent;
+		}
+	}
+
+	private final Handler handler;
+	private final Writer output;
+	private final MarkupScanner scanner;
+	private final List<String> path = new ArrayList<>();
+	private final List<Level> levels = new ArrayList<>();
+	private String lineSeparator = null;
+
+	// the element being loaded, and the original text of its elements
+	private final List<Element> loading = new ArrayList<>();
+	private final Map<Element, Source> sources = new IdentityHashMap<>();
+
+	/**
+	 * Rewrite an XML file. The target is written in the encoding of the source.
+	 *
+	 * @param source  file to read
+	 * @param target  file to write, replaced if it exists
+	 * @param handler decides what is changed
+	 * @throws IOException
+	 * @throws XMLStreamException if the source is not well-formed XML
+	 */
+	public static void edit(Path source, Path target, Handler handler) throws IOException, XMLStreamException {
+		XMLInputFactory factory = XMLInputFactory.newInstance();
+		factory.setProperty(XMLInputFactory.IS_COALESCING, false);
+		factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+		factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+
+		try (InputStream input = Files.newInputStream(source)) {
+			XMLStreamReader reader = factory.createXMLStreamReader(input);
+			try {
+				Charset charset = (reader.getEncoding() != null ? Charset.forName(reader.getEncoding())
+						: StandardCharsets.UTF_8);
+				try (Reader text = Files.newBufferedReader(source, charset);
+						Writer output = Files.newBufferedWriter(target, charset)) {
+					new StreamingXMLEditor(handler, output, new MarkupScanner(text)).copy(reader);
+				}
+			} finally {
+				reader.close();
+			}
+		}
+	}
+
+	private StreamingXMLEditor(Handler handler, Writer output, MarkupScanner scanner) {
+		this.handler = handler;
+		this.output = output;
+		this.scanner = scanner;
+	}
+
+	/**
+	 * Walk the StAX events, taking the original text of each from the scanner
+	 */
+	private void copy(XMLStreamReader reader) throws IOException, XMLStreamException {
+		// StAX has no event for the XML declaration
+		if (scanner.startsWithDeclaration()) {
+			String declaration = scanner.next();
+			output.write(scanner.getText() + declaration);
+		}
+
+		boolean emptyElement = false;
+		while (reader.hasNext()) {
+			switch (reader.next()) {
+			case XMLStreamConstants.START_ELEMENT: {
+				String tag = scanner.next();
+				emptyElement = tag.endsWith("/>");
+				startElement(reader, tag, scanner.getText());
+				break;
+			}
+			case XMLStreamConstants.END_ELEMENT:
+				// an empty element tag was both the start and the end
+				if (emptyElement) {
+					emptyElement = false;
+					endElement(null, "");
+				} else {
+					String tag = scanner.next();
+					endElement(tag, scanner.getText());
+				}
+				break;
+			case XMLStreamConstants.COMMENT:
+			case XMLStreamConstants.PROCESSING_INSTRUCTION:
+			case XMLStreamConstants.DTD: {
+				String markup = scanner.next();
+				if (loading.isEmpty()) {
+					writeText(scanner.getText() + markup);
+				} else {
+					sources.get(loading.get(loading.size() - 1)).addText(scanner.getText() + markup);
+				}
+				break;
+			}
+			default:
+				// character data is copied with the markup that follows it
+				break;
+			}
+		}
+		writeText(scanner.rest());
+	}
+
+	private void startElement(XMLStreamReader reader, String tag, String text) throws IOException {
+		String name = getQualifiedName(reader.getPrefix(), reader.getLocalName());
+		path.add(name);
+
+		if (!loading.isEmpty()) {
+			// a child of a loaded element
+			Element parent = loading.get(loading.size() - 1);
+			sources.get(parent).addText(text);
+			Element element = createElement(reader);
+			parent.addContent(element);
+			sources.get(parent).content.add(element);
+			sources.put(element, new Source(tag, getAttributes(element), getIndent(text)));
+			loading.add(element);
+			return;
+		}
+
+		writeText(text);
+		String indent = getIndent(text);
+		if (!levels.isEmpty() && levels.get(levels.size() - 1).childIndent == null && text.contains("\n")) {
+			levels.get(levels.size() - 1).childIndent = indent;
+		}
+		// new siblings go before the start tag, on lines of their own
+		for (Element added : handler.insertBefore(List.copyOf(path), false)) {
+			writeElement(added, indent, levels.isEmpty() ? "" : levels.get(levels.size() - 1).indent);
+			if (text.contains("\n")) {
+				output.write(getLineSeparator() + indent);
+			}
+		}
+
+		if (handler.isEditable(List.copyOf(path))) {
+			Element element = createElement(reader);
+			sources.put(element, new Source(tag, getAttributes(element), indent));
+			loading.add(element);
+		} else {
+			output.write(tag);
+			levels.add(new Level(indent));
+		}
+	}
+
+	private void endElement(String tag, String text) throws IOException {
+		if (!loading.isEmpty()) {
+			Element element = loading.remove(loading.size() - 1);
+			Source source = sources.get(element);
+			source.addText(text);
+			source.endTag = tag;
+			if (loading.isEmpty()) {
+				handler.edit(List.copyOf(path), element);
+				writeElement(element, source);
+				sources.clear();
+			}
+			path.remove(path.size() - 1);
+			return;
+		}
+
+		Level level = levels.remove(levels.size() - 1);
+		// an empty element tag has no end tag to insert before
+		List<Element> added = (tag != null ? handler.insertBefore(List.copyOf(path), true) : List.of());
+		if (added.isEmpty()) {
+			writeText(text + (tag != null ? tag : ""));
+		} else {
+			// new children go after the last one, before the line of the end tag
+			String childIndent = (level.childIndent != null ? level.childIndent : level.indent + "  ");
+			int lineStart = getLineStart(text);
+			writeText(lineStart >= 0 ? text.substring(0, lineStart) : text);
+			for (Element element : added) {
+				output.write(getLineSeparator() + childIndent);
+				writeElement(element, childIndent, level.indent);
+			}
+			output.write(lineStart >= 0 ? text.substring(lineStart) : getLineSeparator() + level.indent);
+			output.write(tag);
+		}
+		path.remove(path.size() - 1);
+	}
+
+	/**
+	 * Write a loaded element. Unchanged start tags, end tags and text are
+	 * copied, changed start tags are rebuilt around their unchanged attributes,
+	 * and new children are written where they were added.
+	 */
+	private void writeElement(Element element, Source source) throws IOException {
+		List<Element> children = element.getChildren();
+		boolean expand = (source.endTag == null && !children.isEmpty());
+		if (expand || !hasAttributes(element, source.attributes)) {
+			output.write(rebuildStartTag(element, source, expand));
+		} else {
+			output.write(source.startTag);
+		}
+
+		// new children are written before the original child that follows them
+		Map<Element, List<Element>> addedBefore = new IdentityHashMap<>();
+		List<Element> added = new ArrayList<>();
+		for (Element child : children) {
+			if (sources.containsKey(child)) {
+				if (!added.isEmpty()) {
+					addedBefore.put(child, added);
+					added = new ArrayList<>();
+				}
+			} else {
+				added.add(child);
+			}
+		}
+
+		String childIndent = getChildIndent(source);
+		boolean trailingText = false;
+		for (int i = 0; i < source.content.size(); i++) {
+			Object item = source.content.get(i);
+			if (item instanceof Element) {
+				Element child = (Element) item;
+				if (child.getParentElement() != element) {
+					// removed
+					continue;
+				}
+				for (Element before : addedBefore.getOrDefault(child, List.of())) {
+					writeElement(before, childIndent, source.indent);
+					output.write(getLineSeparator() + childIndent);
+				}
+				writeElement(child, sources.get(child));
+			} else {
+				String text = item.toString();
+				boolean last = (i == source.content.size() - 1);
+				// the indentation of a removed child goes with it
+				if (!last && text.isBlank() && ((Element) source.content.get(i + 1)).getParentElement() != element) {
+					continue;
+				}
+				if (last) {
+					int lineStart = getLineStart(text);
+					if (lineStart >= 0) {
+						trailingText = true;
+						output.write(text.substring(0, lineStart));
+						for (Element after : added) {
+							output.write(getLineSeparator() + childIndent);
+							writeElement(after, childIndent, source.indent);
+						}
+						output.write(text.substring(lineStart));
+						continue;
+					}
+				}
+				output.write(text);
+			}
+		}
+		if (!trailingText && !added.isEmpty()) {
+			for (Element after : added) {
+				output.write(getLineSeparator() + childIndent);
+				writeElement(after, childIndent, source.indent);
+			}
+			output.write(getLineSeparator() + source.indent);
+		}
+
+		if (expand) {
+			output.write("</" + element.getQualifiedName() + ">");
+		} else if (source.endTag != null) {
+			output.write(source.endTag);
+		}
+	}
+
+	/**
+	 * Write a new element, indenting every line after the first. Its content is
+	 * indented by the step between its own indentation and its parent's.
+	 */
+	private void writeElement(Element element, String indent, String parentIndent) throws IOException {
+		String step = (indent.startsWith(parentIndent) && indent.length() > parentIndent.length()
+				? indent.substring(parentIndent.length())
+				: indent.contains("\t") ? "\t" : "  ");
+		Format format = Format.getPrettyFormat().setIndent(step).setLineSeparator(getLineSeparator());
+		String text = new XMLOutputter(format).outputString(element);
+		output.write(text.replace(getLineSeparator(), getLineSeparator() + indent));
+	}
+
+	/**
+	 * Rebuild a start tag, keeping the original text of the attributes that did
+	 * not change. New attributes follow the last one, with the same spacing.
+	 */
+	private String rebuildStartTag(Element element, Source source, boolean expand) {
+		String tag = source.startTag;
+		Matcher nameMatcher = TAG_NAME.matcher(tag);
+		nameMatcher.lookingAt();
+		StringBuilder rebuilt = new StringBuilder(nameMatcher.group());
+
+		String separator = " ";
+		int position = nameMatcher.end();
+		Matcher attributeMatcher = TAG_ATTRIBUTE.matcher(tag);
+		while (attributeMatcher.region(position, tag.length()).lookingAt()) {
+			position = attributeMatcher.end();
+			separator = attributeMatcher.group(1);
+			String name = attributeMatcher.group(2);
+			String value = getAttributeValue(element, name);
+			if (name.equals("xmlns") || name.startsWith("xmlns:")) {
+				// namespace declarations are not attributes in JDOM
+				rebuilt.append(attributeMatcher.group());
+			} else if (value == null) {
+				continue;
+			} else if (value.equals(source.attributes.get(name))) {
+				rebuilt.append(attributeMatcher.group());
+			} else {
+				char quote = attributeMatcher.group(4).charAt(0);
+				rebuilt.append(separator).append(name).append(attributeMatcher.group(3)).append(quote)
+						.append(escape(value, quote)).append(quote);
+			}
+		}
+		for (Attribute attribute : element.getAttributes()) {
+			if (!source.attributes.containsKey(attribute.getQualifiedName())) {
+				rebuilt.append(separator).append(attribute.getQualifiedName()).append("=\"")
+						.append(escape(attribute.getValue(), '"')).append('"');
+			}
+		}
+
+		String end = tag.substring(position);
+		rebuilt.append(expand ? end.replaceFirst("\\s*/>$", ">") : end);
+		return rebuilt.toString();
+	}
+
+	private static String getAttributeValue(Element element, String qualifiedName) {
+		for (Attribute attribute : element.getAttributes()) {
+			if (attribute.getQualifiedName().equals(qualifiedName)) {
+				return attribute.getValue();
+			}
+		}
+		return null;
+	}
+
+	private static boolean hasAttributes(Element element, Map<String, String> attributes) {
+		return getAttributes(element).equals(attributes);
+	}
+
+	private static Map<String, String> getAttributes(Element element) {
+		Map<String, String> attributes = new LinkedHashMap<>();
+		for (Attribute attribute : element.getAttributes()) {
+			attributes.put(attribute.getQualifiedName(), attribute.getValue());
+		}
+		return attributes;
+	}
+
+	private static Element createElement(XMLStreamReader reader) {
+		Element element = (reader.getNamespaceURI() == null || reader.getNamespaceURI().isEmpty()
+				? new Element(reader.getLocalName())
+				: new Element(reader.getLocalName(), reader.getPrefix(), reader.getNamespaceURI()));
+		for (int i = 0; i < reader.getAttributeCount(); i++) {
+			String prefix = reader.getAttributePrefix(i);
+			if (prefix == null || prefix.isEmpty()) {
+				element.setAttribute(reader.getAttributeLocalName(i), reader.getAttributeValue(i));
+			} else {
+				element.setAttribute(reader.getAttributeLocalName(i), reader.getAttributeValue(i),
+						Namespace.getNamespace(prefix, reader.getAttributeNamespace(i)));
+			}
+		}
+		return element;
+	}
+
+	private static String getQualifiedName(String prefix, String localName) {
+		return (prefix == null || prefix.isEmpty() ? localName : prefix + ":" + localName);
+	}
+
+	/**
+	 * The indentation of the children of a loaded element, taken from its first
+	 * child, or one step deeper than the element itself
+	 */
+	private static String getChildIndent(Source source) {
+		for (int i = 1; i < source.content.size(); i++) {
+			if (source.content.get(i) instanceof Element) {
+				String text = source.content.get(i - 1).toString();
+				if (text.contains("\n")) {
+					return getIndent(text);
+				}
+			}
+		}
+		return source.indent + (source.indent.contains("\t") ? "\t" : "  ");
+	}
+
+	/**
+	 * @return the whitespace after the last line break of the text, or nothing
+	 *         if the text does not end in indentation
+	 */
+	private static String getIndent(String text) {
+		int lineStart = getLineStart(text);
+		return (lineStart >= 0 ? text.substring(text.indexOf('\n', lineStart) + 1) : "");
+	}
+
+	/**
+	 * @return where the line break before the trailing indentation of the text
+	 *         starts, -1 if the text does not end in a blank line
+	 */
+	private static int getLineStart(String text) {
+		int lineBreak = text.lastIndexOf('\n');
+		if (lineBreak < 0 || !text.substring(lineBreak + 1).isBlank()) {
+			return -1;
+		}
+		return (lineBreak > 0 && text.charAt(lineBreak - 1) == '\r' ? lineBreak - 1 : lineBreak);
+	}
+
+	private static String escape(String value, char quote) {
+		StringBuilder escaped = new StringBuilder();
+		for (char c : value.toCharArray()) {
+			switch (c) {
+			case '&':
+				escaped.append("&amp;");
+				break;
+			case '<':
+				escaped.append("&lt;");
+				break;
+			case '"':
+				escaped.append(quote == '"' ? "&quot;" : "\"");
+				break;
+			case '\'':
+				escaped.append(quote == '\'' ? "&apos;" : "'");
+				break;
+			case '\n':
+				escaped.append("&#10;");
+				break;
+			case '\r':
+				escaped.append("&#13;");
+				break;
+			case '\t':
+				escaped.append("&#9;");
+				break;
+			default:
+				escaped.append(c);
+			}
+		}
+		return escaped.toString();
+	}
+
+	/**
+	 * Write original text, and learn the line separator of the file from it
+	 */
+	private void writeText(String text) throws IOException {
+		if (lineSeparator == null && text.contains("\n")) {
+			int lineBreak = text.indexOf('\n');
+			lineSeparator = (lineBreak > 0 && text.charAt(lineBreak - 1) == '\r' ? "\r\n" : "\n");
+		}
+		output.write(text);
+	}
+
+	private String getLineSeparator() {
+		return (lineSeparator != null ? lineSeparator : "\n");
+	}
+
+	/**
+	 * Splits the original text into markup and the character data before it.
+	 * CDATA sections count as character data, as StAX reports them as
+	 * characters.
+	 */
+	private static final class MarkupScanner {
+		private final BufferedReader input;
+		private final StringBuilder text = new StringBuilder();
+
+		private MarkupScanner(Reader input) {
+			this.input = new BufferedReader(input);
+		}
+
+		/**
+		 * @return true if the input starts with an XML declaration, after any byte
+		 *         order mark
+		 */
+		private boolean startsWithDeclaration() throws IOException {
+			char[] start = new char[7];
+			input.mark(start.length);
+			int length = input.read(start, 0, start.length);
+			input.reset();
+			String head = (length > 0 ? new String(start, 0, length) : "").replaceFirst("^\uFEFF", "");
+			return head.length() >= 6 && head.startsWith("<?xml") && Character.isWhitespace(head.charAt(5));
+		}
+
+		/**
+		 * Read the next tag, comment, processing instruction or document type
+		 * declaration
+		 *
+		 * @return the markup, the text before it is kept for {@link #getText()}
+		 */
+		private String next() throws IOException {
+			text.setLength(0);
+			while (true) {
+				int c = read();
+				if (c != '<') {
+					text.append((char) c);
+					continue;
+				}
+				StringBuilder markup = new StringBuilder("<");
+				int kind = append(markup);
+				if (kind == '!') {
+					int next = append(markup);
+					if (next == '-') {
+						append(markup);
+						appendUntil(markup, "-->");
+					} else if (next == '[') {
+						appendUntil(markup, "]]>");
+						text.append(markup);
+						continue;
+					} else {
+						appendDeclaration(markup);
+					}
+				} else if (kind == '?') {
+					appendUntil(markup, "?>");
+				} else if (kind != '>') {
+					appendTag(markup);
+				}
+				return markup.toString();
+			}
+		}
+
+		/**
+		 * @return the character data before the markup last read
+		 */
+		private String getText() {
+			return text.toString();
+		}
+
+		/**
+		 * @return everything left after the last markup
+		 */
+		private String rest() throws IOException {
+			StringBuilder rest = new StringBuilder();
+			char[] buffer = new char[8192];
+			int length;
+			while ((length = input.read(buffer)) != -1) {
+				rest.append(buffer, 0, length);
+			}
+			return rest.toString();
+		}
+
+		private int read() throws IOException {
+			int c = input.read();
+			if (c == -1) {
+				throw new EOFException("Unexpected end of XML");
+			}
+			return c;
+		}
+
+		private int append(StringBuilder markup) throws IOException {
+			int c = read();
+			markup.append((char) c);
+			return c;
+		}
+
+		private void appendUntil(StringBuilder markup, String end) throws IOException {
+			int start = markup.length();
+			while (markup.length() < start + end.length() || !markup.substring(markup.length() - end.length())
+					.equals(end)) {
+				append(markup);
+			}
+		}
+
+		// attribute values may hold a >
+		private void appendTag(StringBuilder markup) throws IOException {
+			int quote = 0;
+			int c = markup.charAt(markup.length() - 1);
+			while (true) {
+				if (quote != 0) {
+					if (c == quote) {
+						quote = 0;
+					}
+				} else if (c == '"' || c == '\'') {
+					quote = c;
+				} else if (c == '>') {
+					return;
+				}
+				c = append(markup);
+			}
+		}
+
+		// a document type declaration may hold an internal subset in brackets
+		private void appendDeclaration(StringBuilder markup) throws IOException {
+			int quote = 0;
+			int depth = 0;
+			int c = markup.charAt(markup.length() - 1);
+			while (true) {
+				if (quote != 0) {
+					if (c == quote) {
+						quote = 0;
+					}
+				} else if (c == '"' || c == '\'') {
+					quote = c;
+				} else if (c == '[') {
+					depth++;
+				} else if (c == ']') {
+					depth--;
+				} else if (c == '>' && depth == 0) {
+					return;
+				}
+				c = append(markup);
+			}
+		}
+	}
+}
@@ -7,6 +7,8 @@
  */
 package org.northcastle.tools.tomcat;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertThrows;
 import static org.junit.Assert.assertTrue;
 import static org.junit.jupiter.api.Assertions.assertAll;
@@ -14,8 +16,13 @@ import static org.junit.jupiter.api.Assertions.assertAll;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.List;
 
 import org.apache.commons.io.FileUtils;
+import org.jdom2.Attribute;
+import org.jdom2.Element;
+import org.jdom2.JDOMException;
+import org.jdom2.input.SAXBuilder;
 import org.junit.jupiter.api.AfterAll;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeAll;
@@ -40,7 +47,7 @@ class ServerConfigTest {
 	 */
 	@BeforeAll
 	static void setUpBeforeClass() throws Exception {
-		serverConfig = new ServerConfig();
+		serverConfig = new ServerConfig(new Tomcat());
 		configFile = Paths.get(serverConfig.getServerConfigFile());
 		testNoConnectionFile = Paths.get(testNoConnection);
 		testUpdateConnectionFile = Paths.get(testUpdateConnection);
@@ -102,6 +109,475 @@ class ServerConfigTest {
 		});
 	}
 
+	/**
+	 * Update config with a key type Tomcat does not name
+	 */
+	@Test
+	void testConfigEd25519() {
+		assertAll(new Executable() {
+
+			@Override
+			public void execute() throws Throwable {
+				new Tomcat().install();
+				FileUtils.deleteQuietly(configFile.toFile());
+				Files.copy(testNoConnectionFile, configFile);
+				try {
+					serverConfig.config.setProperty(Configuration.CONFIGURATOR_CERTIFICATE_SSL_ALGORITHM, "Ed25519");
+					serverConfig.configureSSLConnection();
+				} finally {
+					serverConfig.config.setProperty(Configuration.CONFIGURATOR_CERTIFICATE_SSL_ALGORITHM, "RSA");
+				}
+				assertTrue(Files.readString(configFile).contains("type=\"UNDEFINED\""));
+			}
+		});
+	}
+
+	/**
+	 * Dual certificates on a new connector and on an existing one
+	 */
+	@Test
+	void testConfigDual() {
+		assertAll(new Executable() {
+
+			@Override
+			public void execute() throws Throwable {
+				new Tomcat().install();
+				serverConfig.config.setProperty("configurator.certificate.ssl.dual", "true");
+				try {
+					for (Path testFile : List.of(testNoConnectionFile, testUpdateConnectionFile)) {
+						FileUtils.deleteQuietly(configFile.toFile());
+						Files.copy(testFile, configFile);
+						serverConfig.configureSSLConnection();
+						// running it again must not add more certificates
+						serverConfig.configureSSLConnection();
+						String content = Files.readString(configFile);
+						// the sample files also hold Certificates in comments, so count ours
+						assertEquals(2, content.split(Configuration.CONFIGURATOR_CERTIFICATE_SSL_PASSWORD).length - 1);
+						assertTrue(content.contains("certificateKeyAlias=\"rsa\""));
+						assertTrue(content.contains("certificateKeyAlias=\"ec\""));
+						assertTrue(content.contains("type=\"EC\""));
+					}
+				} finally {
+					serverConfig.config.remove("configurator.certificate.ssl.dual");
+				}
+
+				// back to a single certificate drops the EC one
+				serverConfig.configureSSLConnection();
+				String content = Files.readString(configFile);
+				assertEquals(1, content.split(Configuration.CONFIGURATOR_CERTIFICATE_SSL_PASSWORD).length - 1);
+				assertFalse(content.contains("certificateKeyAlias"));
+			}
+		});
+	}
+
+	/**
+	 * One SSLHostConfig per virtual host on a new connector and on an existing one
+	 */
+	@Test
+	void testConfigHosts() {
+		assertAll(new Executable() {
+
+			@Override
+			public void execute() throws Throwable {
+				new Tomcat().install();
+				serverConfig.config.setProperty("configurator.certificate.ssl.hosts", "a.example.com, b.example.com=b.p12");
+				try {
+					for (Path testFile : List.of(testNoConnectionFile, testUpdateConnectionFile)) {
+						FileUtils.deleteQuietly(configFile.toFile());
+						Files.copy(testFile, configFile);
+						serverConfig.configureSSLConnection();
+						// running it again must not add more host configurations
+						serverConfig.configureSSLConnection();
+						String content = Files.readString(configFile);
+						assertEquals(3, content.split(Configuration.CONFIGURATOR_CERTIFICATE_SSL_PASSWORD).length - 1);
+						assertEquals(1, content.split("hostName=\"a.example.com\"").length - 1);
+						assertTrue(content.contains("conf/a.example.com.p12"));
+						assertTrue(content.contains("conf/b.p12"));
+					}
+				} finally {
+					serverConfig.config.remove("configurator.certificate.ssl.hosts");
+				}
+			}
+		});
+	}
+
+	/**
+	 * PEM files and the OpenSSL implementation, and back to a key store and JSSE
+	 */
+	@Test
+	void testConfigOpenSSL() {
+		assertAll(new Executable() {
+
+			@Override
+			public void execute() throws Throwable {
+				new Tomcat().install();
+				FileUtils.deleteQuietly(configFile.toFile());
+				Files.copy(testNoConnectionFile, configFile);
+				Path library = Paths.get(serverConfig.config.getProperty("configurator.target.directory"), "bin",
+						"tcnative-2.dll");
+				try {
+					serverConfig.config.setProperty("configurator.certificate.ssl.pem", "true");
+					serverConfig.config.setProperty("configurator.tomcat.connector.ssl.implementation", "auto");
+					// without the native library, auto stays on JSSE
+					Files.deleteIfExists(library);
+					serverConfig.configureSSLConnection();
+					String content = Files.readString(configFile);
+					assertFalse(content.contains("sslImplementationName"));
+					assertTrue(content.contains("certificateFile=\"conf/sample.crt\""));
+					assertTrue(content.contains("certificateKeyFile=\"conf/sample.key\""));
+					assertFalse(content.contains(Configuration.CONFIGURATOR_CERTIFICATE_SSL_PASSWORD));
+
+					Files.createDirectories(library.getParent());
+					Files.createFile(library);
+					serverConfig.configureSSLConnection();
+					content = Files.readString(configFile);
+					assertTrue(content.contains("org.apache.tomcat.util.net.openssl.OpenSSLImplementation"));
+					assertTrue(content.contains("SSLEngine=\"on\""));
+				} finally {
+					serverConfig.config.remove("configurator.certificate.ssl.pem");
+					serverConfig.config.remove("configurator.tomcat.connector.ssl.implementation");
+					Files.deleteIfExists(library);
+				}
+
+				serverConfig.configureSSLConnection();
+				String content = Files.readString(configFile);
+				assertFalse(content.contains("sslImplementationName"));
+				assertFalse(content.contains("certificateFile"));
+				assertEquals(1, content.split(Configuration.CONFIGURATOR_CERTIFICATE_SSL_PASSWORD).length - 1);
+			}
+		});
+	}
+
+	/**
+	 * Session settings from the resumption profile, with an override, on every
+	 * SSLHostConfig of a new connector and an existing one
+	 */
+	@Test
+	void testConfigSession() {
+		assertAll(new Executable() {
+
+			@Override
+			public void execute() throws Throwable {
+				new Tomcat().install();
+				serverConfig.config.setProperty("configurator.tomcat.connector.ssl.session.profile", "resumption");
+				serverConfig.config.setProperty("configurator.tomcat.connector.ssl.session.timeout", "3600");
+				serverConfig.config.setProperty("configurator.certificate.ssl.hosts", "a.example.com");
+				try {
+					for (Path testFile : List.of(testNoConnectionFile, testUpdateConnectionFile)) {
+						FileUtils.deleteQuietly(configFile.toFile());
+						Files.copy(testFile, configFile);
+						serverConfig.configureSSLConnection();
+						String content = Files.readString(configFile);
+						assertEquals(2, content.split("sessionCacheSize=\"20480\"").length - 1);
+						assertEquals(2, content.split("sessionTimeout=\"3600\"").length - 1);
+						assertEquals(2, content.split("protocols=\"TLSv1.2\\+TLSv1.3\"").length - 1);
+						assertTrue(content.contains("disableSessionTickets=\"false\""));
+					}
+				} finally {
+					serverConfig.config.remove("configurator.tomcat.connector.ssl.session.profile");
+					serverConfig.config.remove("configurator.tomcat.connector.ssl.session.timeout");
+					serverConfig.config.remove("configurator.certificate.ssl.hosts");
+				}
+			}
+		});
+	}
+
+	/**
+	 * Cipher policies, with the suite order following the AES hardware setting
+	 */
+	@Test
+	void testConfigPolicy() {
+		assertAll(new Executable() {
+
+			@Override
+			public void execute() throws Throwable {
+				new Tomcat().install();
+				FileUtils.deleteQuietly(configFile.toFile());
+				Files.copy(testUpdateConnectionFile, configFile);
+				try {
+					// the policy's protocols win over the session profile's
+					serverConfig.config.setProperty("configurator.tomcat.connector.ssl.session.profile", "resumption");
+					serverConfig.config.setProperty("configurator.tomcat.connector.ssl.policy", "modern");
+					serverConfig.configureSSLConnection();
+					String content = Files.readString(configFile);
+					assertTrue(content.contains("protocols=\"TLSv1.3\""));
+					assertTrue(content.contains("honorCipherOrder=\"false\""));
+					assertTrue(content.contains("TLS_AES_128_GCM_SHA256"));
+					assertFalse(content.contains("TLS_ECDHE_RSA_WITH_AES_128_GCM_SHA256"));
+
+					serverConfig.config.setProperty("configurator.tomcat.connector.ssl.policy", "performance");
+					serverConfig.config.setProperty("configurator.tomcat.connector.ssl.policy.aes", "false");
+					serverConfig.configureSSLConnection();
+					content = Files.readString(configFile);
+					assertTrue(content.contains("ciphers=\"TLS_CHACHA20_POLY1305_SHA256,"));
+					assertTrue(content.contains("honorCipherOrder=\"true\""));
+
+					serverConfig.config.setProperty("configurator.tomcat.connector.ssl.policy.aes", "true");
+					serverConfig.configureSSLConnection();
+					assertTrue(Files.readString(configFile).contains("ciphers=\"TLS_AES_128_GCM_SHA256,"));
+
+					serverConfig.config.setProperty("configurator.tomcat.connector.ssl.policy", "fastest");
+					assertThrows(RuntimeException.class, () -> serverConfig.configureSSLConnection());
+				} finally {
+					serverConfig.config.remove("configurator.tomcat.connector.ssl.session.profile");
+					serverConfig.config.remove("configurator.tomcat.connector.ssl.policy");
+					serverConfig.config.remove("configurator.tomcat.connector.ssl.policy.aes");
+				}
+			}
+		});
+	}
+
+	/**
+	 * Tuning profile sized for a given host, with an override, on the SSL and
+	 * non-SSL connectors
+	 */
+	@Test
+	void testConfigTuning() {
+		assertAll(new Executable() {
+
+			@Override
+			public void execute() throws Throwable {
+				new Tomcat().install();
+				serverConfig.config.setProperty("configurator.tomcat.connector.tuning", "throughput");
+				serverConfig.config.setProperty("configurator.tomcat.connector.tuning.cores", "4");
+				serverConfig.config.setProperty("configurator.tomcat.connector.tuning.memory", "8192");
+				serverConfig.config.setProperty("configurator.tomcat.connector.tuning.maxKeepAliveRequests", "500");
+				try {
+					for (Path testFile : List.of(testNoConnectionFile, testUpdateConnectionFile)) {
+						FileUtils.deleteQuietly(configFile.toFile());
+						Files.copy(testFile, configFile);
+						serverConfig.configureSSLConnection();
+						String content = Files.readString(configFile);
+						assertEquals(2, content.split("maxThreads=\"100\"").length - 1);
+						assertEquals(2, content.split("acceptCount=\"512\"").length - 1);
+						assertEquals(2, content.split("maxKeepAliveRequests=\"500\"").length - 1);
+					}
+
+					// a small machine caps the threads by memory
+					serverConfig.config.setProperty("configurator.tomcat.connector.tuning", "latency");
+					serverConfig.config.setProperty("configurator.tomcat.connector.tuning.memory", "512");
+					serverConfig.configureSSLConnection();
+					assertTrue(Files.readString(configFile).contains("maxThreads=\"64\""));
+				} finally {
+					serverConfig.config.remove("configurator.tomcat.connector.tuning");
+					serverConfig.config.remove("configurator.tomcat.connector.tuning.cores");
+					serverConfig.config.remove("configurator.tomcat.connector.tuning.memory");
+					serverConfig.config.remove("configurator.tomcat.connector.tuning.maxKeepAliveRequests");
+				}
+			}
+		});
+	}
+
+	/**
+	 * Shared executor, virtual on Tomcat 10.1 and platform on older versions
+	 */
+	@Test
+	void testConfigExecutor() {
+		assertAll(new Executable() {
+
+			@Override
+			public void execute() throws Throwable {
+				new Tomcat().install();
+				Path releaseNotes = Paths.get(new Tomcat().getInstallDirectory(), "RELEASE-NOTES");
+				String notes = Files.readString(releaseNotes);
+				serverConfig.config.setProperty("configurator.tomcat.connector.executor", "virtual");
+				serverConfig.config.setProperty("configurator.tomcat.connector.executor.name", "sharedPool");
+				serverConfig.config.setProperty("configurator.tomcat.java.version", "21");
+				serverConfig.config.setProperty("configurator.tomcat.connector.tuning", "throughput");
+				serverConfig.config.setProperty("configurator.tomcat.connector.tuning.cores", "4");
+				serverConfig.config.setProperty("configurator.tomcat.connector.tuning.memory", "8192");
+				try {
+					for (Path testFile : List.of(testNoConnectionFile, testUpdateConnectionFile)) {
+						FileUtils.deleteQuietly(configFile.toFile());
+						Files.copy(testFile, configFile);
+						serverConfig.configureSSLConnection();
+						String content = Files.readString(configFile);
+						assertEquals(1, content.split("<Executor name=\"sharedPool\"").length - 1);
+						assertTrue(content.contains("org.apache.catalina.core.StandardVirtualThreadExecutor"));
+						assertEquals(2, content.split("executor=\"sharedPool\"").length - 1);
+						assertFalse(content.contains("maxThreads=\"100\""));
+						assertTrue(content.indexOf("<Executor name=\"sharedPool\"") < content.indexOf("<Connector port"));
+					}
+
+					// a Java too old for virtual threads gets a platform pool
+					serverConfig.config.setProperty("configurator.tomcat.java.version", "17");
+					serverConfig.configureSSLConnection();
+					assertFalse(Files.readString(configFile).contains("org.apache.catalina.core.StandardVirtualThreadExecutor"));
+					serverConfig.config.setProperty("configurator.tomcat.java.version", "21");
+
+					// an image too old for virtual threads gets a platform pool with the tuned limits
+					Files.writeString(releaseNotes, "Apache Tomcat Version 9.0.50");
+					serverConfig.configureSSLConnection();
+					String content = Files.readString(configFile);
+					assertEquals(1, content.split("<Executor name=\"sharedPool\"").length - 1);
+					assertFalse(content.contains("org.apache.catalina.core.StandardVirtualThreadExecutor"));
+					assertEquals(1, content.split("maxThreads=\"100\"").length - 1);
+					assertTrue(content.contains("minSpareThreads=\"10\""));
+				} finally {
+					Files.writeString(releaseNotes, notes);
+					serverConfig.config.remove("configurator.tomcat.java.version");
+					serverConfig.config.remove("configurator.tomcat.connector.executor");
+					serverConfig.config.remove("configurator.tomcat.connector.executor.name");
+					serverConfig.config.remove("configurator.tomcat.connector.tuning");
+					serverConfig.config.remove("configurator.tomcat.connector.tuning.cores");
+					serverConfig.config.remove("configurator.tomcat.connector.tuning.memory");
+				}
+			}
+		});
+	}
+
+	/**
+	 * HTTP/2 profile on new and existing SSL connectors
+	 */
+	@Test
+	void testConfigHttp2() {
+		assertAll(new Executable() {
+
+			@Override
+			public void execute() throws Throwable {
+				new Tomcat().install();
+				String upgrade = "<UpgradeProtocol className=\"org.apache.coyote.http2.Http2Protocol\"";
+				try {
+					// a new connector offers HTTP/2 even without a profile
+					FileUtils.deleteQuietly(configFile.toFile());
+					Files.copy(testNoConnectionFile, configFile);
+					serverConfig.configureSSLConnection();
+					assertTrue(Files.readString(configFile).contains(upgrade + " />"));
+
+					serverConfig.config.setProperty("configurator.tomcat.connector.http2", "latency");
+					serverConfig.config.setProperty("configurator.tomcat.connector.http2.readTimeout", "7000");
+					serverConfig.config.setProperty("configurator.tomcat.connector.http2.overheadCountFactor", "5");
+					for (Path testFile : List.of(testNoConnectionFile, testUpdateConnectionFile)) {
+						// the existing connector has its UpgradeProtocol taken away, so it has to be added
+						FileUtils.deleteQuietly(configFile.toFile());
+						Files.writeString(configFile, Files.readString(testFile).replace(upgrade + " />", ""));
+						serverConfig.configureSSLConnection();
+						String content = Files.readString(configFile);
+						assertEquals(1, content.split(upgrade).length - 1);
+						assertTrue(content.contains("maxConcurrentStreams=\"256\""));
+						assertTrue(content.contains("initialWindowSize=\"1048576\""));
+						assertTrue(content.contains("readTimeout=\"7000\""));
+						assertTrue(content.contains("overheadCountFactor=\"5\""));
+						assertTrue(content.contains("certificateKeystoreFile="));
+					}
+				} finally {
+					serverConfig.config.remove("configurator.tomcat.connector.http2");
+					serverConfig.config.remove("configurator.tomcat.connector.http2.readTimeout");
+					serverConfig.config.remove("configurator.tomcat.connector.http2.overheadCountFactor");
+				}
+			}
+		});
+	}
+
+	/**
+	 * Compression on both connectors, sendfile only without TLS
+	 */
+	@Test
+	void testConfigDelivery() {
+		assertAll(new Executable() {
+
+			@Override
+			public void execute() throws Throwable {
+				new Tomcat().install();
+				serverConfig.config.setProperty("configurator.tomcat.connector.delivery", "api");
+				serverConfig.config.setProperty("configurator.tomcat.connector.delivery.minsize", "512");
+				try {
+					for (Path testFile : List.of(testNoConnectionFile, testUpdateConnectionFile)) {
+						FileUtils.deleteQuietly(configFile.toFile());
+						Files.copy(testFile, configFile);
+						serverConfig.configureSSLConnection();
+						String content = Files.readString(configFile);
+						assertEquals(2, content.split("compression=\"on\"").length - 1);
+						assertEquals(2, content.split("compressionMinSize=\"512\"").length - 1);
+						assertEquals(2, content.split("compressibleMimeType=\"application/json,").length - 1);
+						assertEquals(1, content.split("useSendfile=\"true\"").length - 1);
+						assertEquals(1, content.split("useSendfile=\"false\"").length - 1);
+					}
+
+					// configured MIME types replace the profile's
+					serverConfig.config.setProperty("configurator.tomcat.connector.delivery.mimetypes", "text/html, text/css");
+					serverConfig.configureSSLConnection();
+					assertEquals(2, Files.readString(configFile).split("compressibleMimeType=\"text/html,text/css\"").length - 1);
+				} finally {
+					serverConfig.config.remove("configurator.tomcat.connector.delivery");
+					serverConfig.config.remove("configurator.tomcat.connector.delivery.minsize");
+					serverConfig.config.remove("configurator.tomcat.connector.delivery.mimetypes");
+				}
+			}
+		});
+	}
+
+	/**
+	 * Streaming update makes the changes of the JDOM update and keeps the rest
+	 * of the file as it was
+	 */
+	@Test
+	void testConfigStreaming() {
+		assertAll(new Executable() {
+
+			@Override
+			public void execute() throws Throwable {
+				new Tomcat().install();
+				serverConfig.config.setProperty("configurator.tomcat.connector.executor", "platform");
+				serverConfig.config.setProperty("configurator.tomcat.connector.http2", "latency");
+				serverConfig.config.setProperty("configurator.tomcat.connector.ssl.implementation", "openssl");
+				try {
+					for (Path testFile : List.of(testNoConnectionFile, testUpdateConnectionFile)) {
+						// the JDOM update, to compare with
+						serverConfig.config.remove("configurator.tomcat.file.serverxml.streaming");
+						FileUtils.deleteQuietly(configFile.toFile());
+						Files.copy(testFile, configFile);
+						serverConfig.configureSSLConnection();
+						String expected = describe(new SAXBuilder().build(configFile.toFile()).getRootElement());
+
+						serverConfig.config.setProperty("configurator.tomcat.file.serverxml.streaming", "true");
+						FileUtils.deleteQuietly(configFile.toFile());
+						Files.copy(testFile, configFile);
+						serverConfig.configureSSLConnection();
+						String original = Files.readString(testFile);
+						String content = Files.readString(configFile);
+						assertEquals(expected, describe(new SAXBuilder().build(configFile.toFile()).getRootElement()));
+
+						// comments are kept, and so is everything before the first change
+						assertEquals(original.split("<!--").length, content.split("<!--").length);
+						int firstChange = original.indexOf("<Listener className=\"org.apache.catalina.core.AprLifecycleListener\"");
+						assertEquals(original.substring(0, firstChange), content.substring(0, firstChange));
+
+						// a second pass has nothing left to change
+						serverConfig.configureSSLConnection();
+						assertEquals(content, Files.readString(configFile));
+					}
+
+					// a file that is not well-formed is left alone
+					String broken = "<Server>\n  <Service name=\"Catalina\">\n</Server>\n";
+					Files.writeString(configFile, broken);
+					assertThrows(JDOMException.class, () -> serverConfig.configureSSLConnection());
+					assertEquals(broken, Files.readString(configFile));
+				} finally {
+					serverConfig.config.remove("configurator.tomcat.file.serverxml.streaming");
+					serverConfig.config.remove("configurator.tomcat.connector.executor");
+					serverConfig.config.remove("configurator.tomcat.connector.http2");
+					serverConfig.config.remove("configurator.tomcat.connector.ssl.implementation");
+				}
+			}
+		});
+	}
+
+	/**
+	 * @return the element names and attributes of a tree, in document order
+	 */
+	private static String describe(Element element) {
+		StringBuilder description = new StringBuilder(element.getName());
+		for (Attribute attribute : element.getAttributes()) {
+			description.append(' ').append(attribute.getName()).append('=').append(attribute.getValue());
+		}
+		description.append(" [");
+		for (Element child : element.getChildren()) {
+			description.append(describe(child));
+		}
+		return description.append("] ").toString();
+	}
+
 	/**
 	 * Update config when file does not exist
 	 */
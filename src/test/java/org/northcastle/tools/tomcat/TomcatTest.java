@@ -7,14 +7,39 @@
  */
 package org.northcastle.tools.tomcat;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertThrows;
 import static org.junit.Assert.assertTrue;
 
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFilePermission;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.apache.commons.compress.compressors.gzip.GzipCompressorOutputStream;
+import org.apache.commons.io.FileUtils;
 import org.junit.jupiter.api.AfterAll;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.northcastle.util.ImageCache;
+import org.northcastle.util.TreeVerifier;
+import org.northcastle.util.ZIPFileUtil;
 
 /**
  *
@@ -40,10 +65,15 @@ class TomcatTest {
 	}
 
 	/**
+	 * Install the sample image unless a test configures another one
+	 *
 	 * @throws java.lang.Exception
 	 */
 	@BeforeEach
 	void setUp() throws Exception {
+		tomcatClass.config.setProperty("configurator.tomcat.image.directory","src/main/resources/10.1.28-Windows-x64");
+		tomcatClass.config.setProperty("configurator.tomcat.image.zip.file","apache-tomcat-10.1.28-windows-x64.zip");
+		tomcatClass.config.setProperty("configurator.tomcat.image.zip.stripdirectories","1");
 	}
 
 	/**
@@ -105,6 +135,504 @@ class TomcatTest {
 		});
 	}	
 
+	/**
+	 * Test an install that expands the image on four threads
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	void testParallelInstall() throws Exception {
+		tomcatClass.config.setProperty("configurator.tomcat.image.zip.threads","4");
+		tomcatClass.remove();
+		tomcatClass.install();
+		tomcatClass.config.remove("configurator.tomcat.image.zip.threads");
+		assertTrue(tomcatClass.isInstalled());
+	}
+
+	/**
+	 * Test that verify reports missing, modified and extra files against the image,
+	 * and ignores the files the configurator writes
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	void testVerify() throws Exception {
+		tomcatClass.remove();
+		tomcatClass.install();
+		assertTrue(tomcatClass.verify().isClean());
+
+		// the files the configurator writes do not count
+		Path serverXml = Paths.get(tomcatClass.getInstallDirectory(), "conf", "server.xml");
+		Files.writeString(serverXml, "X" + Files.readString(serverXml).substring(1));
+		Files.writeString(Paths.get(tomcatClass.getInstallDirectory(), "conf", "catalina.properties"), "configured");
+		Files.writeString(Paths.get(tomcatClass.getInstallDirectory(), "conf", "sample.keystore"), "keystore");
+		Files.writeString(Paths.get(tomcatClass.getInstallDirectory(), "conf", "sample.crt"), "certificate");
+		assertTrue(tomcatClass.verify().isClean());
+
+		// same size, different contents
+		Path index = Paths.get(tomcatClass.getInstallDirectory(), "webapps", "ROOT", "index.jsp");
+		Files.writeString(index, "X" + Files.readString(index).substring(1));
+		Files.delete(Paths.get(tomcatClass.getInstallDirectory(), "RELEASE-NOTES"));
+		Files.writeString(Paths.get(tomcatClass.getInstallDirectory(), "lib", "extra.jar"), "extra");
+		Files.createDirectories(Paths.get(tomcatClass.getInstallDirectory(), "logs"));
+		Files.writeString(Paths.get(tomcatClass.getInstallDirectory(), "logs", "catalina.log"), "log");
+
+		TreeVerifier.Report report = tomcatClass.verify();
+		assertEquals(List.of("RELEASE-NOTES"), report.getMissing());
+		assertEquals(List.of("webapps/ROOT/index.jsp"), report.getModified());
+		assertEquals(List.of("lib/extra.jar"), report.getExtra());
+	}
+
+	/**
+	 * Test installs from the image cache. The image is expanded once, webapps are
+	 * copied, the rest is hard linked, and unpacking over the install replaces the
+	 * links instead of writing through them
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	void testCachedInstall() throws Exception {
+		Path cacheDir = Paths.get("target/deploy/cache");
+		tomcatClass.config.setProperty("configurator.tomcat.image.cache.directory", cacheDir.toString());
+		FileUtils.deleteQuietly(cacheDir.toFile());
+		tomcatClass.remove();
+		// first install fills the cache, second one is linked from it
+		tomcatClass.install();
+		tomcatClass.remove();
+		tomcatClass.install();
+		tomcatClass.config.remove("configurator.tomcat.image.cache.directory");
+		assertTrue(tomcatClass.isInstalled());
+		// the cache also keeps a hidden lock file per image
+		Path cachedJar;
+		try (Stream<Path> images = Files.list(cacheDir)) {
+			List<Path> cached = images.filter(image -> !image.getFileName().toString().startsWith(".")).toList();
+			assertEquals(1, cached.size());
+			cachedJar = cached.get(0).resolve("lib").resolve("catalina.jar");
+		}
+
+		if (FileSystems.getDefault().supportedFileAttributeViews().contains("unix")) {
+			// webapps are copied, the rest is linked
+			assertEquals(1, Files.getAttribute(Paths.get(tomcatClass.getInstallDirectory(), "webapps", "ROOT", "index.jsp"),
+					"unix:nlink"));
+			assertEquals(2, Files.getAttribute(cachedJar, "unix:nlink"));
+		}
+
+		// unpacking over the linked install replaces the links instead of writing through them
+		tomcatClass.install();
+		if (FileSystems.getDefault().supportedFileAttributeViews().contains("unix")) {
+			assertEquals(1, Files.getAttribute(cachedJar, "unix:nlink"));
+		}
+		FileUtils.deleteQuietly(cacheDir.toFile());
+	}
+
+	/**
+	 * Test reading the version of the installed Tomcat and comparing versions
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	void testVersion() throws Exception {
+		tomcatClass.remove();
+		tomcatClass.install();
+		assertEquals("10.1.28", tomcatClass.getVersion());
+		assertTrue(Tomcat.isVersionAtLeast("10.1.28", "10.1"));
+		assertTrue(Tomcat.isVersionAtLeast("11.0.0-M5", "10.1.0"));
+		assertFalse(Tomcat.isVersionAtLeast("9.0.98", "10.1.0"));
+		assertFalse(Tomcat.isVersionAtLeast(null, "10.1.0"));
+	}
+
+	/**
+	 * Test a split install, with the image in CATALINA_HOME and only the instance
+	 * directories in the base
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	void testSplitInstall() throws Exception {
+		Path homeDir = Paths.get("target/deploy/home");
+		tomcatClass.config.setProperty("configurator.tomcat.home.directory", homeDir.toString());
+		FileUtils.deleteQuietly(homeDir.toFile());
+		tomcatClass.remove();
+		tomcatClass.install();
+		assertTrue(tomcatClass.isInstalled());
+		// the base only holds the instance directories
+		assertTrue(Files.isDirectory(Paths.get(tomcatClass.getHomeDirectory(), "lib")));
+		assertFalse(Files.exists(Paths.get(tomcatClass.getInstallDirectory(), "lib")));
+		assertTrue(Files.isWritable(Paths.get(tomcatClass.getInstallDirectory(), "conf", "server.xml")));
+		tomcatClass.config.remove("configurator.tomcat.home.directory");
+		FileUtils.deleteQuietly(homeDir.toFile());
+	}
+
+	/**
+	 * Test that a read-only CATALINA_HOME made from the image cache does not change
+	 * the modes of the cached files
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	void testSplitCachedInstall() throws Exception {
+		Path homeDir = Paths.get("target/deploy/home");
+		Path cacheDir = Paths.get("target/deploy/cache");
+		tomcatClass.config.setProperty("configurator.tomcat.home.directory", homeDir.toString());
+		tomcatClass.config.setProperty("configurator.tomcat.image.cache.directory", cacheDir.toString());
+		FileUtils.deleteQuietly(homeDir.toFile());
+		FileUtils.deleteQuietly(cacheDir.toFile());
+		tomcatClass.remove();
+		try {
+			tomcatClass.install();
+			assertTrue(tomcatClass.isInstalled());
+
+			// the read-only CATALINA_HOME does not change the files in the cache
+			tomcatClass.config.remove("configurator.tomcat.home.directory");
+			tomcatClass.remove();
+			tomcatClass.install();
+			if (FileSystems.getDefault().supportedFileAttributeViews().contains("posix")) {
+				assertFalse(Files.getPosixFilePermissions(Paths.get(homeDir.toString(),
+						"apache-tomcat-10.1.28-windows-x64", "lib", "catalina.jar")).contains(PosixFilePermission.OWNER_WRITE));
+				assertTrue(Files.getPosixFilePermissions(Paths.get(tomcatClass.getInstallDirectory(), "lib", "catalina.jar"))
+						.contains(PosixFilePermission.OWNER_WRITE));
+			}
+		} finally {
+			tomcatClass.config.remove("configurator.tomcat.home.directory");
+			tomcatClass.config.remove("configurator.tomcat.image.cache.directory");
+			FileUtils.deleteQuietly(homeDir.toFile());
+			FileUtils.deleteQuietly(cacheDir.toFile());
+		}
+	}
+
+	/**
+	 * Test that an incremental install restores a damaged file and deletes a file
+	 * left over from an older image
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	void testIncrementalInstall() throws Exception {
+		tomcatClass.config.setProperty("configurator.tomcat.image.zip.incremental","true");
+		tomcatClass.config.setProperty("configurator.tomcat.image.zip.incremental.delete","true");
+		tomcatClass.remove();
+		tomcatClass.install();
+
+		// damage one file, and pretend another came from an older image
+		Path serverXml = Paths.get(tomcatClass.getInstallDirectory(), "conf", "server.xml");
+		Path stale = Paths.get(tomcatClass.getInstallDirectory(), "lib", "stale.jar");
+		Path manifest = Paths.get(tomcatClass.getInstallDirectory(), ".zipmanifest");
+		Files.writeString(serverXml, "damaged");
+		Files.writeString(stale, "stale");
+		Files.writeString(manifest, "lib/stale.jar=0,5,0\n", StandardOpenOption.APPEND);
+
+		tomcatClass.install();
+		tomcatClass.config.remove("configurator.tomcat.image.zip.incremental");
+		tomcatClass.config.remove("configurator.tomcat.image.zip.incremental.delete");
+		assertTrue(tomcatClass.isInstalled());
+		assertTrue(Files.readString(serverXml).contains("<Server"));
+		assertFalse(Files.exists(stale));
+	}
+
+	/**
+	 * Test that a journaled install resumes after the last recorded entry, without
+	 * writing the recorded files again
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	void testJournaledInstall() throws Exception {
+		tomcatClass.config.setProperty("configurator.tomcat.image.zip.journal","true");
+		tomcatClass.remove();
+		tomcatClass.install();
+		assertTrue(tomcatClass.isInstalled());
+
+		// pretend the install died after server.xml was recorded, and mark the file so a
+		// rewrite would show
+		Path journal = Paths.get(tomcatClass.getInstallDirectory(), ".zipjournal");
+		Path serverXml = Paths.get(tomcatClass.getInstallDirectory(), "conf", "server.xml");
+		List<String> records = new ArrayList<>();
+		for (String record : Files.readAllLines(journal)) {
+			if (record.startsWith("BEGIN") || record.endsWith("\tconf/server.xml")) {
+				records.add(record);
+			}
+		}
+		Files.write(journal, records);
+		String marked = "X" + Files.readString(serverXml).substring(1);
+		Files.writeString(serverXml, marked);
+		assertFalse(tomcatClass.isInstalled());
+
+		tomcatClass.install();
+		tomcatClass.config.remove("configurator.tomcat.image.zip.journal");
+		assertTrue(tomcatClass.isInstalled());
+		assertEquals(marked, Files.readString(serverXml));
+		assertTrue(Files.readAllLines(journal).contains("COMPLETE"));
+	}
+
+	/**
+	 * Test that an expansion into the image cache that died is resumed from its
+	 * journal and published without the journal
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	void testJournaledCachedInstall() throws Exception {
+		Path cacheDir = Paths.get("target/deploy/cache");
+		Path image = Paths.get("src/main/resources/10.1.28-Windows-x64", "apache-tomcat-10.1.28-windows-x64.zip");
+		tomcatClass.config.setProperty("configurator.tomcat.image.zip.journal","true");
+		tomcatClass.config.setProperty("configurator.tomcat.image.cache.directory", cacheDir.toString());
+		FileUtils.deleteQuietly(cacheDir.toFile());
+		tomcatClass.remove();
+		try {
+			// pretend an earlier run died while filling the cache, after server.xml was recorded
+			String key = ImageCache.cacheKey(image, 1, null);
+			Path stagingDir = cacheDir.resolve("." + key + ".staging");
+			ZIPFileUtil.expandZIPFile(image, stagingDir, true, 1, 1, null, true);
+			Path journal = stagingDir.resolve(".zipjournal");
+			List<String> records = new ArrayList<>();
+			for (String record : Files.readAllLines(journal)) {
+				if (record.startsWith("BEGIN") || record.endsWith("\tconf/server.xml")) {
+					records.add(record);
+				}
+			}
+			Files.write(journal, records);
+			Path serverXml = stagingDir.resolve("conf").resolve("server.xml");
+			String marked = "X" + Files.readString(serverXml).substring(1);
+			Files.writeString(serverXml, marked);
+
+			// the rerun resumes the staged image and publishes it without its journal
+			tomcatClass.install();
+			assertTrue(tomcatClass.isInstalled());
+			assertEquals(marked, Files.readString(cacheDir.resolve(key).resolve("conf").resolve("server.xml")));
+			assertFalse(Files.exists(cacheDir.resolve(key).resolve(".zipjournal")));
+			assertFalse(Files.exists(stagingDir));
+
+			// a target without a completed journal is not installed
+			Files.delete(Paths.get(tomcatClass.getInstallDirectory(), ".zipjournal"));
+			assertFalse(tomcatClass.isInstalled());
+		} finally {
+			tomcatClass.config.remove("configurator.tomcat.image.zip.journal");
+			tomcatClass.config.remove("configurator.tomcat.image.cache.directory");
+			FileUtils.deleteQuietly(cacheDir.toFile());
+		}
+	}
+
+	/**
+	 * Test installs checked against a SHA-512 digest, given as the bare digest or
+	 * as the .sha512 file Apache publishes. A wrong or malformed digest leaves
+	 * nothing behind
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	void testVerifiedInstall() throws Exception {
+		Path image = Paths.get("src/main/resources/10.1.28-Windows-x64", "apache-tomcat-10.1.28-windows-x64.zip");
+		StringBuilder sha512 = new StringBuilder();
+		for (byte b : MessageDigest.getInstance("SHA-512").digest(Files.readAllBytes(image))) {
+			sha512.append(String.format("%02x", b));
+		}
+
+		// a bad digest leaves nothing behind
+		tomcatClass.config.setProperty("configurator.tomcat.image.zip.sha512", "00" + sha512.substring(2));
+		tomcatClass.remove();
+		assertThrows(IOException.class,() -> {
+			tomcatClass.install();
+		});
+		assertFalse(Files.exists(Paths.get(tomcatClass.getInstallDirectory())));
+
+		// a value that is not a digest is rejected before anything is written
+		tomcatClass.config.setProperty("configurator.tomcat.image.zip.sha512", "*apache-tomcat-10.1.28-windows-x64.zip");
+		assertThrows(IOException.class,() -> {
+			tomcatClass.install();
+		});
+		assertFalse(Files.exists(Paths.get(tomcatClass.getInstallDirectory())));
+
+		tomcatClass.config.setProperty("configurator.tomcat.image.zip.sha512", sha512.toString());
+		tomcatClass.install();
+		assertTrue(tomcatClass.isInstalled());
+
+		// the contents of the .sha512 file Apache publishes
+		tomcatClass.config.setProperty("configurator.tomcat.image.zip.sha512",
+				sha512.toString().toUpperCase() + " *apache-tomcat-10.1.28-windows-x64.zip\n");
+		tomcatClass.remove();
+		tomcatClass.install();
+		tomcatClass.config.remove("configurator.tomcat.image.zip.sha512");
+		assertTrue(tomcatClass.isInstalled());
+	}
+
+	/**
+	 * A verified install that fails on an entry name it cannot use leaves
+	 * nothing behind, like a digest mismatch does
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	void testVerifiedInstallRollback() throws Exception {
+		Path imageDir = Paths.get("target/deploy/image");
+		Path image = imageDir.resolve("apache-tomcat-test.zip");
+		Files.createDirectories(imageDir);
+		try (ZipOutputStream zipOutput = new ZipOutputStream(Files.newOutputStream(image))) {
+			zipOutput.putNextEntry(new ZipEntry("apache-tomcat-test/conf/server.xml"));
+			zipOutput.write(Files.readAllBytes(Paths.get("src/test/resources/testDefault.xml")));
+			zipOutput.closeEntry();
+			zipOutput.putNextEntry(new ZipEntry("apache-tomcat-test/conf/bad\0name"));
+			zipOutput.closeEntry();
+		}
+		StringBuilder sha512 = new StringBuilder();
+		for (byte b : MessageDigest.getInstance("SHA-512").digest(Files.readAllBytes(image))) {
+			sha512.append(String.format("%02x", b));
+		}
+		tomcatClass.config.setProperty("configurator.tomcat.image.directory", imageDir.toString());
+		tomcatClass.config.setProperty("configurator.tomcat.image.zip.file", image.getFileName().toString());
+		tomcatClass.config.setProperty("configurator.tomcat.image.zip.sha512", sha512.toString());
+		tomcatClass.remove();
+		try {
+			assertThrows(InvalidPathException.class,() -> {
+				tomcatClass.install();
+			});
+			assertFalse(Files.exists(Paths.get(tomcatClass.getInstallDirectory())));
+		} finally {
+			tomcatClass.config.remove("configurator.tomcat.image.zip.sha512");
+			FileUtils.deleteQuietly(imageDir.toFile());
+		}
+	}
+
+	/**
+	 * Test that excluded entries and patterns are not installed
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	void testFilteredInstall() throws Exception {
+		tomcatClass.config.setProperty("configurator.tomcat.image.zip.threads","2");
+		tomcatClass.config.setProperty("configurator.tomcat.image.exclude","webapps/docs,webapps/examples,**.bat,**.exe");
+		tomcatClass.remove();
+		tomcatClass.install();
+		tomcatClass.config.remove("configurator.tomcat.image.zip.threads");
+		tomcatClass.config.remove("configurator.tomcat.image.exclude");
+		assertTrue(tomcatClass.isInstalled());
+		assertFalse(Files.exists(Paths.get(tomcatClass.getInstallDirectory(), "webapps", "docs")));
+		assertFalse(Files.exists(Paths.get(tomcatClass.getInstallDirectory(), "bin", "catalina.bat")));
+		assertTrue(Files.exists(Paths.get(tomcatClass.getInstallDirectory(), "bin", "catalina.sh")));
+	}
+
+	/**
+	 * Test installing a gzipped tar image, which keeps file modes and symbolic
+	 * links, and skips symbolic links that lead outside the target
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	void testTarInstall() throws Exception {
+		// build a small gzipped tar image, with an executable script and a link to it
+		Path imageDir = Paths.get("target/deploy/image");
+		Path image = imageDir.resolve("apache-tomcat-test.tar.gz");
+		Files.createDirectories(imageDir);
+		try (TarArchiveOutputStream tarOutput = new TarArchiveOutputStream(
+				new GzipCompressorOutputStream(Files.newOutputStream(image)))) {
+			addTarEntry(tarOutput, "apache-tomcat-test/conf/server.xml",
+					Files.readAllBytes(Paths.get("src/test/resources/testDefault.xml")), 0644);
+			addTarEntry(tarOutput, "apache-tomcat-test/conf/catalina.properties", new byte[0], 0644);
+			addTarEntry(tarOutput, "apache-tomcat-test/bin/catalina.sh", "#!/bin/sh\n".getBytes(), 0755);
+			TarArchiveEntry link = new TarArchiveEntry("apache-tomcat-test/bin/startup.sh", TarArchiveEntry.LF_SYMLINK);
+			link.setLinkName("catalina.sh");
+			tarOutput.putArchiveEntry(link);
+			tarOutput.closeArchiveEntry();
+			// links leading out of the target are not created
+			for (String[] escape : new String[][] { { "lib/escape", "../../.." }, { "lib/passwd", "/etc/passwd" } }) {
+				TarArchiveEntry outside = new TarArchiveEntry("apache-tomcat-test/" + escape[0], TarArchiveEntry.LF_SYMLINK);
+				outside.setLinkName(escape[1]);
+				tarOutput.putArchiveEntry(outside);
+				tarOutput.closeArchiveEntry();
+			}
+		}
+
+		tomcatClass.config.setProperty("configurator.tomcat.image.directory", imageDir.toString());
+		tomcatClass.config.setProperty("configurator.tomcat.image.zip.file", image.getFileName().toString());
+		tomcatClass.remove();
+		tomcatClass.install();
+		assertTrue(tomcatClass.isInstalled());
+		assertTrue(Files.isSymbolicLink(Paths.get(tomcatClass.getInstallDirectory(), "bin", "startup.sh")));
+		assertFalse(Files.exists(Paths.get(tomcatClass.getInstallDirectory(), "lib", "escape"), LinkOption.NOFOLLOW_LINKS));
+		assertFalse(Files.exists(Paths.get(tomcatClass.getInstallDirectory(), "lib", "passwd"), LinkOption.NOFOLLOW_LINKS));
+		if (FileSystems.getDefault().supportedFileAttributeViews().contains("posix")) {
+			assertTrue(Files.getPosixFilePermissions(Paths.get(tomcatClass.getInstallDirectory(), "bin", "catalina.sh"))
+					.contains(PosixFilePermission.OTHERS_EXECUTE));
+		}
+		FileUtils.deleteQuietly(imageDir.toFile());
+	}
+
+	/**
+	 * Tar entries and hard links that lead outside the target fail the install
+	 * and leave nothing behind. Symbolic links that only leave the target
+	 * through a link created before them are skipped.
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	void testMaliciousTarInstall() throws Exception {
+		Path imageDir = Paths.get("target/deploy/image");
+		Path image = imageDir.resolve("apache-tomcat-test.tar.gz");
+		Files.createDirectories(imageDir);
+		tomcatClass.config.setProperty("configurator.tomcat.image.directory", imageDir.toString());
+		tomcatClass.config.setProperty("configurator.tomcat.image.zip.file", image.getFileName().toString());
+		try {
+			for (String[] escape : new String[][] { { "apache-tomcat-test/../../evil.txt", null },
+					{ "apache-tomcat-test/lib/hostname", "apache-tomcat-test/../../../etc/hostname" } }) {
+				try (TarArchiveOutputStream tarOutput = new TarArchiveOutputStream(
+						new GzipCompressorOutputStream(Files.newOutputStream(image)))) {
+					addTarEntry(tarOutput, "apache-tomcat-test/conf/server.xml",
+							Files.readAllBytes(Paths.get("src/test/resources/testDefault.xml")), 0644);
+					if (escape[1] == null) {
+						addTarEntry(tarOutput, escape[0], "evil".getBytes(), 0644);
+					} else {
+						TarArchiveEntry link = new TarArchiveEntry(escape[0], TarArchiveEntry.LF_LINK);
+						link.setLinkName(escape[1]);
+						tarOutput.putArchiveEntry(link);
+						tarOutput.closeArchiveEntry();
+					}
+				}
+				tomcatClass.remove();
+				assertThrows(IOException.class,() -> {
+					tomcatClass.install();
+				});
+				assertFalse(Files.exists(Paths.get(tomcatClass.getInstallDirectory())));
+			}
+
+			// a/b leads back to the target, so a/b/c -> .. would lead above it
+			try (TarArchiveOutputStream tarOutput = new TarArchiveOutputStream(
+					new GzipCompressorOutputStream(Files.newOutputStream(image)))) {
+				addTarEntry(tarOutput, "apache-tomcat-test/conf/server.xml",
+						Files.readAllBytes(Paths.get("src/test/resources/testDefault.xml")), 0644);
+				addTarEntry(tarOutput, "apache-tomcat-test/conf/catalina.properties", new byte[0], 0644);
+				for (String name : List.of("apache-tomcat-test/a/b", "apache-tomcat-test/a/b/c")) {
+					TarArchiveEntry link = new TarArchiveEntry(name, TarArchiveEntry.LF_SYMLINK);
+					link.setLinkName("..");
+					tarOutput.putArchiveEntry(link);
+					tarOutput.closeArchiveEntry();
+				}
+				// a hard link to a file that is not in the image is skipped
+				TarArchiveEntry missing = new TarArchiveEntry("apache-tomcat-test/lib/missing.jar", TarArchiveEntry.LF_LINK);
+				missing.setLinkName("apache-tomcat-test/lib/absent.jar");
+				tarOutput.putArchiveEntry(missing);
+				tarOutput.closeArchiveEntry();
+			}
+			tomcatClass.remove();
+			tomcatClass.install();
+			assertTrue(tomcatClass.isInstalled());
+			assertTrue(Files.isSymbolicLink(Paths.get(tomcatClass.getInstallDirectory(), "a", "b")));
+			assertFalse(Files.exists(Paths.get(tomcatClass.getInstallDirectory(), "c"), LinkOption.NOFOLLOW_LINKS));
+			assertFalse(Files.exists(Paths.get(tomcatClass.getInstallDirectory(), "lib", "missing.jar")));
+		} finally {
+			FileUtils.deleteQuietly(imageDir.toFile());
+		}
+	}
+
+	private static void addTarEntry(TarArchiveOutputStream tarOutput, String name, byte[] content, int mode)
+			throws IOException {
+		TarArchiveEntry entry = new TarArchiveEntry(name);
+		entry.setSize(content.length);
+		entry.setMode(mode);
+		tarOutput.putArchiveEntry(entry);
+		tarOutput.write(content);
+		tarOutput.closeArchiveEntry();
+	}
+
 	/**
 	 * @throws Exception
 	 *